@@ -0,0 +1,155 @@
+-- Synthetic User Generator
+-- Appends realistic users to the users table created by init-external-db.sql, for
+-- performance testing (see perf-suite.sh). Generation is deterministic: a user's values
+-- only depend on its id, so two databases generated with the same row count match.
+--
+-- Usage: psql -v rows=1000000 -f generate-users.sql   (10 thousand to 50 million rows)
+--
+-- The data mimics a real directory:
+--   * first and last names follow a skewed (power law) distribution, so prefix searches
+--     for common names like 'james' or 'smith' match many users and rare ones few
+--   * usernames mix several styles (first.last, flast, handles, userNNN)
+--   * about 0.1% of users differ from another user only in case (username and email),
+--     the duplicates caseInsensitiveLookup has to resolve
+--   * password hashes mix the supported formats, all for the password "password123":
+--     45% PBKDF2, 25% BCrypt, 10% Argon2id, 17% legacy SHA-256, 3% plain text
+--   * 3% of users are disabled, updated_at is skewed towards recent changes
+
+\set ON_ERROR_STOP on
+
+\if :{?rows}
+\else
+    \echo 'Usage: psql -v rows=<count> -f generate-users.sql'
+    \quit
+\endif
+
+SELECT coalesce(max(id), 0) AS start_id, :rows >= 1000000 AS rebuild_indexes FROM users \gset
+
+-- Uniform pseudo-random value in [0, 1) for a user id and a purpose
+CREATE FUNCTION pg_temp.rnd(id BIGINT, purpose TEXT) RETURNS DOUBLE PRECISION AS $$
+    SELECT (hashtext(id::text || purpose)::BIGINT + 2147483648) / 4294967296.0
+$$ LANGUAGE sql IMMUTABLE;
+
+-- Skewed pick from a list: low indexes are much more likely
+CREATE FUNCTION pg_temp.pick(list TEXT[], id BIGINT, purpose TEXT) RETURNS TEXT AS $$
+    SELECT list[1 + floor(cardinality(list) * power(pg_temp.rnd(id, purpose), 2.5))::INT]
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE FUNCTION pg_temp.first_name(id BIGINT) RETURNS TEXT AS $$
+    SELECT pg_temp.pick(ARRAY[
+        'James', 'Mary', 'John', 'Patricia', 'Robert', 'Jennifer', 'Michael', 'Linda', 'William', 'Elizabeth',
+        'David', 'Barbara', 'Richard', 'Susan', 'Joseph', 'Jessica', 'Thomas', 'Sarah', 'Charles', 'Karen',
+        'Christopher', 'Nancy', 'Daniel', 'Lisa', 'Matthew', 'Betty', 'Anthony', 'Margaret', 'Mark', 'Sandra',
+        'Donald', 'Ashley', 'Steven', 'Kimberly', 'Paul', 'Emily', 'Andrew', 'Donna', 'Joshua', 'Michelle',
+        'Kenneth', 'Dorothy', 'Kevin', 'Carol', 'Brian', 'Amanda', 'George', 'Melissa', 'Edward', 'Deborah',
+        'Ronald', 'Stephanie', 'Timothy', 'Rebecca', 'Jason', 'Sharon', 'Jeffrey', 'Laura', 'Ryan', 'Cynthia',
+        'Jacob', 'Kathleen', 'Gary', 'Amy', 'Nicholas', 'Shirley', 'Eric', 'Angela', 'Jonathan', 'Helen',
+        'Stephen', 'Anna', 'Larry', 'Brenda', 'Justin', 'Pamela', 'Scott', 'Nicole', 'Brandon', 'Emma',
+        'Mohammed', 'Wei', 'Yuki', 'Priya', 'Olga', 'Chiara', 'Sven', 'Aiko', 'Mateo', 'Zanele',
+        'Ngozi', 'Siobhan', 'Bartholomew', 'Xiomara', 'Leopold', 'Ingrid', 'Rafael', 'Anneliese', 'Kwame', 'Thandiwe'
+    ], id, 'first')
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE FUNCTION pg_temp.last_name(id BIGINT) RETURNS TEXT AS $$
+    SELECT pg_temp.pick(ARRAY[
+        'Smith', 'Johnson', 'Williams', 'Brown', 'Jones', 'Garcia', 'Miller', 'Davis', 'Rodriguez', 'Martinez',
+        'Hernandez', 'Lopez', 'Gonzalez', 'Wilson', 'Anderson', 'Thomas', 'Taylor', 'Moore', 'Jackson', 'Martin',
+        'Lee', 'Perez', 'Thompson', 'White', 'Harris', 'Sanchez', 'Clark', 'Ramirez', 'Lewis', 'Robinson',
+        'Walker', 'Young', 'Allen', 'King', 'Wright', 'Scott', 'Torres', 'Nguyen', 'Hill', 'Flores',
+        'Green', 'Adams', 'Nelson', 'Baker', 'Hall', 'Rivera', 'Campbell', 'Mitchell', 'Carter', 'Roberts',
+        'Schmidt', 'Schmitt', 'Schmid', 'Muller', 'Mueller', 'Meyer', 'Meier', 'Maier', 'Mayer', 'Fischer',
+        'Rossi', 'Russo', 'Ferrari', 'Esposito', 'Bianchi', 'Dubois', 'Durand', 'Lefebvre', 'Moreau', 'Laurent',
+        'Kowalski', 'Nowak', 'Wisniewski', 'Ivanov', 'Petrov', 'Smirnov', 'Tanaka', 'Suzuki', 'Takahashi', 'Watanabe',
+        'Wang', 'Li', 'Zhang', 'Liu', 'Chen', 'Yang', 'Huang', 'Zhao', 'Kumar', 'Singh',
+        'Okafor', 'Mensah', 'Van der Berg', 'O''Brien', 'MacDonald', 'Fitzgerald', 'Papadopoulos', 'Johansson', 'Virtanen', 'Kaur'
+    ], id, 'last')
+$$ LANGUAGE sql IMMUTABLE;
+
+-- Every style ends in the id, which keeps usernames unique
+CREATE FUNCTION pg_temp.username(id BIGINT) RETURNS TEXT AS $$
+    SELECT CASE floor(pg_temp.rnd(id, 'style') * 10)::INT
+        WHEN 0 THEN lower(pg_temp.first_name(id)) || '.' || lower(replace(pg_temp.last_name(id), ' ', '')) || id
+        WHEN 1 THEN lower(pg_temp.first_name(id)) || '.' || lower(replace(pg_temp.last_name(id), ' ', '')) || id
+        WHEN 2 THEN lower(pg_temp.first_name(id)) || '.' || lower(replace(pg_temp.last_name(id), ' ', '')) || id
+        WHEN 3 THEN lower(pg_temp.first_name(id)) || '_' || lower(replace(pg_temp.last_name(id), ' ', '')) || id
+        WHEN 4 THEN lower(left(pg_temp.first_name(id), 1) || replace(pg_temp.last_name(id), ' ', '')) || id
+        WHEN 5 THEN lower(left(pg_temp.first_name(id), 1) || replace(pg_temp.last_name(id), ' ', '')) || id
+        WHEN 6 THEN lower(pg_temp.first_name(id)) || id
+        WHEN 7 THEN pg_temp.pick(ARRAY['dragon', 'ninja', 'coder', 'pixel', 'shadow', 'rocket', 'falcon', 'tiger'],
+                                 id, 'handle') || '_' || id
+        ELSE 'user' || id
+    END
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE FUNCTION pg_temp.email_domain(id BIGINT) RETURNS TEXT AS $$
+    SELECT pg_temp.pick(ARRAY[
+        'gmail.com', 'outlook.com', 'yahoo.com', 'example.com', 'hotmail.com', 'icloud.com', 'corp.example.com',
+        'mail.example.org', 'gmx.de', 'web.de', 'proton.me', 'university.edu', 'example.co.uk', 'orange.fr'
+    ], id, 'domain')
+$$ LANGUAGE sql IMMUTABLE;
+
+-- Near duplicates: every 997th user repeats the previous one's username and email in another case
+CREATE FUNCTION pg_temp.case_variant(id BIGINT) RETURNS BOOLEAN AS $$
+    SELECT id % 997 = 0
+$$ LANGUAGE sql IMMUTABLE;
+
+\if :rebuild_indexes
+    \echo 'Dropping secondary indexes for the bulk load, they are rebuilt afterwards'
+    DROP INDEX IF EXISTS idx_users_username, idx_users_email, idx_users_updated_at,
+        idx_users_username_lower, idx_users_email_lower,
+        idx_users_username_trgm, idx_users_email_trgm, idx_users_first_name_trgm, idx_users_last_name_trgm;
+\endif
+
+\echo 'Generating' :rows 'users after id' :start_id
+\timing on
+
+INSERT INTO users (id, username, email, first_name, last_name, password_hash, enabled, created_at, updated_at)
+SELECT g.id,
+       CASE WHEN pg_temp.case_variant(g.id) THEN initcap(pg_temp.username(g.id - 1)) ELSE pg_temp.username(g.id) END,
+       CASE WHEN pg_temp.case_variant(g.id)
+            THEN upper(pg_temp.username(g.id - 1)) || '@' || pg_temp.email_domain(g.id - 1)
+            ELSE pg_temp.username(g.id) || '@' || pg_temp.email_domain(g.id) END,
+       CASE WHEN pg_temp.rnd(g.id, 'no-first') < 0.02 THEN NULL ELSE pg_temp.first_name(g.id) END,
+       CASE WHEN pg_temp.rnd(g.id, 'no-last') < 0.02 THEN NULL ELSE pg_temp.last_name(g.id) END,
+       CASE
+           WHEN h.r < 0.45 THEN '{PBKDF2}310000$gJqCsqK7AbRmROZ8g18rSA==$FXDZjiuALMGzvjnTNaH7IDabPNJYNNvyhXi1fLtVMmk='
+           WHEN h.r < 0.70 THEN '$2b$12$gR/AOF5MbCh6FIS9AbmoyORvidJ9vtRIilC.bMRN0qOHl2HEL/z1i'
+           WHEN h.r < 0.80 THEN '$argon2id$v=19$m=65536,t=3,p=1$jN+WgsYCaOlRwDMddxb7Ig$2/lkGtskDzYTot5WO22P5CHwoQRd/ed736Z8v7zKomM'
+           WHEN h.r < 0.97 THEN '{SHA256}75K3eLr+dx6JJFuJ7LwIpEpOFmwGZZkRiB84PURz6U8='
+           ELSE 'password123'
+       END,
+       pg_temp.rnd(g.id, 'enabled') >= 0.03,
+       t.created_at,
+       -- Most users changed recently, some never since creation
+       t.created_at + (CURRENT_TIMESTAMP - t.created_at) * (1 - power(pg_temp.rnd(g.id, 'updated'), 4))
+FROM generate_series(:start_id + 1, :start_id + :rows) AS g(id)
+CROSS JOIN LATERAL (SELECT pg_temp.rnd(g.id, 'hash') AS r) h
+CROSS JOIN LATERAL (SELECT CURRENT_TIMESTAMP - interval '5 years' * pg_temp.rnd(g.id, 'created') AS created_at) t;
+
+SELECT setval('users_id_seq', (SELECT max(id) FROM users));
+
+\if :rebuild_indexes
+    \echo 'Rebuilding secondary indexes (same definitions as init-external-db.sql)'
+    SET maintenance_work_mem = '1GB';
+    CREATE INDEX IF NOT EXISTS idx_users_username ON users(username);
+    CREATE INDEX IF NOT EXISTS idx_users_email ON users(email);
+    CREATE INDEX IF NOT EXISTS idx_users_updated_at ON users(updated_at);
+    CREATE INDEX IF NOT EXISTS idx_users_username_lower ON users(lower(username));
+    CREATE INDEX IF NOT EXISTS idx_users_email_lower ON users(lower(email));
+    CREATE INDEX IF NOT EXISTS idx_users_username_trgm ON users USING gin (username gin_trgm_ops);
+    CREATE INDEX IF NOT EXISTS idx_users_email_trgm ON users USING gin (email gin_trgm_ops);
+    CREATE INDEX IF NOT EXISTS idx_users_first_name_trgm ON users USING gin (first_name gin_trgm_ops);
+    CREATE INDEX IF NOT EXISTS idx_users_last_name_trgm ON users USING gin (last_name gin_trgm_ops);
+\endif
+
+ANALYZE users;
+
+-- Summary
+SELECT count(*) AS total_users,
+       count(*) FILTER (WHERE NOT enabled) AS disabled,
+       count(*) FILTER (WHERE password_hash LIKE '{PBKDF2}%') AS pbkdf2,
+       count(*) FILTER (WHERE password_hash LIKE '$2%') AS bcrypt,
+       count(*) FILTER (WHERE password_hash LIKE '$argon2id$%') AS argon2,
+       count(*) FILTER (WHERE password_hash LIKE '{SHA256}%') AS sha256,
+       pg_size_pretty(pg_total_relation_size('users')) AS table_size
+FROM users;
@@ -18,6 +18,24 @@ CREATE TABLE IF NOT EXISTS users (
 CREATE INDEX IF NOT EXISTS idx_users_username ON users(username);
 CREATE INDEX IF NOT EXISTS idx_users_email ON users(email);
 
+-- Shard databases (shards) list users in "C" collation order for merging, create on every shard:
+-- CREATE INDEX IF NOT EXISTS idx_users_username_c ON users(username COLLATE "C");
+
+-- Index for warm-up and incremental index catch-up by last update time
+CREATE INDEX IF NOT EXISTS idx_users_updated_at ON users(updated_at);
+
+-- Case-insensitive lookups (caseInsensitiveLookup) and exact admin searches; once usernames
+-- and emails are unique ignoring case these can be made UNIQUE
+CREATE INDEX IF NOT EXISTS idx_users_username_lower ON users(lower(username));
+CREATE INDEX IF NOT EXISTS idx_users_email_lower ON users(lower(email));
+
+-- Trigram indexes for substring search (ILIKE '%term%')
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX IF NOT EXISTS idx_users_username_trgm ON users USING gin (username gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_users_email_trgm ON users USING gin (email gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_users_first_name_trgm ON users USING gin (first_name gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_users_last_name_trgm ON users USING gin (last_name gin_trgm_ops);
+
 -- Insert test users
 -- Password for all test users: "password123"
 -- SHA-256 hash: {SHA256}75K3eLr+dx6JJFuJ7LwIpEpOFmwGZZkRiB84PURz6U8=
@@ -45,6 +63,15 @@ CREATE TRIGGER update_users_updated_at
     FOR EACH ROW
     EXECUTE FUNCTION update_updated_at_column();
 
+-- Change feed (changeFeed) high-water marks, one row per component (and shard); the provider
+-- creates this table itself when its database user may
+CREATE TABLE IF NOT EXISTS user_change_feed_checkpoints (
+    consumer VARCHAR(255) PRIMARY KEY,
+    last_updated_at TIMESTAMP NOT NULL,
+    last_id BIGINT NOT NULL,
+    checkpointed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
 -- Display created users
 SELECT
     id,
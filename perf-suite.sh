@@ -0,0 +1,106 @@
+#!/bin/bash
+set -e
+
+# Performance regression suite against a local PostgreSQL
+#
+# Usage: ./perf-suite.sh [--generate <rows>] [--no-build] [suite options...]
+#
+#   --generate <rows>   create the schema if missing and append <rows> synthetic users
+#                       (generate-users.sql) before measuring
+#   --no-build          use the classes already in target/ (the suite is built from src/perf)
+#
+# Suite options are passed to PerformanceSuite, e.g. --threads 16 --seconds 30,
+# --update-baseline, --tolerance 0.2, --only provider or --engine reactive. Results go to
+# perf/results.json; the first run (or --update-baseline) stores
+# perf/baselines/baseline-<rows>[-<engine>].json, later runs compare against it and the
+# script exits with status 1 on a regression.
+#
+# Connection settings come from the same variables as the provider:
+# EXTERNAL_DB_HOST, EXTERNAL_DB_PORT, EXTERNAL_DB_NAME, EXTERNAL_DB_USER, EXTERNAL_DB_PASSWORD
+
+DB_HOST="${EXTERNAL_DB_HOST:-localhost}"
+DB_PORT="${EXTERNAL_DB_PORT:-5432}"
+DB_NAME="${EXTERNAL_DB_NAME:-external_users}"
+DB_USER="${EXTERNAL_DB_USER:-postgres}"
+DB_PASSWORD="${EXTERNAL_DB_PASSWORD:-}"
+
+GENERATE_ROWS=""
+BUILD=true
+ENGINE=jdbc
+SUITE_ARGS=()
+while [ $# -gt 0 ]; do
+    case "$1" in
+        --generate)
+            GENERATE_ROWS="$2"
+            shift 2
+            ;;
+        --no-build)
+            BUILD=false
+            shift
+            ;;
+        --engine)
+            ENGINE="$2"
+            SUITE_ARGS+=("$1" "$2")
+            shift 2
+            ;;
+        *)
+            SUITE_ARGS+=("$1")
+            shift
+            ;;
+    esac
+done
+
+echo "========================================="
+echo "External User Storage Performance Suite"
+echo "Database: $DB_HOST:$DB_PORT/$DB_NAME"
+echo "========================================="
+
+export PGPASSWORD="$DB_PASSWORD"
+PSQL=(psql -h "$DB_HOST" -p "$DB_PORT" -U "$DB_USER" -d "$DB_NAME" -v ON_ERROR_STOP=1 -q)
+
+if [ -n "$GENERATE_ROWS" ]; then
+    if ! command -v psql &> /dev/null; then
+        echo "Error: psql is needed to generate users"
+        exit 1
+    fi
+    if [ "$("${PSQL[@]}" -tAc "SELECT to_regclass('users') IS NOT NULL")" != "t" ]; then
+        echo "Creating schema..."
+        "${PSQL[@]}" -f init-external-db.sql > /dev/null
+    fi
+    echo "Generating $GENERATE_ROWS users..."
+    "${PSQL[@]}" -v rows="$GENERATE_ROWS" -f generate-users.sql
+fi
+
+if [ "$BUILD" = true ]; then
+    echo "Building..."
+    mvn -q test-compile
+fi
+if [ ! -f target/perf.classpath ] || [ pom.xml -nt target/perf.classpath ]; then
+    # Keycloak classes are provided by the server at runtime, the suite needs them on its classpath
+    mvn -q dependency:build-classpath -Dmdep.outputFile=target/perf.classpath
+fi
+
+ROWS=$("${PSQL[@]}" -tAc "SELECT count(*) FROM users" 2>/dev/null || echo "unknown")
+if [ "$ENGINE" = jdbc ]; then
+    BASELINE="perf/baselines/baseline-$ROWS.json"
+else
+    BASELINE="perf/baselines/baseline-$ROWS-$ENGINE.json"
+fi
+
+set +e
+java -cp "target/classes:target/test-classes:$(cat target/perf.classpath)" \
+    com.example.keycloak.storage.perf.PerformanceSuite \
+    --db "$DB_HOST:$DB_PORT/$DB_NAME" --user "$DB_USER" --password "$DB_PASSWORD" \
+    --baseline "$BASELINE" --results perf/results.json "${SUITE_ARGS[@]}"
+STATUS=$?
+set -e
+
+echo ""
+if [ $STATUS -eq 0 ]; then
+    echo "✅ No performance regressions"
+elif [ $STATUS -eq 1 ]; then
+    echo "❌ Performance regressed against $BASELINE"
+else
+    echo "❌ Performance suite failed"
+fi
+exit $STATUS
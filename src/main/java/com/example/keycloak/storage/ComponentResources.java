@@ -0,0 +1,136 @@
+package com.example.keycloak.storage;
+
+import com.example.keycloak.storage.cache.DegradedCredentialCache;
+import com.example.keycloak.storage.cache.ExternalUserCache;
+import com.example.keycloak.storage.cache.SearchTotalCache;
+import com.example.keycloak.storage.cache.UserIndex;
+import com.example.keycloak.storage.database.DatabaseConnectionManager;
+import com.example.keycloak.storage.database.KeyNormalization;
+import com.example.keycloak.storage.database.UserRepository;
+import com.example.keycloak.storage.shard.ShardRouter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+/**
+ * Component Resources - state shared by all provider instances of one component
+ * (connection pool, repository, lookup cache and index), owned by the factory
+ */
+public class ComponentResources {
+    private static final int SEARCH_TOTALS_MAX_ENTRIES = 1000;
+    private static final long SEARCH_TOTALS_TTL_SECONDS = 30;
+
+    private final List<DatabaseConnectionManager> connectionManagers;
+    private final UserRepository userRepository;
+    private final ExternalUserCache userCache;
+    private final KeyNormalization keyNormalization;
+    private final SearchTotalCache searchTotals = new SearchTotalCache(SEARCH_TOTALS_MAX_ENTRIES, SEARCH_TOTALS_TTL_SECONDS);
+    private volatile UserIndex userIndex;
+    private volatile DegradedCredentialCache degradedCache;
+    private volatile ShardRouter shardRouter;
+    private final List<Future<?>> backgroundTasks = new CopyOnWriteArrayList<>();
+    private final List<Runnable> closeActions = new CopyOnWriteArrayList<>();
+
+    public ComponentResources(List<DatabaseConnectionManager> connectionManagers, UserRepository userRepository,
+                              ExternalUserCache userCache, KeyNormalization keyNormalization) {
+        this.connectionManagers = List.copyOf(connectionManagers);
+        this.userRepository = userRepository;
+        this.userCache = userCache;
+        this.keyNormalization = keyNormalization;
+    }
+
+    /**
+     * One connection manager per JDBC database (a single one unless the directory is sharded,
+     * none with the reactive engine)
+     */
+    public List<DatabaseConnectionManager> getConnectionManagers() {
+        return connectionManagers;
+    }
+
+    public UserRepository getUserRepository() {
+        return userRepository;
+    }
+
+    public ExternalUserCache getUserCache() {
+        return userCache;
+    }
+
+    /**
+     * How the repository compares usernames and emails
+     */
+    public KeyNormalization getKeyNormalization() {
+        return keyNormalization;
+    }
+
+    /**
+     * Match counts of recent admin listings
+     */
+    public SearchTotalCache getSearchTotals() {
+        return searchTotals;
+    }
+
+    /**
+     * Optional persistent lookup index, null when snapshots are disabled
+     */
+    public UserIndex getUserIndex() {
+        return userIndex;
+    }
+
+    public void setUserIndex(UserIndex userIndex) {
+        this.userIndex = userIndex;
+    }
+
+    /**
+     * Optional last-known credentials for logins during database outages, null when degraded mode is off
+     */
+    public DegradedCredentialCache getDegradedCache() {
+        return degradedCache;
+    }
+
+    public void setDegradedCache(DegradedCredentialCache degradedCache) {
+        this.degradedCache = degradedCache;
+    }
+
+    /**
+     * Router of a sharded directory, null with a single database
+     */
+    public ShardRouter getShardRouter() {
+        return shardRouter;
+    }
+
+    public void setShardRouter(ShardRouter shardRouter) {
+        this.shardRouter = shardRouter;
+    }
+
+    /**
+     * Whether degraded mode is on and a database circuit is open
+     */
+    public boolean isDegraded() {
+        return degradedCache != null && connectionManagers.stream().anyMatch(DatabaseConnectionManager::isCircuitOpen);
+    }
+
+    /**
+     * Register a scheduled task to cancel when the component is closed
+     */
+    public void addBackgroundTask(Future<?> task) {
+        backgroundTasks.add(task);
+    }
+
+    /**
+     * Register a resource to release when the component is closed
+     */
+    public void addCloseAction(Runnable action) {
+        closeActions.add(action);
+    }
+
+    public void close() {
+        backgroundTasks.forEach(task -> task.cancel(true));
+        userCache.clear();
+        if (degradedCache != null) {
+            degradedCache.clear();
+        }
+        connectionManagers.forEach(DatabaseConnectionManager::close);
+        closeActions.forEach(Runnable::run);
+    }
+}
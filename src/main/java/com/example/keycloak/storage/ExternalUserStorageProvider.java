@@ -1,12 +1,29 @@
 package com.example.keycloak.storage;
 
 import com.example.keycloak.storage.adapter.ExternalUserAdapter;
-import com.example.keycloak.storage.database.DatabaseConnectionManager;
+import com.example.keycloak.storage.cache.DegradedCredentialCache;
+import com.example.keycloak.storage.cache.ExternalUserCache;
+import com.example.keycloak.storage.cache.SearchTotalCache;
+import com.example.keycloak.storage.cache.UserIndex;
+import com.example.keycloak.storage.database.DatabaseUnavailableException;
+import com.example.keycloak.storage.database.KeyNormalization;
+import com.example.keycloak.storage.database.PasswordHasher;
+import com.example.keycloak.storage.database.PasswordRehashService;
+import com.example.keycloak.storage.database.PasswordVerificationEngine;
 import com.example.keycloak.storage.database.UserRepository;
+import com.example.keycloak.storage.database.UserSearchCriteria;
 import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.model.UserIndexEntry;
+import com.example.keycloak.storage.security.LoginThrottle;
+import com.example.keycloak.storage.shard.ShardRouter;
+import com.example.keycloak.storage.shard.ShardedId;
+import com.example.keycloak.storage.tracing.Span;
+import com.example.keycloak.storage.tracing.Tracer;
 import org.jboss.logging.Logger;
+import org.keycloak.common.ClientConnection;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.credential.CredentialInput;
+import org.keycloak.credential.CredentialInputUpdater;
 import org.keycloak.credential.CredentialInputValidator;
 import org.keycloak.models.GroupModel;
 import org.keycloak.models.KeycloakSession;
@@ -17,31 +34,51 @@ import org.keycloak.provider.Provider;
 import org.keycloak.storage.StorageId;
 import org.keycloak.storage.user.UserLookupProvider;
 import org.keycloak.storage.user.UserQueryProvider;
+import org.keycloak.storage.user.UserRegistrationProvider;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 /**
  * External User Storage Provider - main provider implementation
- * Implements user lookup, search, and credential validation
+ * Implements user lookup, search, profile updates, and credential validation and updates
  */
 public class ExternalUserStorageProvider implements
         Provider,
         UserLookupProvider,
         UserQueryProvider,
-        CredentialInputValidator {
+        UserRegistrationProvider,
+        CredentialInputValidator,
+        CredentialInputUpdater {
 
     private static final Logger logger = Logger.getLogger(ExternalUserStorageProvider.class);
 
     protected final KeycloakSession session;
     protected final ComponentModel model;
+    private final ComponentResources resources;
     private final UserRepository userRepository;
+    private final ExternalUserCache userCache;
+    private final PasswordRehashService rehashService;
+    private final PasswordVerificationEngine verificationEngine;
+    private final LoginThrottle loginThrottle;
+    private UserWriteBehindTransaction pendingUpdates;
 
     public ExternalUserStorageProvider(KeycloakSession session, ComponentModel model,
-                                      DatabaseConnectionManager connectionManager) {
+                                      ComponentResources resources,
+                                      PasswordRehashService rehashService,
+                                      PasswordVerificationEngine verificationEngine,
+                                      LoginThrottle loginThrottle) {
         this.session = session;
         this.model = model;
-        this.userRepository = new UserRepository(connectionManager);
+        this.resources = resources;
+        this.userRepository = resources.getUserRepository();
+        this.userCache = resources.getUserCache();
+        this.rehashService = rehashService;
+        this.verificationEngine = verificationEngine;
+        this.loginThrottle = loginThrottle;
         logger.infof("External User Storage Provider initialized for model: %s", model.getName());
     }
 
@@ -50,17 +87,113 @@ public class ExternalUserStorageProvider implements
         logger.debug("Closing External User Storage Provider");
     }
 
+    private ExternalUserAdapter createAdapter(RealmModel realm, ExternalUser externalUser) {
+        return new ExternalUserAdapter(session, realm, model, externalUser, this);
+    }
+
+    /**
+     * Per-session write-behind queue, enlisted in the Keycloak transaction on first use
+     */
+    public UserWriteBehindTransaction getPendingUpdates() {
+        if (pendingUpdates == null) {
+            pendingUpdates = new UserWriteBehindTransaction(session, resources);
+            session.getTransactionManager().enlist(pendingUpdates);
+        }
+        return pendingUpdates;
+    }
+
+    /**
+     * Router of a sharded directory, null with a single database
+     */
+    public ShardRouter getShardRouter() {
+        return resources.getShardRouter();
+    }
+
+    private ExternalUser findById(Long id) {
+        ExternalUser user = userCache.getById(id);
+        if (user == null) {
+            user = userRepository.findById(id);
+            userCache.put(user);
+        }
+        return user;
+    }
+
+    private ExternalUser findByUsername(String username) {
+        ExternalUser user = userCache.getByUsername(username);
+        if (user == null) {
+            try {
+                user = loadByUsername(username);
+            } catch (DatabaseUnavailableException e) {
+                if (!resources.isDegraded()) {
+                    throw e;
+                }
+            }
+        }
+        if (user == null && resources.isDegraded()) {
+            user = resources.getDegradedCache().get(username);
+            if (user != null) {
+                logger.debugf("Database unavailable, using last known state of user: %s", username);
+            }
+        }
+        return user;
+    }
+
+    private ExternalUser loadByUsername(String username) {
+        UserIndex userIndex = resources.getUserIndex();
+        ExternalUser user = userIndex != null
+                ? byIndex(userIndex, userIndex.findByUsername(username), ExternalUser::getUsername, username)
+                : null;
+        if (user == null) {
+            user = userRepository.findByUsername(username);
+            userCache.put(user);
+        }
+        return user;
+    }
+
+    private ExternalUser findByEmail(String email) {
+        ExternalUser user = userCache.getByEmail(email);
+        if (user == null) {
+            UserIndex userIndex = resources.getUserIndex();
+            if (userIndex != null) {
+                user = byIndex(userIndex, userIndex.findByEmail(email), ExternalUser::getEmail, email);
+            }
+        }
+        if (user == null) {
+            user = userRepository.findByEmail(email);
+            userCache.put(user);
+        }
+        return user;
+    }
+
+    /**
+     * The user an index entry points to, read by primary key: a single-shard lookup even when
+     * the key itself would fan out to every shard. The index lags behind the database, so a miss
+     * proves nothing and an entry may name a user renamed since: the user read must still carry
+     * the key, otherwise the caller falls back to the lookup by key.
+     */
+    private ExternalUser byIndex(UserIndex userIndex, UserIndexEntry entry,
+                                 Function<ExternalUser, String> field, String key) {
+        if (entry == null) {
+            return null;
+        }
+        ExternalUser user = findById(entry.getId());
+        KeyNormalization keyNormalization = userIndex.getKeyNormalization();
+        return user != null && Objects.equals(keyNormalization.apply(field.apply(user)), keyNormalization.apply(key))
+                ? user : null;
+    }
+
     // ===== UserLookupProvider Implementation =====
 
     @Override
     public UserModel getUserById(RealmModel realm, String id) {
         logger.debugf("Looking up user by ID: %s", id);
         String externalId = StorageId.externalId(id);
-        try {
-            Long userId = Long.parseLong(externalId);
-            ExternalUser externalUser = userRepository.findById(userId);
+        try (Span span = Tracer.startTrace("getUserById")) {
+            Long userId = ShardedId.parse(externalId);
+            ExternalUser externalUser = findById(userId);
+            span.attribute("user.found", externalUser != null);
             if (externalUser != null) {
-                return new ExternalUserAdapter(session, realm, model, externalUser);
+                return createAdapter(realm, externalUser);
             }
         } catch (NumberFormatException e) {
             logger.errorf("Invalid user ID format: %s", externalId);
@@ -71,9 +204,13 @@ public class ExternalUserStorageProvider implements
     @Override
     public UserModel getUserByUsername(RealmModel realm, String username) {
         logger.debugf("Looking up user by username: %s", username);
-        ExternalUser externalUser = userRepository.findByUsername(username);
+        ExternalUser externalUser;
+        try (Span span = Tracer.startTrace("getUserByUsername")) {
+            externalUser = findByUsername(username);
+            span.attribute("user.found", externalUser != null);
+        }
         if (externalUser != null) {
-            return new ExternalUserAdapter(session, realm, model, externalUser);
+            return createAdapter(realm, externalUser);
         }
         logger.debugf("User not found: %s", username);
         return null;
@@ -82,9 +219,13 @@ public class ExternalUserStorageProvider implements
     @Override
     public UserModel getUserByEmail(RealmModel realm, String email) {
         logger.debugf("Looking up user by email: %s", email);
-        ExternalUser externalUser = userRepository.findByEmail(email);
+        ExternalUser externalUser;
+        try (Span span = Tracer.startTrace("getUserByEmail")) {
+            externalUser = findByEmail(email);
+            span.attribute("user.found", externalUser != null);
+        }
         if (externalUser != null) {
-            return new ExternalUserAdapter(session, realm, model, externalUser);
+            return createAdapter(realm, externalUser);
         }
         logger.debugf("User not found with email: %s", email);
         return null;
@@ -95,39 +236,96 @@ public class ExternalUserStorageProvider implements
     @Override
     public int getUsersCount(RealmModel realm) {
         logger.debug("Getting total users count");
-        return userRepository.getUsersCount();
+        return countUsers(new UserSearchCriteria());
+    }
+
+    @Override
+    public int getUsersCount(RealmModel realm, String search) {
+        return countUsers(new UserSearchCriteria().search(search));
+    }
+
+    @Override
+    public int getUsersCount(RealmModel realm, Map<String, String> params) {
+        UserSearchCriteria criteria = toCriteria(params);
+        return criteria != null ? countUsers(criteria) : 0;
+    }
+
+    private int countUsers(UserSearchCriteria criteria) {
+        try (Span span = Tracer.startTrace("getUsersCount")) {
+            Integer total = resources.getSearchTotals().get(criteria);
+            span.attribute("cache.hit", total != null);
+            if (total == null) {
+                total = userRepository.countUsers(criteria);
+                resources.getSearchTotals().put(criteria, total);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Fetch one page. The first page of a search not counted recently also counts the matches
+     * in the same query, so the total Keycloak asks for separately comes from the search total
+     * cache; later pages use a plain LIMIT query.
+     */
+    private Stream<UserModel> listUsers(RealmModel realm, UserSearchCriteria criteria,
+                                        Integer firstResult, Integer maxResults) {
+        int first = firstResult != null && firstResult > 0 ? firstResult : 0;
+        int max = maxResults != null && maxResults >= 0 ? maxResults : Integer.MAX_VALUE;
+        SearchTotalCache searchTotals = resources.getSearchTotals();
+        List<ExternalUser> users;
+        try (Span span = Tracer.startTrace("searchForUserStream")) {
+            users = first == 0 && searchTotals.get(criteria) == null
+                    ? userRepository.searchUsers(criteria, first, max, total -> searchTotals.put(criteria, total))
+                    : userRepository.searchUsers(criteria, first, max);
+            span.attribute("search.results", users.size());
+        }
+        return users.stream().map(user -> createAdapter(realm, user));
     }
 
     @Override
     public Stream<UserModel> searchForUserStream(RealmModel realm, String search, Integer firstResult, Integer maxResults) {
         logger.debugf("Searching users with term: %s (first=%d, max=%d)", search, firstResult, maxResults);
-        return userRepository.searchUsers(search, firstResult, maxResults).stream()
-                .map(user -> new ExternalUserAdapter(session, realm, model, user));
+        return listUsers(realm, new UserSearchCriteria().search(search), firstResult, maxResults);
     }
 
     @Override
     public Stream<UserModel> searchForUserStream(RealmModel realm, Map<String, String> params, Integer firstResult, Integer maxResults) {
         logger.debugf("Searching users with params: %s", params);
 
-        String search = params.get(UserModel.SEARCH);
-        if (search != null) {
-            return searchForUserStream(realm, search, firstResult, maxResults);
+        UserSearchCriteria criteria = toCriteria(params);
+        if (criteria == null) {
+            return Stream.empty();
         }
 
-        String username = params.get(UserModel.USERNAME);
-        if (username != null) {
-            UserModel user = getUserByUsername(realm, username);
+        // Exact admin searches compare ignoring case, as key lookups only do under LOWER_CASE
+        if (criteria.isExactKeyLookup() && resources.getKeyNormalization() == KeyNormalization.LOWER_CASE) {
+            UserModel user = criteria.getUsername() != null ? getUserByUsername(realm, criteria.getUsername())
+                    : getUserByEmail(realm, criteria.getEmail());
             return user != null ? Stream.of(user) : Stream.empty();
         }
 
-        String email = params.get(UserModel.EMAIL);
-        if (email != null) {
-            UserModel user = getUserByEmail(realm, email);
-            return user != null ? Stream.of(user) : Stream.empty();
+        return listUsers(realm, criteria, firstResult, maxResults);
+    }
+
+    /**
+     * Map Keycloak's search parameters, null when no external user can match
+     */
+    private static UserSearchCriteria toCriteria(Map<String, String> params) {
+        // External users have no identity provider links and always report a verified email
+        if (params.containsKey(UserModel.IDP_ALIAS) || params.containsKey(UserModel.IDP_USER_ID)
+                || "false".equalsIgnoreCase(params.get(UserModel.EMAIL_VERIFIED))) {
+            return null;
         }
 
-        // Default: return all users
-        return getUsersStream(realm, firstResult, maxResults);
+        String enabled = params.get(UserModel.ENABLED);
+        return new UserSearchCriteria()
+                .search(params.get(UserModel.SEARCH))
+                .username(params.get(UserModel.USERNAME))
+                .email(params.get(UserModel.EMAIL))
+                .firstName(params.get(UserModel.FIRST_NAME))
+                .lastName(params.get(UserModel.LAST_NAME))
+                .enabled(enabled != null ? Boolean.valueOf(enabled) : null)
+                .exact(Boolean.parseBoolean(params.get(UserModel.EXACT)));
     }
 
     @Override
@@ -146,8 +344,43 @@ public class ExternalUserStorageProvider implements
 
     public Stream<UserModel> getUsersStream(RealmModel realm, Integer firstResult, Integer maxResults) {
         logger.debugf("Getting all users (first=%d, max=%d)", firstResult, maxResults);
-        return userRepository.getAllUsers(firstResult, maxResults).stream()
-                .map(user -> new ExternalUserAdapter(session, realm, model, user));
+        return listUsers(realm, new UserSearchCriteria(), firstResult, maxResults);
+    }
+
+    // ===== UserRegistrationProvider Implementation =====
+
+    @Override
+    public UserModel addUser(RealmModel realm, String username) {
+        // Users are provisioned in the external system (email and password hash are mandatory there),
+        // returning null lets Keycloak fall back to local storage
+        logger.debugf("User creation not supported in external database: %s", username);
+        return null;
+    }
+
+    @Override
+    public boolean removeUser(RealmModel realm, UserModel user) {
+        String externalId = StorageId.externalId(user.getId());
+        try {
+            Long userId = ShardedId.parse(externalId);
+            if (pendingUpdates != null) {
+                pendingUpdates.discard(userId);
+            }
+            logger.debugf("Removing user: %s", user.getUsername());
+            userCache.invalidate(userId);
+            resources.getSearchTotals().clear();
+            if (resources.getDegradedCache() != null) {
+                resources.getDegradedCache().remove(user.getUsername());
+            }
+            if (resources.getUserIndex() != null) {
+                resources.getUserIndex().remove(userId);
+            }
+            try (Span span = Tracer.startTrace("removeUser")) {
+                return userRepository.deleteUser(userId);
+            }
+        } catch (NumberFormatException e) {
+            logger.errorf("Invalid user ID format: %s", externalId);
+        }
+        return false;
     }
 
     // ===== CredentialInputValidator Implementation =====
@@ -171,13 +404,108 @@ public class ExternalUserStorageProvider implements
             return false;
         }
 
-        String username = user.getUsername();
-        String password = credentialInput.getChallengeResponse();
+        Span span = Tracer.startTrace("isValid");
+        try {
+            boolean valid = validatePassword(user.getUsername(), credentialInput.getChallengeResponse());
+            span.attribute("credential.valid", valid);
+            return valid;
+        } catch (RuntimeException e) {
+            // e.g. verification shed under overload
+            span.error(e);
+            throw e;
+        } finally {
+            span.close();
+        }
+    }
+
+    private boolean validatePassword(String username, String password) {
+        // Throttle before any database or hashing work
+        if (loginThrottle != null && !loginThrottle.tryAcquire(username, getClientAddress())) {
+            logger.warnf("Login attempt throttled for user: %s", username);
+            return false;
+        }
 
         logger.debugf("Validating credentials for user: %s", username);
-        boolean isValid = userRepository.validateCredentials(username, password);
+        ExternalUser externalUser = findByUsername(username);
+        // Never decide a login on a stale or disabled cached copy, the user may have been (re-)enabled or disabled since
+        if (externalUser != null && (!externalUser.isEnabled() || userCache.isStale(externalUser.getId()))) {
+            ExternalUser reloaded = null;
+            try {
+                reloaded = userRepository.findById(externalUser.getId());
+            } catch (DatabaseUnavailableException e) {
+                if (!resources.isDegraded()) {
+                    throw e;
+                }
+            }
+            if (reloaded != null || !resources.isDegraded()) {
+                externalUser = reloaded;
+                userCache.put(externalUser);
+            }
+        }
+        boolean isValid = externalUser != null && externalUser.isEnabled()
+                && verificationEngine.verify(password, externalUser.getPasswordHash());
         logger.debugf("Credential validation result for '%s': %s", username, isValid);
 
+        DegradedCredentialCache degradedCache = resources.getDegradedCache();
+        if (resources.isDegraded()) {
+            return isValid;
+        }
+        if (degradedCache != null) {
+            // Only states read while the database is reachable, so staleness stays bounded
+            if (externalUser != null) {
+                degradedCache.put(externalUser);
+            } else {
+                degradedCache.remove(username);
+            }
+        }
+
+        if (isValid && PasswordHasher.needsRehash(externalUser.getPasswordHash())) {
+            Long userId = externalUser.getId();
+            rehashService.submit(userRepository, externalUser, password, () -> userCache.invalidate(userId));
+        }
         return isValid;
     }
+
+    private String getClientAddress() {
+        ClientConnection connection = session.getContext() != null ? session.getContext().getConnection() : null;
+        return connection != null ? connection.getRemoteAddr() : null;
+    }
+
+    // ===== CredentialInputUpdater Implementation =====
+
+    @Override
+    public boolean updateCredential(RealmModel realm, UserModel user, CredentialInput input) {
+        if (!supportsCredentialType(input.getType())) {
+            return false;
+        }
+
+        String externalId = StorageId.externalId(user.getId());
+        try {
+            Long userId = ShardedId.parse(externalId);
+            logger.debugf("Updating password for user: %s", user.getUsername());
+            boolean updated;
+            try (Span span = Tracer.startTrace("updateCredential")) {
+                updated = userRepository.updatePasswordHash(userId,
+                        PasswordHasher.hashPassword(input.getChallengeResponse()));
+            }
+            userCache.invalidate(userId);
+            if (resources.getDegradedCache() != null) {
+                resources.getDegradedCache().remove(user.getUsername());
+            }
+            return updated;
+        } catch (NumberFormatException e) {
+            logger.errorf("Invalid user ID format: %s", externalId);
+        }
+        return false;
+    }
+
+    @Override
+    public void disableCredentialType(RealmModel realm, UserModel user, String credentialType) {
+        // Passwords are mandatory in the external database and cannot be disabled
+    }
+
+    @Override
+    public Stream<String> getDisableableCredentialTypesStream(RealmModel realm, UserModel user) {
+        return Stream.empty();
+    }
 }
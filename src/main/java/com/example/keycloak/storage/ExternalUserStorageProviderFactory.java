@@ -1,16 +1,58 @@
 package com.example.keycloak.storage;
 
+import com.example.keycloak.storage.cache.CacheBudget;
+import com.example.keycloak.storage.cache.CacheWarmer;
+import com.example.keycloak.storage.cache.DegradedCredentialCache;
+import com.example.keycloak.storage.cache.ExternalUserCache;
+import com.example.keycloak.storage.cache.UserIndex;
+import com.example.keycloak.storage.changefeed.AdminEventChangeSink;
+import com.example.keycloak.storage.changefeed.ChangeFeed;
+import com.example.keycloak.storage.changefeed.ChangeSink;
+import com.example.keycloak.storage.changefeed.LoggingChangeSink;
 import com.example.keycloak.storage.database.DatabaseConnectionManager;
+import com.example.keycloak.storage.database.HedgedUserRepository;
+import com.example.keycloak.storage.database.JdbcUserRepository;
+import com.example.keycloak.storage.database.KeyNormalization;
+import com.example.keycloak.storage.database.PasswordHasher;
+import com.example.keycloak.storage.database.PasswordRehashService;
+import com.example.keycloak.storage.database.PasswordVerificationEngine;
+import com.example.keycloak.storage.database.ReactiveUserRepository;
+import com.example.keycloak.storage.database.SchemaInspector;
+import com.example.keycloak.storage.database.SlowQueryLog;
+import com.example.keycloak.storage.database.SingleFlightUserRepository;
+import com.example.keycloak.storage.database.UserRepository;
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import com.example.keycloak.storage.password.Argon2PasswordVerifier;
+import com.example.keycloak.storage.password.BCryptPasswordVerifier;
+import com.example.keycloak.storage.password.Pbkdf2PasswordVerifier;
+import com.example.keycloak.storage.security.LoginThrottle;
+import com.example.keycloak.storage.tracing.SpanExporter;
+import com.example.keycloak.storage.tracing.Tracer;
+import com.example.keycloak.storage.shard.ShardRouter;
+import com.example.keycloak.storage.shard.ShardedId;
+import com.example.keycloak.storage.shard.ShardedUserRepository;
 import org.jboss.logging.Logger;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.component.ComponentValidationException;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.provider.ProviderConfigurationBuilder;
 import org.keycloak.component.ComponentFactory;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongUnaryOperator;
 
 /**
  * External User Storage Provider Factory
@@ -29,12 +71,92 @@ public class ExternalUserStorageProviderFactory
     private static final String CONFIG_KEY_DB_NAME = "dbName";
     private static final String CONFIG_KEY_DB_USER = "dbUser";
     private static final String CONFIG_KEY_DB_PASSWORD = "dbPassword";
+    private static final String CONFIG_KEY_POOL_SIZE = "poolSize";
+    private static final String CONFIG_KEY_DB_ENGINE = "dbEngine";
+    private static final String CONFIG_KEY_PIPELINING_LIMIT = "pipeliningLimit";
+    private static final String CONFIG_KEY_ADAPTIVE_CONCURRENCY = "adaptiveConcurrency";
+    private static final String CONFIG_KEY_CACHE_MAX_ENTRIES = "cacheMaxEntries";
+    private static final String CONFIG_KEY_CACHE_TTL_SECONDS = "cacheTtlSeconds";
+    private static final String CONFIG_KEY_CACHE_REFRESH_AFTER_SECONDS = "cacheRefreshAfterSeconds";
+    private static final String CONFIG_KEY_CACHE_WEIGHT = "cacheWeight";
+    private static final String CONFIG_KEY_WARMUP_USERS = "warmupUsers";
+    private static final String CONFIG_KEY_WARMUP_BUDGET_MILLIS = "warmupTimeBudgetMillis";
+    private static final String CONFIG_KEY_INDEX_SNAPSHOT_DIR = "indexSnapshotDir";
+    private static final String CONFIG_KEY_INDEX_SNAPSHOT_INTERVAL = "indexSnapshotIntervalSeconds";
+    private static final String CONFIG_KEY_INDEX_CATCHUP_INTERVAL = "indexCatchUpIntervalSeconds";
+    private static final String CONFIG_KEY_SCHEMA_CHECK = "schemaCheck";
+    private static final String CONFIG_KEY_CASE_INSENSITIVE_LOOKUP = "caseInsensitiveLookup";
+    private static final String CONFIG_KEY_SCHEMA_CREATE_INDEXES = "schemaCreateIndexes";
+    private static final String CONFIG_KEY_DEGRADED_MAX_STALE_SECONDS = "degradedModeMaxStaleSeconds";
+    private static final String CONFIG_KEY_DEGRADED_MAX_ENTRIES = "degradedModeMaxEntries";
+    private static final String CONFIG_KEY_SHARDS = "shards";
+    private static final String CONFIG_KEY_SHARD_STRATEGY = "shardStrategy";
+    private static final String CONFIG_KEY_SHARD_ID_RANGES = "shardIdRanges";
+    private static final String CONFIG_KEY_READ_REPLICAS = "readReplicas";
+    private static final String CONFIG_KEY_HEDGE_BUDGET_PERCENT = "hedgeBudgetPercent";
+    private static final String CONFIG_KEY_CHANGE_FEED = "changeFeed";
+    private static final String CONFIG_KEY_CHANGE_FEED_SINK = "changeFeedSink";
+    private static final String CONFIG_KEY_CHANGE_FEED_MAX_INTERVAL = "changeFeedMaxIntervalSeconds";
+    private static final String CONFIG_KEY_CHANGE_FEED_MAX_BATCH_SIZE = "changeFeedMaxBatchSize";
+    private static final String CONFIG_KEY_CHANGE_FEED_SETTLE_SECONDS = "changeFeedSettleSeconds";
 
     // Default values
     private static final String DEFAULT_DB_HOST = "external-user-db";
     private static final String DEFAULT_DB_PORT = "5432";
     private static final String DEFAULT_DB_NAME = "userdb";
     private static final String DEFAULT_DB_USER = "userapp";
+    private static final String DEFAULT_POOL_SIZE = String.valueOf(DatabaseConnectionManager.DEFAULT_POOL_SIZE);
+    private static final String DEFAULT_CACHE_MAX_ENTRIES = "10000";
+    private static final String DB_ENGINE_JDBC = "jdbc";
+    private static final String DB_ENGINE_REACTIVE = "reactive";
+    private static final String DEFAULT_PIPELINING_LIMIT = "256";
+    private static final String DEFAULT_CACHE_TTL_SECONDS = "300";
+    private static final String DEFAULT_CACHE_REFRESH_AFTER_SECONDS = "60";
+    private static final String DEFAULT_CACHE_WEIGHT = "1";
+    private static final String DEFAULT_WARMUP_USERS = "1000";
+    private static final String DEFAULT_WARMUP_BUDGET_MILLIS = "5000";
+    private static final String DEFAULT_INDEX_SNAPSHOT_INTERVAL = "3600";
+    private static final String DEFAULT_INDEX_CATCHUP_INTERVAL = "30";
+    private static final String DEFAULT_DEGRADED_MAX_STALE_SECONDS = "0";
+    private static final String DEFAULT_DEGRADED_MAX_ENTRIES = "10000";
+    private static final String DEFAULT_HEDGE_BUDGET_PERCENT = "5";
+    private static final String SHARD_STRATEGY_USERNAME_HASH = "usernameHash";
+    private static final String SHARD_STRATEGY_EMAIL_DOMAIN = "emailDomain";
+    private static final String SHARD_STRATEGY_ID_RANGE = "idRange";
+    private static final String CHANGE_FEED_SINK_ADMIN_EVENTS = "adminEvents";
+    private static final String CHANGE_FEED_SINK_LOG = "log";
+    private static final String DEFAULT_CHANGE_FEED_MAX_INTERVAL = "30";
+    private static final String DEFAULT_CHANGE_FEED_MAX_BATCH_SIZE = "1000";
+    private static final String DEFAULT_CHANGE_FEED_SETTLE_SECONDS = "5";
+
+    // Legacy password hash upgrades run off the login path
+    private static final int REHASH_THREADS = 2;
+    private static final int REHASH_QUEUE_CAPACITY = 1000;
+
+    // Password verification runs on a dedicated pool sized to the available cores
+    private static final int VERIFICATION_QUEUE_PER_THREAD = 32;
+    private static final long VERIFICATION_DEADLINE_MILLIS = 2000;
+
+    // Login throttling per username and client IP, up to 2 x 65536 buckets (~20 MB)
+    private static final int THROTTLE_MAX_KEYS = 65536;
+    private static final int DEFAULT_THROTTLE_BURST = 10;
+    private static final int DEFAULT_THROTTLE_PER_MINUTE = 30;
+    private static final int DEFAULT_THROTTLE_IP_BURST = 100;
+    private static final int DEFAULT_THROTTLE_IP_PER_MINUTE = 600;
+
+    private static final long METRICS_REPORT_INTERVAL_SECONDS = 60;
+    private static final long CACHE_REFRESH_INTERVAL_SECONDS = 1;
+    private static final int CACHE_REFRESH_BATCH_SIZE = 100;
+    private static final int SCHEDULER_THREADS = 2;
+
+    private PasswordRehashService rehashService;
+    private PasswordVerificationEngine verificationEngine;
+    private LoginThrottle loginThrottle;
+    private CacheBudget cacheBudget;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService shardExecutor;
+    private volatile KeycloakSessionFactory sessionFactory;
+    private final ConcurrentMap<String, ComponentResources> resources = new ConcurrentHashMap<>();
 
     @Override
     public String getId() {
@@ -45,6 +167,16 @@ public class ExternalUserStorageProviderFactory
     public ExternalUserStorageProvider create(KeycloakSession session, ComponentModel model) {
         logger.infof("Creating External User Storage Provider instance: %s", model.getName());
 
+        ComponentResources componentResources = resources.computeIfAbsent(model.getId(), id -> createResources(model));
+        return new ExternalUserStorageProvider(session, model, componentResources, rehashService,
+                verificationEngine, loginThrottle);
+    }
+
+    /**
+     * Build the connection pool and cache shared by all sessions of a component,
+     * then warm them up in the background
+     */
+    private ComponentResources createResources(ComponentModel model) {
         String dbHost = getConfigValue(model, CONFIG_KEY_DB_HOST,
                                       System.getenv("EXTERNAL_DB_HOST"), DEFAULT_DB_HOST);
         String dbPort = getConfigValue(model, CONFIG_KEY_DB_PORT,
@@ -55,19 +187,369 @@ public class ExternalUserStorageProviderFactory
                                       System.getenv("EXTERNAL_DB_USER"), DEFAULT_DB_USER);
         String dbPassword = getConfigValue(model, CONFIG_KEY_DB_PASSWORD,
                                           System.getenv("EXTERNAL_DB_PASSWORD"), "");
+        int poolSize = getIntConfigValue(model, CONFIG_KEY_POOL_SIZE, DEFAULT_POOL_SIZE);
 
         logger.infof("Database configuration: %s:%s/%s", dbHost, dbPort, dbName);
 
+        List<String> shards = getLocations(model, CONFIG_KEY_SHARDS);
+        List<String> replicas = getLocations(model, CONFIG_KEY_READ_REPLICAS);
+        if (!replicas.isEmpty() && !shards.isEmpty()) {
+            logger.warn("Read replicas are not supported with shards, hedged reads disabled");
+            replicas = List.of();
+        }
+        if (shards.size() > ShardedId.MAX_SHARDS) {
+            throw new IllegalArgumentException("At most " + ShardedId.MAX_SHARDS + " shards are supported");
+        }
+        ShardRouter shardRouter = shards.isEmpty() ? null : createShardRouter(model, shards.size());
+        List<String[]> locations = new ArrayList<>();
+        if (shards.isEmpty()) {
+            locations.add(new String[] {dbHost, dbPort, dbName});
+        } else {
+            shards.forEach(shard -> locations.add(parseShardLocation(shard, dbPort)));
+        }
+
+        KeyNormalization keyNormalization = getKeyNormalization(model);
+        boolean reactive = DB_ENGINE_REACTIVE.equals(getConfigValue(model, CONFIG_KEY_DB_ENGINE, null, DB_ENGINE_JDBC));
+        boolean adaptiveConcurrency = Boolean.parseBoolean(
+                getConfigValue(model, CONFIG_KEY_ADAPTIVE_CONCURRENCY, null, "false"));
+        List<DatabaseConnectionManager> connectionManagers = new ArrayList<>();
+        List<ReactiveUserRepository> reactiveRepositories = new ArrayList<>();
+        // Replica pools stay out of the component's connection managers: they neither
+        // trigger degraded mode nor take part in warm-up and schema checks
+        List<DatabaseConnectionManager> replicaConnectionManagers = new ArrayList<>();
+        List<UserRepository> repositories = new ArrayList<>();
+        List<UserRepository> replicaRepositories = new ArrayList<>();
+        try {
+            for (String[] location : locations) {
+                repositories.add(openRepository(model, location, dbUser, dbPassword, poolSize, reactive,
+                        adaptiveConcurrency, keyNormalization, !shards.isEmpty(), connectionManagers,
+                        reactiveRepositories));
+            }
+            for (String replica : replicas) {
+                replicaRepositories.add(openRepository(model, parseShardLocation(replica, dbPort), dbUser, dbPassword,
+                        poolSize, reactive, adaptiveConcurrency, keyNormalization, false, replicaConnectionManagers,
+                        reactiveRepositories));
+            }
+        } catch (RuntimeException e) {
+            connectionManagers.forEach(DatabaseConnectionManager::close);
+            replicaConnectionManagers.forEach(DatabaseConnectionManager::close);
+            reactiveRepositories.forEach(ReactiveUserRepository::close);
+            throw e;
+        }
+
+        UserRepository userRepository;
+        ShardedUserRepository shardedRepository = null;
+        if (shards.isEmpty()) {
+            userRepository = repositories.get(0);
+            if (!replicaRepositories.isEmpty()) {
+                int budget = getIntConfigValue(model, CONFIG_KEY_HEDGE_BUDGET_PERCENT, DEFAULT_HEDGE_BUDGET_PERCENT);
+                userRepository = new HedgedUserRepository(userRepository, replicaRepositories, shardExecutor, budget);
+                logger.infof("Hedging lookups across %d read replicas, up to %d%% of lookups", replicas.size(), budget);
+            }
+        } else {
+            shardedRepository = new ShardedUserRepository(repositories, shardRouter, shardExecutor);
+            userRepository = shardedRepository;
+            logger.infof("Routing users across %d shards", shards.size());
+        }
+        userRepository = new SingleFlightUserRepository(userRepository, keyNormalization);
+
+        // One partition of the global cache budget per component
+        ExternalUserCache userCache = new ExternalUserCache(
+            getIntConfigValue(model, CONFIG_KEY_CACHE_MAX_ENTRIES, DEFAULT_CACHE_MAX_ENTRIES),
+            getIntConfigValue(model, CONFIG_KEY_CACHE_REFRESH_AFTER_SECONDS, DEFAULT_CACHE_REFRESH_AFTER_SECONDS),
+            getIntConfigValue(model, CONFIG_KEY_CACHE_TTL_SECONDS, DEFAULT_CACHE_TTL_SECONDS),
+            keyNormalization,
+            cacheBudget,
+            model.getId(),
+            getIntConfigValue(model, CONFIG_KEY_CACHE_WEIGHT, DEFAULT_CACHE_WEIGHT)
+        );
+        cacheBudget.register(userCache);
+        ComponentResources componentResources = new ComponentResources(connectionManagers, userRepository, userCache,
+                keyNormalization);
+        componentResources.setShardRouter(shardRouter);
+        componentResources.addCloseAction(() -> cacheBudget.unregister(userCache));
+        reactiveRepositories.forEach(repository -> componentResources.addCloseAction(repository::close));
+        replicaConnectionManagers.forEach(manager -> componentResources.addCloseAction(manager::close));
+        int degradedMaxStale = getIntConfigValue(model, CONFIG_KEY_DEGRADED_MAX_STALE_SECONDS,
+                DEFAULT_DEGRADED_MAX_STALE_SECONDS);
+        if (degradedMaxStale > 0 && reactive) {
+            // Saved before validation refused the combination
+            logger.warnf("Degraded mode is not available with the reactive engine, ignoring %s for %s",
+                    CONFIG_KEY_DEGRADED_MAX_STALE_SECONDS, model.getName());
+        } else if (degradedMaxStale > 0) {
+            componentResources.setDegradedCache(new DegradedCredentialCache(
+                    getIntConfigValue(model, CONFIG_KEY_DEGRADED_MAX_ENTRIES, DEFAULT_DEGRADED_MAX_ENTRIES),
+                    degradedMaxStale, keyNormalization));
+        }
+        componentResources.addBackgroundTask(scheduler.scheduleWithFixedDelay(
+                () -> userCache.refreshStale(componentResources.getUserRepository(), CACHE_REFRESH_BATCH_SIZE),
+                CACHE_REFRESH_INTERVAL_SECONDS, CACHE_REFRESH_INTERVAL_SECONDS, TimeUnit.SECONDS));
+
+        int warmupUsers = Math.min(getIntConfigValue(model, CONFIG_KEY_WARMUP_USERS, DEFAULT_WARMUP_USERS),
+                                   getIntConfigValue(model, CONFIG_KEY_CACHE_MAX_ENTRIES, DEFAULT_CACHE_MAX_ENTRIES));
+        long warmupBudget = getIntConfigValue(model, CONFIG_KEY_WARMUP_BUDGET_MILLIS, DEFAULT_WARMUP_BUDGET_MILLIS);
+        CacheWarmer warmer = new CacheWarmer(connectionManagers, userRepository, userCache);
+        scheduler.execute(() -> warmer.warmUp(poolSize, warmupUsers, warmupBudget));
+
+        boolean createIndexes = Boolean.parseBoolean(getConfigValue(model, CONFIG_KEY_SCHEMA_CREATE_INDEXES, null, "false"));
+        if (createIndexes || Boolean.parseBoolean(getConfigValue(model, CONFIG_KEY_SCHEMA_CHECK, null, "true"))) {
+            inspectSchema(connectionManagers, createIndexes);
+        }
+
+        String snapshotDir = getConfigValue(model, CONFIG_KEY_INDEX_SNAPSHOT_DIR, null, "");
+        if (!snapshotDir.isEmpty()) {
+            startUserIndex(model, componentResources, snapshotDir, keyNormalization);
+        }
+
+        if (Boolean.parseBoolean(getConfigValue(model, CONFIG_KEY_CHANGE_FEED, null, "false"))) {
+            startChangeFeeds(model, componentResources, shardedRepository);
+        }
+
+        return componentResources;
+    }
+
+    private KeyNormalization getKeyNormalization(ComponentModel model) {
+        return Boolean.parseBoolean(getConfigValue(model, CONFIG_KEY_CASE_INSENSITIVE_LOOKUP, null, "false"))
+                ? KeyNormalization.LOWER_CASE : KeyNormalization.EXACT;
+    }
+
+    /**
+     * Check query plans (and build missing indexes) off the startup path, on its own thread
+     * since concurrent index builds on a large table can take minutes
+     */
+    private void inspectSchema(List<DatabaseConnectionManager> connectionManagers, boolean createIndexes) {
+        Thread thread = new Thread(() -> {
+            for (DatabaseConnectionManager connectionManager : connectionManagers) {
+                SchemaInspector inspector = new SchemaInspector(connectionManager);
+                if (createIndexes) {
+                    inspector.createRecommendedIndexes();
+                }
+                inspector.inspect();
+            }
+        }, "external-user-storage-schema");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Executor for concurrent shard queries: a virtual thread per task when the runtime
+     * has them (Java 21+), otherwise a cached pool of daemon threads
+     */
+    private static ExecutorService createFanOutExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            logger.debug("Using virtual threads for shard fan-out");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger shardThreads = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "external-user-storage-shard-" + shardThreads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Open the repository of one database location (host, port, database) with the configured
+     * engine, registering its pool or client in the given lists for cleanup
+     *
+     * @param shard whether listings are merged across shards and must sort usernames by code point
+     */
+    private UserRepository openRepository(ComponentModel model, String[] location, String dbUser, String dbPassword,
+                                          int poolSize, boolean reactive, boolean adaptiveConcurrency,
+                                          KeyNormalization keyNormalization, boolean shard,
+                                          List<DatabaseConnectionManager> connectionManagers,
+                                          List<ReactiveUserRepository> reactiveRepositories) {
+        if (reactive) {
+            ReactiveUserRepository repository = openReactiveRepository(model, location[0], location[1],
+                    location[2], dbUser, dbPassword, poolSize, keyNormalization);
+            repository.setBinaryUsernameOrder(shard);
+            reactiveRepositories.add(repository);
+            return repository;
+        }
+        DatabaseConnectionManager connectionManager = openConnectionManager(location[0], location[1],
+                location[2], dbUser, dbPassword, poolSize);
+        connectionManagers.add(connectionManager);
+        if (adaptiveConcurrency) {
+            connectionManager.enableAdaptiveConcurrency(Math.min(poolSize, DatabaseConnectionManager.DEFAULT_POOL_SIZE));
+        }
+        JdbcUserRepository repository = new JdbcUserRepository(connectionManager, keyNormalization);
+        repository.setBinaryUsernameOrder(shard);
+        return repository;
+    }
+
+    private DatabaseConnectionManager openConnectionManager(String dbHost, String dbPort, String dbName,
+                                                            String dbUser, String dbPassword, int poolSize) {
         DatabaseConnectionManager connectionManager = new DatabaseConnectionManager(
-            dbHost, dbPort, dbName, dbUser, dbPassword
+            dbHost, dbPort, dbName, dbUser, dbPassword, poolSize
         );
 
         if (!connectionManager.testConnection()) {
             logger.errorf("Failed to connect to external database: %s:%s/%s", dbHost, dbPort, dbName);
+            connectionManager.close();
+            throw new RuntimeException("Cannot connect to external user database");
+        }
+        return connectionManager;
+    }
+
+    private ReactiveUserRepository openReactiveRepository(ComponentModel model, String dbHost, String dbPort,
+                                                          String dbName, String dbUser, String dbPassword,
+                                                          int poolSize, KeyNormalization keyNormalization) {
+        ReactiveUserRepository repository;
+        try {
+            repository = new ReactiveUserRepository(dbHost, dbPort, dbName, dbUser, dbPassword,
+                    poolSize,
+                    getIntConfigValue(model, CONFIG_KEY_PIPELINING_LIMIT, DEFAULT_PIPELINING_LIMIT), keyNormalization);
+        } catch (NoClassDefFoundError e) {
+            throw new RuntimeException("The reactive database engine needs the Vert.x PostgreSQL client on the classpath", e);
+        }
+
+        if (!repository.testConnection()) {
+            logger.errorf("Failed to connect to external database: %s:%s/%s", dbHost, dbPort, dbName);
+            repository.close();
             throw new RuntimeException("Cannot connect to external user database");
         }
+        return repository;
+    }
 
-        return new ExternalUserStorageProvider(session, model, connectionManager);
+    /**
+     * Non-empty entries of a multivalued location option (shards or read replicas)
+     */
+    private List<String> getLocations(ComponentModel model, String key) {
+        List<String> locations = new ArrayList<>();
+        List<String> configured = model.getConfig() != null ? model.getConfig().getList(key) : null;
+        if (configured != null) {
+            for (String location : configured) {
+                if (location != null && !location.trim().isEmpty()) {
+                    locations.add(location.trim());
+                }
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Split a shard or replica entry "host[:port]/database" into host, port and database
+     */
+    private String[] parseShardLocation(String shard, String defaultPort) {
+        int slash = shard.indexOf('/');
+        if (slash <= 0 || slash == shard.length() - 1) {
+            throw new IllegalArgumentException("Invalid database location '" + shard + "', expected host[:port]/database");
+        }
+        String hostPort = shard.substring(0, slash);
+        int colon = hostPort.lastIndexOf(':');
+        String host = colon > 0 ? hostPort.substring(0, colon) : hostPort;
+        String port = colon > 0 ? hostPort.substring(colon + 1) : defaultPort;
+        return new String[] {host, port, shard.substring(slash + 1)};
+    }
+
+    private ShardRouter createShardRouter(ComponentModel model, int shardCount) {
+        String strategy = getConfigValue(model, CONFIG_KEY_SHARD_STRATEGY, null, SHARD_STRATEGY_USERNAME_HASH);
+        switch (strategy) {
+            case SHARD_STRATEGY_EMAIL_DOMAIN:
+                return new ShardRouter(ShardRouter.Strategy.EMAIL_DOMAIN, shardCount, new long[0]);
+            case SHARD_STRATEGY_ID_RANGE:
+                String ranges = getConfigValue(model, CONFIG_KEY_SHARD_ID_RANGES, null, "");
+                long[] bounds = ranges.isEmpty() ? new long[0]
+                        : Arrays.stream(ranges.split(",")).map(String::trim).mapToLong(Long::parseLong).toArray();
+                return new ShardRouter(ShardRouter.Strategy.ID_RANGE, shardCount, bounds);
+            default:
+                return new ShardRouter(ShardRouter.Strategy.USERNAME_HASH, shardCount, new long[0]);
+        }
+    }
+
+    /**
+     * Load or build the persistent user index and keep it current in the background
+     */
+    private void startUserIndex(ComponentModel model, ComponentResources componentResources, String snapshotDir,
+                                KeyNormalization keyNormalization) {
+        int catchUpInterval = getIntConfigValue(model, CONFIG_KEY_INDEX_CATCHUP_INTERVAL, DEFAULT_INDEX_CATCHUP_INTERVAL);
+        int snapshotInterval = getIntConfigValue(model, CONFIG_KEY_INDEX_SNAPSHOT_INTERVAL, DEFAULT_INDEX_SNAPSHOT_INTERVAL);
+
+        // Snapshots keyed on lower-cased names get their own file
+        String fileName = "users-" + model.getId() + (keyNormalization == KeyNormalization.LOWER_CASE ? "-lower" : "") + ".idx";
+        UserIndex userIndex = new UserIndex(Paths.get(snapshotDir, fileName),
+                componentResources.getUserRepository(), keyNormalization);
+        componentResources.addBackgroundTask(scheduler.submit(() -> {
+            userIndex.start();
+            componentResources.setUserIndex(userIndex);
+        }));
+        componentResources.addBackgroundTask(scheduler.scheduleWithFixedDelay(userIndex::catchUp,
+                catchUpInterval, catchUpInterval, TimeUnit.SECONDS));
+        componentResources.addBackgroundTask(scheduler.scheduleWithFixedDelay(userIndex::rebuild,
+                snapshotInterval, snapshotInterval, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Publish users changed in the external database, one feed per JDBC database
+     */
+    private void startChangeFeeds(ComponentModel model, ComponentResources componentResources,
+                                  ShardedUserRepository shardedRepository) {
+        List<DatabaseConnectionManager> connectionManagers = componentResources.getConnectionManagers();
+        if (connectionManagers.isEmpty()) {
+            logger.warn("The change feed needs the JDBC engine, change feed disabled");
+            return;
+        }
+        String sinkName = getConfigValue(model, CONFIG_KEY_CHANGE_FEED_SINK, null, CHANGE_FEED_SINK_ADMIN_EVENTS);
+        int maxInterval = getIntConfigValue(model, CONFIG_KEY_CHANGE_FEED_MAX_INTERVAL, DEFAULT_CHANGE_FEED_MAX_INTERVAL);
+        int maxBatchSize = getIntConfigValue(model, CONFIG_KEY_CHANGE_FEED_MAX_BATCH_SIZE, DEFAULT_CHANGE_FEED_MAX_BATCH_SIZE);
+        int settleSeconds = getIntConfigValue(model, CONFIG_KEY_CHANGE_FEED_SETTLE_SECONDS, DEFAULT_CHANGE_FEED_SETTLE_SECONDS);
+        for (int i = 0; i < connectionManagers.size(); i++) {
+            ChangeSink sink = createChangeSink(model, sinkName);
+            if (sink == null) {
+                return;
+            }
+            // Shards are separate databases, each with its own checkpoint table
+            String consumer = connectionManagers.size() == 1 ? model.getId() : model.getId() + "#" + i;
+            int shard = i;
+            LongUnaryOperator userIds = shardedRepository == null ? LongUnaryOperator.identity()
+                    : id -> shardedRepository.globalId(shard, id);
+            ChangeFeed feed = new ChangeFeed(connectionManagers.get(i), consumer, sink, userIds, scheduler,
+                    maxInterval, maxBatchSize, settleSeconds);
+            componentResources.addCloseAction(feed::close);
+            feed.start();
+        }
+        logger.infof("Publishing user changes to %s", sinkName);
+    }
+
+    private ChangeSink createChangeSink(ComponentModel model, String sinkName) {
+        switch (sinkName) {
+            case CHANGE_FEED_SINK_ADMIN_EVENTS:
+                if (sessionFactory == null) {
+                    logger.warn("No session factory for admin events, change feed disabled");
+                    return null;
+                }
+                return new AdminEventChangeSink(sessionFactory, model);
+            case CHANGE_FEED_SINK_LOG:
+                return new LoggingChangeSink();
+            default:
+                try {
+                    return Class.forName(sinkName, true, getClass().getClassLoader())
+                            .asSubclass(ChangeSink.class).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    logger.errorf(e, "Cannot create change sink %s, change feed disabled", sinkName);
+                    return null;
+                }
+        }
+    }
+
+    @Override
+    public void onUpdate(KeycloakSession session, RealmModel realm, ComponentModel oldModel, ComponentModel newModel) {
+        closeResources(oldModel.getId());
+    }
+
+    @Override
+    public void preRemove(KeycloakSession session, RealmModel realm, ComponentModel model) {
+        closeResources(model.getId());
+    }
+
+    private void closeResources(String componentId) {
+        ComponentResources componentResources = resources.remove(componentId);
+        if (componentResources != null) {
+            componentResources.close();
+        }
     }
 
     @Override
@@ -94,6 +576,13 @@ public class ExternalUserStorageProviderFactory
             throw new ComponentValidationException("Database user is required");
         }
 
+        // Degraded mode follows the circuit breakers of the JDBC connection managers, the reactive
+        // client has none, so the last known states would be kept but never used
+        if (DB_ENGINE_REACTIVE.equals(getConfigValue(config, CONFIG_KEY_DB_ENGINE, null, DB_ENGINE_JDBC))
+                && getIntConfigValue(config, CONFIG_KEY_DEGRADED_MAX_STALE_SECONDS, DEFAULT_DEGRADED_MAX_STALE_SECONDS) > 0) {
+            throw new ComponentValidationException("Degraded mode requires the jdbc database engine");
+        }
+
         try {
             int port = Integer.parseInt(dbPort);
             if (port < 1 || port > 65535) {
@@ -108,7 +597,9 @@ public class ExternalUserStorageProviderFactory
                 dbHost, dbPort, dbName, dbUser, dbPassword
             );
 
-            if (!testConnectionManager.testConnection()) {
+            boolean connected = testConnectionManager.testConnection();
+            testConnectionManager.close();
+            if (!connected) {
                 throw new ComponentValidationException(
                     "Cannot connect to external database. Please check configuration."
                 );
@@ -158,6 +649,206 @@ public class ExternalUserStorageProviderFactory
                 .type(ProviderConfigProperty.PASSWORD)
                 .secret(true)
                 .add()
+            .property()
+                .name(CONFIG_KEY_POOL_SIZE)
+                .label("Connection Pool Size")
+                .helpText("Maximum number of pooled connections to the external database")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_POOL_SIZE)
+                .add()
+            .property()
+                .name(CONFIG_KEY_DB_ENGINE)
+                .label("Database Engine")
+                .helpText("jdbc: blocking JDBC connection pool; reactive: non-blocking Vert.x PostgreSQL client with pipelined queries")
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .options(DB_ENGINE_JDBC, DB_ENGINE_REACTIVE)
+                .defaultValue(DB_ENGINE_JDBC)
+                .add()
+            .property()
+                .name(CONFIG_KEY_PIPELINING_LIMIT)
+                .label("Pipelining Limit")
+                .helpText("Reactive engine: maximum queries in flight per connection")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_PIPELINING_LIMIT)
+                .add()
+            .property()
+                .name(CONFIG_KEY_ADAPTIVE_CONCURRENCY)
+                .label("Adaptive Concurrency")
+                .helpText("JDBC engine: limit concurrent queries by observed latency and reject the excess immediately; the pool size is the upper bound")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .defaultValue("false")
+                .add()
+            .property()
+                .name(CONFIG_KEY_CACHE_MAX_ENTRIES)
+                .label("Cache Max Entries")
+                .helpText("Maximum number of users kept in the lookup cache")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_CACHE_MAX_ENTRIES)
+                .add()
+            .property()
+                .name(CONFIG_KEY_CACHE_TTL_SECONDS)
+                .label("Cache TTL (seconds)")
+                .helpText("Maximum age of a cached user, older entries are reloaded on the request path")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_CACHE_TTL_SECONDS)
+                .add()
+            .property()
+                .name(CONFIG_KEY_CACHE_REFRESH_AFTER_SECONDS)
+                .label("Cache Refresh After (seconds)")
+                .helpText("Age after which a cached user is still served but reloaded in the background (not below the TTL disables this)")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_CACHE_REFRESH_AFTER_SECONDS)
+                .add()
+            .property()
+                .name(CONFIG_KEY_CACHE_WEIGHT)
+                .label("Cache Weight")
+                .helpText("Share of the server-wide user cache memory cap relative to other components; when the cap is reached, caches using the most memory for their weight are evicted first")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_CACHE_WEIGHT)
+                .add()
+            .property()
+                .name(CONFIG_KEY_WARMUP_USERS)
+                .label("Warm-up Users")
+                .helpText("Number of most recently updated users preloaded into the cache on startup (0 disables)")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_WARMUP_USERS)
+                .add()
+            .property()
+                .name(CONFIG_KEY_WARMUP_BUDGET_MILLIS)
+                .label("Warm-up Time Budget (ms)")
+                .helpText("Maximum time spent preloading users on startup")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_WARMUP_BUDGET_MILLIS)
+                .add()
+            .property()
+                .name(CONFIG_KEY_INDEX_SNAPSHOT_DIR)
+                .label("Index Snapshot Directory")
+                .helpText("Local directory for the memory-mapped user index snapshot (empty disables the index). "
+                        + "The index resolves usernames and emails to ids, so lookups become primary key reads on a single shard; "
+                        + "it pays off with id-routed shards, where a lookup by username or email otherwise queries every shard. "
+                        + "Costs a full table scan per snapshot interval, with all index entries held on heap while the snapshot is written")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .add()
+            .property()
+                .name(CONFIG_KEY_INDEX_SNAPSHOT_INTERVAL)
+                .label("Index Snapshot Interval (seconds)")
+                .helpText("How often the user index snapshot is rewritten from a full scan")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_INDEX_SNAPSHOT_INTERVAL)
+                .add()
+            .property()
+                .name(CONFIG_KEY_INDEX_CATCHUP_INTERVAL)
+                .label("Index Catch-up Interval (seconds)")
+                .helpText("How often users changed since the snapshot are applied to the index")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_INDEX_CATCHUP_INTERVAL)
+                .add()
+            .property()
+                .name(CONFIG_KEY_CASE_INSENSITIVE_LOOKUP)
+                .label("Case-insensitive Lookup")
+                .helpText("Match usernames and emails ignoring case, using the lower(username) and lower(email) indexes")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .defaultValue("false")
+                .add()
+            .property()
+                .name(CONFIG_KEY_SCHEMA_CHECK)
+                .label("Check Query Plans")
+                .helpText("On startup, EXPLAIN the provider's queries and warn about full table scans")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .defaultValue("true")
+                .add()
+            .property()
+                .name(CONFIG_KEY_SCHEMA_CREATE_INDEXES)
+                .label("Create Recommended Indexes")
+                .helpText("On startup, create missing lookup and search indexes with CREATE INDEX CONCURRENTLY (needs the CREATE privilege, pg_trgm for search)")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .defaultValue("false")
+                .add()
+            .property()
+                .name(CONFIG_KEY_DEGRADED_MAX_STALE_SECONDS)
+                .label("Degraded Mode Max Staleness (seconds)")
+                .helpText("While the database is unreachable, validate logins against the last known state of users who logged in within this window (0 disables, jdbc engine only)")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_DEGRADED_MAX_STALE_SECONDS)
+                .add()
+            .property()
+                .name(CONFIG_KEY_DEGRADED_MAX_ENTRIES)
+                .label("Degraded Mode Max Entries")
+                .helpText("Maximum number of users whose encrypted last known state is kept for degraded mode")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_DEGRADED_MAX_ENTRIES)
+                .add()
+            .property()
+                .name(CONFIG_KEY_SHARDS)
+                .label("Shards")
+                .helpText("Shard databases as host[:port]/database, sharing the database user and password (empty uses the single database above)")
+                .type(ProviderConfigProperty.MULTIVALUED_STRING_TYPE)
+                .add()
+            .property()
+                .name(CONFIG_KEY_SHARD_STRATEGY)
+                .label("Shard Strategy")
+                .helpText("How users are distributed across shards. usernameHash and emailDomain take the lower-cased "
+                        + "username or email domain, mix its Java String.hashCode (h ^= h >>> 16; h *= 0x85ebca6b; h ^= h >>> 13) "
+                        + "and use the result modulo the shard count; rows must be inserted on that shard. "
+                        + "Username (or email) changes that would route the user to another shard are rejected")
+                .type(ProviderConfigProperty.LIST_TYPE)
+                .options(SHARD_STRATEGY_USERNAME_HASH, SHARD_STRATEGY_EMAIL_DOMAIN, SHARD_STRATEGY_ID_RANGE)
+                .defaultValue(SHARD_STRATEGY_USERNAME_HASH)
+                .add()
+            .property()
+                .name(CONFIG_KEY_SHARD_ID_RANGES)
+                .label("Shard ID Ranges")
+                .helpText("For idRange: comma-separated exclusive upper user id of every shard but the last")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .add()
+            .property()
+                .name(CONFIG_KEY_READ_REPLICAS)
+                .label("Read Replicas")
+                .helpText("Replicas of the database above as host[:port]/database; lookups by id, username or email slower than the primary's 95th percentile are also sent to a replica (not with shards)")
+                .type(ProviderConfigProperty.MULTIVALUED_STRING_TYPE)
+                .add()
+            .property()
+                .name(CONFIG_KEY_HEDGE_BUDGET_PERCENT)
+                .label("Hedge Budget (%)")
+                .helpText("Maximum share of lookups also sent to a read replica")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_HEDGE_BUDGET_PERCENT)
+                .add()
+            .property()
+                .name(CONFIG_KEY_CHANGE_FEED)
+                .label("Change Feed")
+                .helpText("JDBC engine: publish users inserted or updated in the external database, resuming from a checkpoint stored in the user_change_feed_checkpoints table")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .defaultValue("false")
+                .add()
+            .property()
+                .name(CONFIG_KEY_CHANGE_FEED_SINK)
+                .label("Change Feed Sink")
+                .helpText("adminEvents: USER admin events to the realm's event listeners and store; log: log the changes; or the class name of a ChangeSink implementation")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(CHANGE_FEED_SINK_ADMIN_EVENTS)
+                .add()
+            .property()
+                .name(CONFIG_KEY_CHANGE_FEED_MAX_INTERVAL)
+                .label("Change Feed Max Interval (seconds)")
+                .helpText("Longest wait between polls while no users change; polls speed up to continuous reads under a backlog")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_CHANGE_FEED_MAX_INTERVAL)
+                .add()
+            .property()
+                .name(CONFIG_KEY_CHANGE_FEED_MAX_BATCH_SIZE)
+                .label("Change Feed Max Batch Size")
+                .helpText("Upper bound of the users read and published per batch")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_CHANGE_FEED_MAX_BATCH_SIZE)
+                .add()
+            .property()
+                .name(CONFIG_KEY_CHANGE_FEED_SETTLE_SECONDS)
+                .label("Change Feed Settle Window (seconds)")
+                .helpText("How old a row's updated_at must be before the feed reads it; must exceed the longest transaction writing users, rows committed later than this after their transaction started are never published")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue(DEFAULT_CHANGE_FEED_SETTLE_SECONDS)
+                .add()
             .build();
     }
 
@@ -169,16 +860,95 @@ public class ExternalUserStorageProviderFactory
     @Override
     public void init(org.keycloak.Config.Scope config) {
         logger.info("Initializing External User Storage Provider Factory");
+
+        // Hash cost parameters, see HashCalibrator (src/perf) for values matching a target latency on this host
+        PasswordHasher.configure(
+                config.get("passwordHashAlgorithm", PasswordHasher.DEFAULT_ALGORITHM),
+                config.getInt("bcryptCost", BCryptPasswordVerifier.DEFAULT_COST),
+                config.getInt("pbkdf2Iterations", Pbkdf2PasswordVerifier.DEFAULT_ITERATIONS),
+                config.getInt("argon2MemoryKb", Argon2PasswordVerifier.DEFAULT_MEMORY_KB),
+                config.getInt("argon2Iterations", Argon2PasswordVerifier.DEFAULT_ITERATIONS),
+                config.getInt("argon2Parallelism", Argon2PasswordVerifier.DEFAULT_PARALLELISM));
+        rehashService = new PasswordRehashService(REHASH_THREADS, REHASH_QUEUE_CAPACITY);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        verificationEngine = new PasswordVerificationEngine(cores, cores * VERIFICATION_QUEUE_PER_THREAD,
+                VERIFICATION_DEADLINE_MILLIS);
+
+        // Off unless enabled. Raise loginThrottlePerMinute for service accounts that log in often,
+        // and set loginThrottleIpPerMinute to 0 when Keycloak only sees a reverse proxy's address
+        if (config.getBoolean("loginThrottle", false)) {
+            loginThrottle = new LoginThrottle(THROTTLE_MAX_KEYS,
+                    config.getInt("loginThrottleBurst", DEFAULT_THROTTLE_BURST),
+                    config.getInt("loginThrottlePerMinute", DEFAULT_THROTTLE_PER_MINUTE),
+                    config.getInt("loginThrottleIpBurst", DEFAULT_THROTTLE_IP_BURST),
+                    config.getInt("loginThrottleIpPerMinute", DEFAULT_THROTTLE_IP_PER_MINUTE));
+        }
+
+        // Server-wide cap on the estimated memory of all components' user caches, 0 for none
+        cacheBudget = new CacheBudget(config.getLong("cacheGlobalMaxMegabytes", 0L) * 1024 * 1024);
+
+        configureTracing(config);
+
+        AtomicInteger schedulerThreads = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "external-user-storage-scheduler-" + schedulerThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        shardExecutor = createFanOutExecutor();
+        ProviderMetrics.gauge("degraded.activeComponents",
+                () -> resources.values().stream().filter(ComponentResources::isDegraded).count());
+        scheduler.scheduleAtFixedRate(() -> logger.debugf("Provider metrics: %s", ProviderMetrics.snapshot()),
+                METRICS_REPORT_INTERVAL_SECONDS, METRICS_REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sampled tracing spans and the slow query log, both off by default
+     */
+    private void configureTracing(org.keycloak.Config.Scope config) {
+        String exportTarget = config.get("tracingExport");
+        String sampleRate = config.get("tracingSampleRate", "0");
+        if (exportTarget != null && !exportTarget.isEmpty()) {
+            try {
+                Tracer.configure(Double.parseDouble(sampleRate),
+                        SpanExporter.forTarget(exportTarget, config.get("tracingServiceName", PROVIDER_ID)));
+            } catch (NumberFormatException e) {
+                logger.warnf("Invalid tracingSampleRate %s, tracing disabled", sampleRate);
+            }
+        }
+        SlowQueryLog.configure(config.getLong("slowQueryThresholdMillis", 0L),
+                config.getBoolean("slowQueryExplain", false));
     }
 
     @Override
-    public void postInit(org.keycloak.models.KeycloakSessionFactory factory) {
+    public void postInit(KeycloakSessionFactory factory) {
         logger.info("Post-initialization of External User Storage Provider Factory");
+        sessionFactory = factory;
     }
 
     @Override
     public void close() {
         logger.info("Closing External User Storage Provider Factory");
+        resources.keySet().forEach(this::closeResources);
+        ProviderMetrics.removeGauge("degraded.activeComponents");
+        if (cacheBudget != null) {
+            cacheBudget.close();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (shardExecutor != null) {
+            shardExecutor.shutdownNow();
+        }
+        if (verificationEngine != null) {
+            verificationEngine.shutdown();
+        }
+        if (rehashService != null) {
+            rehashService.shutdown();
+        }
+        Tracer.shutdown();
+        SlowQueryLog.shutdown();
     }
 
     private String getConfigValue(ComponentModel config, String key, String envValue, String defaultValue) {
@@ -191,4 +961,14 @@ public class ExternalUserStorageProviderFactory
         }
         return defaultValue;
     }
+
+    private int getIntConfigValue(ComponentModel config, String key, String defaultValue) {
+        String value = getConfigValue(config, key, null, defaultValue);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warnf("Invalid value for %s: %s, using default %s", key, value, defaultValue);
+            return Integer.parseInt(defaultValue);
+        }
+    }
 }
@@ -0,0 +1,116 @@
+package com.example.keycloak.storage;
+
+import com.example.keycloak.storage.adapter.ExternalUserAdapter;
+import com.example.keycloak.storage.cache.DegradedCredentialCache;
+import com.example.keycloak.storage.cache.UserIndex;
+import com.example.keycloak.storage.database.UserField;
+import com.example.keycloak.storage.database.UserRepository;
+import com.example.keycloak.storage.database.UserUpdate;
+import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.model.UserIndexEntry;
+import org.jboss.logging.Logger;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.ModelException;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.cache.UserCache;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Write-behind queue for user profile changes made through ExternalUserAdapter.
+ * Dirty fields are coalesced per user for the lifetime of the session and flushed
+ * as one UPDATE per user when the Keycloak transaction commits, after which the
+ * component's caches and lookup index are brought up to date for the flushed users.
+ */
+public class UserWriteBehindTransaction extends AbstractKeycloakTransaction {
+    private static final Logger logger = Logger.getLogger(UserWriteBehindTransaction.class);
+
+    private final KeycloakSession session;
+    private final ComponentResources resources;
+    private final UserRepository userRepository;
+    private final Map<Long, PendingUser> pending = new LinkedHashMap<>();
+
+    public UserWriteBehindTransaction(KeycloakSession session, ComponentResources resources) {
+        this.session = session;
+        this.resources = resources;
+        this.userRepository = resources.getUserRepository();
+    }
+
+    /**
+     * Record a changed field; a later change to the same field replaces the earlier one
+     */
+    public void markDirty(RealmModel realm, UserModel user, Long userId, UserField field, Object value) {
+        pending.computeIfAbsent(userId, id -> new PendingUser(realm, user, new UserUpdate(id), user.getUsername()))
+                .update.set(field, value);
+    }
+
+    /**
+     * Drop queued changes for a user that is about to be removed
+     */
+    public void discard(Long userId) {
+        pending.remove(userId);
+    }
+
+    @Override
+    protected void commitImpl() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        try {
+            userRepository.applyUpdates(pending.values().stream().map(p -> p.update).toList());
+        } catch (SQLException e) {
+            logger.errorf(e, "Failed to flush %d pending user updates", pending.size());
+            throw new ModelException("Failed to update users in external database", e);
+        }
+
+        pending.keySet().forEach(resources.getUserCache()::invalidate);
+        // Totals of cached listings may count a renamed, re-addressed or disabled user wrongly
+        resources.getSearchTotals().clear();
+        UserIndex userIndex = resources.getUserIndex();
+        DegradedCredentialCache degradedCache = resources.getDegradedCache();
+        for (PendingUser p : pending.values()) {
+            if (userIndex != null && p.user instanceof ExternalUserAdapter adapter) {
+                // Lookups by the new username or email must not wait for the next catch-up
+                ExternalUser written = adapter.getExternalUser();
+                userIndex.update(new UserIndexEntry(written.getId(), written.getUsername(), written.getEmail(),
+                        written.isEnabled(), System.currentTimeMillis()));
+            }
+            if (degradedCache != null) {
+                degradedCache.remove(p.originalUsername);
+                degradedCache.remove(p.user.getUsername());
+            }
+        }
+        UserCache keycloakCache = session.getProvider(UserCache.class);
+        if (keycloakCache != null) {
+            for (PendingUser p : pending.values()) {
+                keycloakCache.evict(p.realm, p.user);
+            }
+        }
+        pending.clear();
+    }
+
+    @Override
+    protected void rollbackImpl() {
+        pending.clear();
+    }
+
+    private static class PendingUser {
+        private final RealmModel realm;
+        private final UserModel user;
+        private final UserUpdate update;
+        // Username before the first change in this session, the key of a degraded-mode entry
+        private final String originalUsername;
+
+        private PendingUser(RealmModel realm, UserModel user, UserUpdate update, String originalUsername) {
+            this.realm = realm;
+            this.user = user;
+            this.update = update;
+            this.originalUsername = originalUsername;
+        }
+    }
+}
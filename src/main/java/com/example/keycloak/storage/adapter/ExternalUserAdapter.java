@@ -1,10 +1,15 @@
 package com.example.keycloak.storage.adapter;
 
+import com.example.keycloak.storage.ExternalUserStorageProvider;
+import com.example.keycloak.storage.database.UserField;
 import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.shard.ShardRouter;
+import com.example.keycloak.storage.shard.ShardedId;
 import org.keycloak.component.ComponentModel;
 import org.keycloak.credential.CredentialInput;
 import org.keycloak.credential.CredentialModel;
 import org.keycloak.models.*;
+import org.keycloak.models.credential.PasswordCredentialModel;
 import org.keycloak.storage.StorageId;
 
 import java.util.*;
@@ -19,19 +24,58 @@ public class ExternalUserAdapter implements UserModel {
     private final RealmModel realm;
     private final ComponentModel storageProviderModel;
     private final ExternalUser externalUser;
-    private final String keycloakId;
+    private final ExternalUserStorageProvider provider;
+    // Built on first use, not every adapter is asked for its id
+    private String keycloakId;
 
     public ExternalUserAdapter(KeycloakSession session, RealmModel realm,
                               ComponentModel model, ExternalUser externalUser) {
+        this(session, realm, model, externalUser, null);
+    }
+
+    /**
+     * Provider-backed adapter - setter changes are queued on the provider's write-behind
+     * transaction and credential operations are delegated to the provider
+     */
+    public ExternalUserAdapter(KeycloakSession session, RealmModel realm, ComponentModel model,
+                              ExternalUser externalUser, ExternalUserStorageProvider provider) {
         this.session = session;
         this.realm = realm;
         this.storageProviderModel = model;
         this.externalUser = externalUser;
-        this.keycloakId = StorageId.keycloakId(model, String.valueOf(externalUser.getId()));
+        this.provider = provider;
+    }
+
+    private void markDirty(UserField field, Object oldValue, Object newValue) {
+        if (provider != null && !Objects.equals(oldValue, newValue)) {
+            provider.getPendingUpdates().markDirty(realm, this, externalUser.getId(), field, newValue);
+        }
+    }
+
+    /**
+     * Refuse a username or email change that the shard router would send to another shard:
+     * the row stays where it is and lookups by the new value would no longer find it
+     */
+    private void checkShard(UserField field, Object oldValue, String newValue) {
+        ShardRouter router = provider != null ? provider.getShardRouter() : null;
+        if (router == null || newValue == null || Objects.equals(oldValue, newValue)) {
+            return;
+        }
+        int shard = ShardedId.shardOf(externalUser.getId());
+        boolean reachable = field == UserField.USERNAME
+                ? router.reachesByUsername(newValue, shard)
+                : router.reachesByEmail(newValue, shard);
+        if (!reachable) {
+            throw new ModelException("Changing the " + field.name().toLowerCase(Locale.ROOT)
+                    + " would move the user to another shard");
+        }
     }
 
     @Override
     public String getId() {
+        if (keycloakId == null) {
+            keycloakId = StorageId.keycloakId(storageProviderModel, ShardedId.format(externalUser.getId()));
+        }
         return keycloakId;
     }
 
@@ -42,6 +86,8 @@ public class ExternalUserAdapter implements UserModel {
 
     @Override
     public void setUsername(String username) {
+        checkShard(UserField.USERNAME, externalUser.getUsername(), username);
+        markDirty(UserField.USERNAME, externalUser.getUsername(), username);
         externalUser.setUsername(username);
     }
 
@@ -53,7 +99,11 @@ public class ExternalUserAdapter implements UserModel {
     @Override
     public void setCreatedTimestamp(Long timestamp) {
         if (timestamp != null) {
-            externalUser.setCreatedAt(new Date(timestamp));
+            Date createdAt = new Date(timestamp);
+            if (!timestamp.equals(getCreatedTimestamp())) {
+                markDirty(UserField.CREATED_AT, null, createdAt);
+            }
+            externalUser.setCreatedAt(createdAt);
         }
     }
 
@@ -64,17 +114,26 @@ public class ExternalUserAdapter implements UserModel {
 
     @Override
     public void setEnabled(boolean enabled) {
+        markDirty(UserField.ENABLED, externalUser.isEnabled(), enabled);
         externalUser.setEnabled(enabled);
     }
 
     @Override
     public void setSingleAttribute(String name, String value) {
-        // Not implemented - external database doesn't support custom attributes
+        // Only the built-in profile attributes are stored - external database doesn't support custom attributes
+        switch (name) {
+            case FIRST_NAME: setFirstName(value); break;
+            case LAST_NAME: setLastName(value); break;
+            // username and email are NOT NULL in the users table
+            case EMAIL: if (value != null) setEmail(value); break;
+            case USERNAME: if (value != null) setUsername(value); break;
+            default: break;
+        }
     }
 
     @Override
     public void setAttribute(String name, List<String> values) {
-        // Not implemented - external database doesn't support custom attributes
+        setSingleAttribute(name, values == null || values.isEmpty() ? null : values.get(0));
     }
 
     @Override
@@ -132,6 +191,7 @@ public class ExternalUserAdapter implements UserModel {
 
     @Override
     public void setFirstName(String firstName) {
+        markDirty(UserField.FIRST_NAME, externalUser.getFirstName(), firstName);
         externalUser.setFirstName(firstName);
     }
 
@@ -142,6 +202,7 @@ public class ExternalUserAdapter implements UserModel {
 
     @Override
     public void setLastName(String lastName) {
+        markDirty(UserField.LAST_NAME, externalUser.getLastName(), lastName);
         externalUser.setLastName(lastName);
     }
 
@@ -152,6 +213,8 @@ public class ExternalUserAdapter implements UserModel {
 
     @Override
     public void setEmail(String email) {
+        checkShard(UserField.EMAIL, externalUser.getEmail(), email);
+        markDirty(UserField.EMAIL, externalUser.getEmail(), email);
         externalUser.setEmail(email);
     }
 
@@ -241,12 +304,13 @@ public class ExternalUserAdapter implements UserModel {
         return new SubjectCredentialManager() {
             @Override
             public boolean isValid(List<CredentialInput> inputs) {
-                return false;
+                return provider != null && !inputs.isEmpty()
+                        && inputs.stream().allMatch(input -> provider.isValid(realm, ExternalUserAdapter.this, input));
             }
 
             @Override
             public boolean updateCredential(CredentialInput input) {
-                return false;
+                return provider != null && provider.updateCredential(realm, ExternalUserAdapter.this, input);
             }
 
             @Override
@@ -303,7 +367,7 @@ public class ExternalUserAdapter implements UserModel {
 
             @Override
             public boolean isConfiguredFor(String type) {
-                return false;
+                return provider != null && provider.isConfiguredFor(realm, ExternalUserAdapter.this, type);
             }
 
             @Override
@@ -313,7 +377,7 @@ public class ExternalUserAdapter implements UserModel {
 
             @Override
             public Stream<String> getConfiguredUserStorageCredentialTypesStream() {
-                return Stream.empty();
+                return provider != null ? Stream.of(PasswordCredentialModel.TYPE) : Stream.empty();
             }
 
             @Override
@@ -0,0 +1,106 @@
+package com.example.keycloak.storage.cache;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache Budget - global memory cap over the user caches of all components, each cache being
+ * one partition with a weight. When the partitions together exceed the cap, entries are
+ * evicted from the partition using the most memory relative to its weight until the total
+ * is back under 90% of the cap (weighted fair eviction). A component filling its cache with
+ * one-off users therefore cannot push out the hot users of a component that stays within
+ * its share. Also publishes the stats of every registered partition.
+ */
+public class CacheBudget {
+    private static final Logger logger = Logger.getLogger(CacheBudget.class);
+
+    private final long maxBytes;
+    private final long targetBytes;
+    private final List<ExternalUserCache> partitions = new CopyOnWriteArrayList<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * @param maxBytes cap on the estimated size of all partitions, 0 for no cap
+     */
+    public CacheBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.targetBytes = maxBytes - maxBytes / 10;
+        ProviderMetrics.gauge("cache.budget.usedBytes", usedBytes::get);
+    }
+
+    public void register(ExternalUserCache partition) {
+        partitions.add(partition);
+        String prefix = "cache.partition." + partition.getName();
+        ProviderMetrics.gauge(prefix + ".entries", partition::size);
+        ProviderMetrics.gauge(prefix + ".bytes", partition::getBytes);
+        ProviderMetrics.gauge(prefix + ".hits", partition::getHits);
+        ProviderMetrics.gauge(prefix + ".misses", partition::getMisses);
+        ProviderMetrics.gauge(prefix + ".evictions", partition::getEvictions);
+        logger.debugf("Registered cache partition %s with weight %d", partition.getName(), partition.getWeight());
+    }
+
+    public void unregister(ExternalUserCache partition) {
+        partitions.remove(partition);
+        String prefix = "cache.partition." + partition.getName();
+        for (String stat : new String[] {".entries", ".bytes", ".hits", ".misses", ".evictions"}) {
+            ProviderMetrics.removeGauge(prefix + stat);
+        }
+    }
+
+    /**
+     * Account for a change in a partition's size, reclaiming memory when an increase
+     * takes the total over the cap
+     */
+    void charge(long deltaBytes) {
+        if (usedBytes.addAndGet(deltaBytes) > maxBytes && maxBytes > 0 && deltaBytes > 0) {
+            reclaim();
+        }
+    }
+
+    private synchronized void reclaim() {
+        if (usedBytes.get() <= maxBytes) {
+            return;
+        }
+        int evicted = 0;
+        long excess;
+        while ((excess = usedBytes.get() - targetBytes) > 0) {
+            ExternalUserCache victim = null;
+            double victimLevel = 0;
+            double runnerUpLevel = 0;
+            for (ExternalUserCache partition : partitions) {
+                double level = partition.getBytes() / (double) partition.getWeight();
+                if (level > victimLevel) {
+                    runnerUpLevel = victimLevel;
+                    victimLevel = level;
+                    victim = partition;
+                } else if (level > runnerUpLevel) {
+                    runnerUpLevel = level;
+                }
+            }
+            if (victim == null) {
+                break;
+            }
+            // Bring the heaviest partition down to the next one's level at most, then re-rank
+            long aboveRunnerUp = (long) ((victimLevel - runnerUpLevel) * victim.getWeight());
+            int removed = victim.shrink(Math.max(1, Math.min(excess, aboveRunnerUp)));
+            if (removed == 0) {
+                break;
+            }
+            evicted += removed;
+        }
+        logger.debugf("Cache budget exceeded, evicted %d users (%d of %d bytes in use)", evicted,
+                usedBytes.get(), maxBytes);
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public void close() {
+        ProviderMetrics.removeGauge("cache.budget.usedBytes");
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.keycloak.storage.cache;
+
+import com.example.keycloak.storage.database.DatabaseConnectionManager;
+import com.example.keycloak.storage.database.UserRepository;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache Warmer - pre-opens pool connections and preloads the most recently
+ * updated users into the lookup cache, within a size limit and a time budget
+ */
+public class CacheWarmer {
+    private static final Logger logger = Logger.getLogger(CacheWarmer.class);
+
+    private final List<DatabaseConnectionManager> connectionManagers;
+    private final UserRepository userRepository;
+    private final ExternalUserCache cache;
+
+    public CacheWarmer(List<DatabaseConnectionManager> connectionManagers, UserRepository userRepository,
+                       ExternalUserCache cache) {
+        this.connectionManagers = connectionManagers;
+        this.userRepository = userRepository;
+        this.cache = cache;
+    }
+
+    public void warmUp(int connections, int maxUsers, long budgetMillis) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+
+        int opened = 0;
+        for (DatabaseConnectionManager connectionManager : connectionManagers) {
+            opened += connectionManager.warmUp(connections);
+        }
+
+        int loaded = 0;
+        if (maxUsers > 0 && System.nanoTime() < deadline) {
+            int timeoutSeconds = (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(deadline - System.nanoTime()));
+            loaded = userRepository.loadRecentlyUpdated(maxUsers, timeoutSeconds, user -> {
+                cache.put(user);
+                return System.nanoTime() < deadline;
+            });
+        }
+
+        logger.infof("Cache warm-up: %d pooled connections in %d pools, %d users in %d ms",
+                opened, connectionManagers.size(), loaded,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
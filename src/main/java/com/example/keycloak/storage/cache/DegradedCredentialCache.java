@@ -0,0 +1,199 @@
+package com.example.keycloak.storage.cache;
+
+import com.example.keycloak.storage.database.KeyNormalization;
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import com.example.keycloak.storage.model.ExternalUser;
+import org.jboss.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Degraded Credential Cache - last known state (including password hash and enabled flag)
+ * of users who logged in, used only while the database is unreachable. Entries are
+ * AES-GCM encrypted under a key generated per process and never persisted, bounded in
+ * number (least recently used dropped first) and in age.
+ */
+public class DegradedCredentialCache {
+    private static final Logger logger = Logger.getLogger(DegradedCredentialCache.class);
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private final Map<String, Sealed> entries;
+    private final long maxStaleNanos;
+    private final SecretKey key;
+    private final KeyNormalization keyNormalization;
+    private final SecureRandom random = new SecureRandom();
+
+    private final LongAdder lookups = ProviderMetrics.counter("degraded.lookups");
+    private final LongAdder expired = ProviderMetrics.counter("degraded.expired");
+
+    public DegradedCredentialCache(int maxEntries, long maxStaleSeconds) {
+        this(maxEntries, maxStaleSeconds, KeyNormalization.EXACT);
+    }
+
+    public DegradedCredentialCache(int maxEntries, long maxStaleSeconds, KeyNormalization keyNormalization) {
+        this.keyNormalization = keyNormalization;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Sealed> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.maxStaleNanos = TimeUnit.SECONDS.toNanos(maxStaleSeconds);
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            this.key = generator.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES is not available", e);
+        }
+    }
+
+    /**
+     * Remember the user as last read from the database
+     */
+    public void put(ExternalUser user) {
+        if (user == null || user.getUsername() == null) {
+            return;
+        }
+        String username = keyNormalization.apply(user.getUsername());
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(username.getBytes(StandardCharsets.UTF_8));
+            Sealed sealed = new Sealed(iv, cipher.doFinal(serialize(user)), System.nanoTime());
+            synchronized (entries) {
+                entries.put(username, sealed);
+            }
+        } catch (GeneralSecurityException | IOException e) {
+            logger.warnf("Could not store degraded-mode entry for %s: %s", user.getUsername(), e.getMessage());
+        }
+    }
+
+    /**
+     * Last known state of the user, null if unknown or older than the maximum staleness
+     */
+    public ExternalUser get(String username) {
+        String entryKey = keyNormalization.apply(username);
+        Sealed sealed;
+        synchronized (entries) {
+            sealed = entries.get(entryKey);
+            if (sealed != null && System.nanoTime() - sealed.storedAt > maxStaleNanos) {
+                entries.remove(entryKey);
+                expired.increment();
+                sealed = null;
+            }
+        }
+        if (sealed == null) {
+            return null;
+        }
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed.iv));
+            cipher.updateAAD(entryKey.getBytes(StandardCharsets.UTF_8));
+            ExternalUser user = deserialize(cipher.doFinal(sealed.ciphertext));
+            lookups.increment();
+            return user;
+        } catch (GeneralSecurityException | IOException e) {
+            logger.warnf("Could not read degraded-mode entry for %s: %s", username, e.getMessage());
+            return null;
+        }
+    }
+
+    public void remove(String username) {
+        if (username != null) {
+            synchronized (entries) {
+                entries.remove(keyNormalization.apply(username));
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static byte[] serialize(ExternalUser user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(user.getId() != null ? user.getId() : 0L);
+            writeString(out, user.getUsername());
+            writeString(out, user.getEmail());
+            writeString(out, user.getFirstName());
+            writeString(out, user.getLastName());
+            writeString(out, user.getPasswordHash());
+            out.writeBoolean(user.isEnabled());
+            out.writeLong(user.getCreatedAt() != null ? user.getCreatedAt().getTime() : Long.MIN_VALUE);
+            out.writeLong(user.getUpdatedAt() != null ? user.getUpdatedAt().getTime() : Long.MIN_VALUE);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ExternalUser deserialize(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            ExternalUser user = new ExternalUser();
+            user.setId(in.readLong());
+            user.setUsername(readString(in));
+            user.setEmail(readString(in));
+            user.setFirstName(readString(in));
+            user.setLastName(readString(in));
+            user.setPasswordHash(readString(in));
+            user.setEnabled(in.readBoolean());
+            long createdAt = in.readLong();
+            long updatedAt = in.readLong();
+            user.setCreatedAt(createdAt != Long.MIN_VALUE ? new Date(createdAt) : null);
+            user.setUpdatedAt(updatedAt != Long.MIN_VALUE ? new Date(updatedAt) : null);
+            return user;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static final class Sealed {
+        private final byte[] iv;
+        private final byte[] ciphertext;
+        private final long storedAt;
+
+        private Sealed(byte[] iv, byte[] ciphertext, long storedAt) {
+            this.iv = iv;
+            this.ciphertext = ciphertext;
+            this.storedAt = storedAt;
+        }
+    }
+}
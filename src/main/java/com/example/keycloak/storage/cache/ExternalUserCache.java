@@ -0,0 +1,363 @@
+package com.example.keycloak.storage.cache;
+
+import com.example.keycloak.storage.database.DatabaseUnavailableException;
+import com.example.keycloak.storage.database.KeyNormalization;
+import com.example.keycloak.storage.database.UserRepository;
+import com.example.keycloak.storage.model.CompactUser;
+import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * External User Cache - per-component TTL cache of external users with
+ * username and email lookup indexes. Entries are stored as compact immutable users and
+ * handed out as mutable copies, so adapters can modify their user without affecting
+ * other sessions; the compact form saves retained heap, every hit still allocates its copy.
+ * Entries older than the refresh TTL are still served but queued for a background
+ * reload (stale-while-revalidate), entries older than the hard TTL are dropped.
+ * When full, the least recently read entries are evicted.
+ * With a CacheBudget the cache is one weighted partition of a global memory cap.
+ */
+public class ExternalUserCache {
+    // Entry, id map node and the two index nodes
+    private static final int ENTRY_OVERHEAD_BYTES = 120;
+
+    private final ConcurrentMap<Long, Entry> byId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> byUsername = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> byEmail = new ConcurrentHashMap<>();
+    private final Set<Long> refreshQueue = ConcurrentHashMap.newKeySet();
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long refreshNanos;
+    private final KeyNormalization keyNormalization;
+    private final CacheBudget budget;
+    private final String name;
+    private final int weight;
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder partitionHits = new LongAdder();
+    private final LongAdder partitionMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder hits = ProviderMetrics.counter("cache.hits");
+    private final LongAdder misses = ProviderMetrics.counter("cache.misses");
+    private final LongAdder staleHits = ProviderMetrics.counter("cache.staleHits");
+
+    /**
+     * @param refreshAfterSeconds age after which a served entry is reloaded in the background,
+     *                            no background reload when it is not below the hard TTL
+     * @param ttlSeconds          hard TTL, the maximum age of a served entry
+     */
+    public ExternalUserCache(int maxEntries, long refreshAfterSeconds, long ttlSeconds) {
+        this(maxEntries, refreshAfterSeconds, ttlSeconds, KeyNormalization.EXACT, null, "default", 1);
+    }
+
+    /**
+     * @param keyNormalization form the username and email indexes are keyed on, the repository's
+     * @param budget global cap the cache is a partition of, null for none; the caller registers
+     *               the cache with it
+     * @param name   partition name in stats
+     * @param weight share of the global cap relative to the other partitions' weights
+     */
+    public ExternalUserCache(int maxEntries, long refreshAfterSeconds, long ttlSeconds,
+                             KeyNormalization keyNormalization, CacheBudget budget, String name, int weight) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.refreshNanos = TimeUnit.SECONDS.toNanos(Math.min(refreshAfterSeconds, ttlSeconds));
+        this.keyNormalization = keyNormalization;
+        this.budget = budget;
+        this.name = name;
+        this.weight = Math.max(1, weight);
+    }
+
+    public ExternalUser getById(Long id) {
+        Entry entry = byId.get(id);
+        if (entry == null) {
+            return miss();
+        }
+        long age = System.nanoTime() - entry.loadedAt;
+        if (age > ttlNanos) {
+            invalidate(id);
+            return miss();
+        }
+        if (age > refreshNanos && refreshNanos < ttlNanos) {
+            staleHits.increment();
+            refreshQueue.add(id);
+        } else {
+            hits.increment();
+        }
+        partitionHits.increment();
+        entry.lastAccess = System.nanoTime();
+        return entry.user.toExternalUser();
+    }
+
+    /**
+     * Whether the cached copy of the user may lag behind the database (past the refresh TTL or not cached)
+     */
+    public boolean isStale(Long id) {
+        Entry entry = byId.get(id);
+        return entry == null || System.nanoTime() - entry.loadedAt > refreshNanos;
+    }
+
+    /**
+     * Reload the users queued by stale reads, batchSize ids per query. Unchanged users
+     * (same updated_at) are only marked fresh and changed ones replace their entry. Users
+     * missing from a batch (deleted, or the query failed) keep expiring at the hard TTL.
+     *
+     * @return number of users reloaded
+     */
+    public int refreshStale(UserRepository repository, int batchSize) {
+        int reloaded = 0;
+        while (!refreshQueue.isEmpty()) {
+            Map<Long, Entry> expected = new HashMap<>();
+            Iterator<Long> it = refreshQueue.iterator();
+            while (expected.size() < batchSize && it.hasNext()) {
+                Long id = it.next();
+                it.remove();
+                Entry entry = byId.get(id);
+                if (entry != null) {
+                    expected.put(id, entry);
+                }
+            }
+            if (expected.isEmpty()) {
+                continue;
+            }
+
+            List<ExternalUser> users;
+            try {
+                users = repository.findByIds(expected.keySet());
+            } catch (DatabaseUnavailableException e) {
+                // Try again next round, the entries expire by TTL if the database stays unavailable
+                return reloaded;
+            }
+            long now = System.nanoTime();
+            for (ExternalUser user : users) {
+                Entry current = expected.get(user.getId());
+                if (current == null) {
+                    continue;
+                }
+                // Entries invalidated or replaced while the batch was loading are left alone
+                if (current.user.hasSameUpdatedAt(user)) {
+                    byId.replace(user.getId(), current, new Entry(current.user, now));
+                } else {
+                    CompactUser reloadedUser = CompactUser.of(user);
+                    if (byId.replace(user.getId(), current, new Entry(reloadedUser, now))) {
+                        unindex(current.user);
+                        index(reloadedUser, user.getId());
+                        charge(entryBytes(reloadedUser) - entryBytes(current.user));
+                    }
+                }
+                reloaded++;
+            }
+        }
+        return reloaded;
+    }
+
+    public ExternalUser getByUsername(String username) {
+        Long id = byUsername.get(keyNormalization.apply(username));
+        return id != null ? getById(id) : miss();
+    }
+
+    public ExternalUser getByEmail(String email) {
+        Long id = byEmail.get(keyNormalization.apply(email));
+        return id != null ? getById(id) : miss();
+    }
+
+    private ExternalUser miss() {
+        misses.increment();
+        partitionMisses.increment();
+        return null;
+    }
+
+    public void put(ExternalUser user) {
+        if (user == null || user.getId() == null) {
+            return;
+        }
+        if (byId.size() >= maxEntries) {
+            evict();
+        }
+        CompactUser compact = CompactUser.of(user);
+        Entry previous = byId.put(user.getId(), new Entry(compact, System.nanoTime()));
+        long added = entryBytes(compact);
+        if (previous != null) {
+            unindex(previous.user);
+            added -= entryBytes(previous.user);
+        }
+        index(compact, user.getId());
+        charge(added);
+    }
+
+    public void invalidate(Long id) {
+        refreshQueue.remove(id);
+        Entry entry = byId.remove(id);
+        if (entry != null) {
+            unindex(entry.user);
+            charge(-entryBytes(entry.user));
+        }
+    }
+
+    public void clear() {
+        byId.clear();
+        byUsername.clear();
+        byEmail.clear();
+        refreshQueue.clear();
+        charge(-bytes.get());
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Estimated heap used by the cached users and their index entries
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getHits() {
+        return partitionHits.sum();
+    }
+
+    public long getMisses() {
+        return partitionMisses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private void charge(long deltaBytes) {
+        bytes.addAndGet(deltaBytes);
+        if (budget != null) {
+            budget.charge(deltaBytes);
+        }
+    }
+
+    /**
+     * Evict the least recently read entries until at least the given number of bytes is freed,
+     * for the global budget
+     *
+     * @return number of entries evicted
+     */
+    int shrink(long bytesToFree) {
+        long freed = 0;
+        int evicted = 0;
+        Iterator<Map.Entry<Long, Entry>> it = leastRecentlyUsedFirst().iterator();
+        while (freed < bytesToFree && it.hasNext()) {
+            Map.Entry<Long, Entry> next = it.next();
+            if (evict(next.getKey(), next.getValue())) {
+                freed += entryBytes(next.getValue().user);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Snapshot of the entries by last read, least recent first; hot users stay cached however
+     * long ago they were loaded. Eviction frees a tenth of the space at a time, so the sort is
+     * paid once per many insertions.
+     */
+    private List<Map.Entry<Long, Entry>> leastRecentlyUsedFirst() {
+        List<Map.Entry<Long, Entry>> entries = new ArrayList<>(byId.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        return entries;
+    }
+
+    private boolean evict(Long id, Entry entry) {
+        if (!byId.remove(id, entry)) {
+            return false;
+        }
+        unindex(entry.user);
+        charge(-entryBytes(entry.user));
+        evictions.increment();
+        return true;
+    }
+
+    /**
+     * Estimated heap of an entry, including index keys that are lower-cased copies rather
+     * than the user's own strings
+     */
+    private long entryBytes(CompactUser user) {
+        return ENTRY_OVERHEAD_BYTES + user.estimatedBytes()
+                + keyBytes(user.getUsername()) + keyBytes(user.getEmail());
+    }
+
+    private int keyBytes(String value) {
+        // toLowerCase returns the same instance when there is nothing to lower
+        return value != null && keyNormalization.apply(value) != value ? 40 + value.length() : 0;
+    }
+
+    /**
+     * @param id the boxed id keying byId, shared by the indexes instead of boxing again
+     */
+    private void index(CompactUser user, Long id) {
+        if (user.getUsername() != null) {
+            byUsername.put(keyNormalization.apply(user.getUsername()), id);
+        }
+        if (user.getEmail() != null) {
+            byEmail.put(keyNormalization.apply(user.getEmail()), id);
+        }
+    }
+
+    private void unindex(CompactUser user) {
+        if (user.getUsername() != null) {
+            byUsername.remove(keyNormalization.apply(user.getUsername()), user.getId());
+        }
+        if (user.getEmail() != null) {
+            byEmail.remove(keyNormalization.apply(user.getEmail()), user.getId());
+        }
+    }
+
+    /**
+     * Drop the expired entries, then the least recently read ones until 10% of the capacity is free
+     */
+    private void evict() {
+        long now = System.nanoTime();
+        byId.forEach((id, entry) -> {
+            if (now - entry.loadedAt > ttlNanos) {
+                evict(id, entry);
+            }
+        });
+        int target = maxEntries - Math.max(1, maxEntries / 10);
+        for (Map.Entry<Long, Entry> next : leastRecentlyUsedFirst()) {
+            if (byId.size() <= target) {
+                break;
+            }
+            evict(next.getKey(), next.getValue());
+        }
+    }
+
+    private static final class Entry {
+        private final CompactUser user;
+        private final long loadedAt;
+        // Written by every hit without synchronization, eviction only needs an approximate order
+        private long lastAccess;
+
+        private Entry(CompactUser user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+            this.lastAccess = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.keycloak.storage.cache;
+
+import com.example.keycloak.storage.database.UserSearchCriteria;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search Total Cache - match counts of recent admin listings, so paging through the same
+ * search does not count the matches again. Counts are short-lived and only used for display.
+ */
+public class SearchTotalCache {
+    private final ConcurrentMap<UserSearchCriteria, Entry> totals = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    public SearchTotalCache(int maxEntries, long ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * Cached total for the criteria, null if unknown or expired
+     */
+    public Integer get(UserSearchCriteria criteria) {
+        Entry entry = totals.get(criteria);
+        if (entry == null || System.nanoTime() - entry.loadedAt > ttlNanos) {
+            return null;
+        }
+        return entry.total;
+    }
+
+    public void put(UserSearchCriteria criteria, int total) {
+        if (totals.size() >= maxEntries) {
+            long now = System.nanoTime();
+            totals.values().removeIf(entry -> now - entry.loadedAt > ttlNanos);
+            if (totals.size() >= maxEntries) {
+                totals.clear();
+            }
+        }
+        totals.put(criteria, new Entry(total, System.nanoTime()));
+    }
+
+    public void clear() {
+        totals.clear();
+    }
+
+    private static final class Entry {
+        private final int total;
+        private final long loadedAt;
+
+        private Entry(int total, long loadedAt) {
+            this.total = total;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
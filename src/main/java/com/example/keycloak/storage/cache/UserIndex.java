@@ -0,0 +1,195 @@
+package com.example.keycloak.storage.cache;
+
+import com.example.keycloak.storage.database.KeyNormalization;
+import com.example.keycloak.storage.database.UserRepository;
+import com.example.keycloak.storage.model.UserIndexEntry;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User Index - username/email to id lookup index backed by a memory-mapped
+ * UserIndexSnapshot, with an on-heap overlay of rows changed since the snapshot.
+ *
+ * The snapshot is rewritten periodically from a full scan; between rewrites the overlay
+ * catches up on rows whose updated_at moved past the high-water mark. Rows deleted directly
+ * in the external database are only dropped at the next full rewrite. The index lags behind
+ * the database, so a miss never proves a user does not exist. Usernames and emails are
+ * stored normalized, so a snapshot file is only valid for one key normalization.
+ */
+public class UserIndex {
+    private static final Logger logger = Logger.getLogger(UserIndex.class);
+
+    // updated_at is stamped at the start of the writing transaction: rows committed later than
+    // this after their stamp would fall behind a mark set at the newest row seen
+    private static final long SETTLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final Path file;
+    private final UserRepository userRepository;
+    private final KeyNormalization keyNormalization;
+
+    private volatile UserIndexSnapshot snapshot;
+    private final ConcurrentMap<Long, UserIndexEntry> overlay = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, UserIndexEntry> overlayByUsername = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, UserIndexEntry> overlayByEmail = new ConcurrentHashMap<>();
+    private final Set<Long> removed = ConcurrentHashMap.newKeySet();
+    private volatile long highWaterMark = Long.MIN_VALUE;
+
+    public UserIndex(Path file, UserRepository userRepository, KeyNormalization keyNormalization) {
+        this.file = file;
+        this.userRepository = userRepository;
+        this.keyNormalization = keyNormalization;
+    }
+
+    public KeyNormalization getKeyNormalization() {
+        return keyNormalization;
+    }
+
+    /**
+     * Map the snapshot left by a previous run and catch up on changes since, or build a new one
+     */
+    public void start() {
+        try {
+            UserIndexSnapshot loaded = UserIndexSnapshot.load(file);
+            snapshot = loaded;
+            highWaterMark = settled(loaded.getMaxUpdatedAt());
+            logger.infof("Loaded user index snapshot %s with %d users", file, loaded.size());
+            catchUp();
+        } catch (NoSuchFileException e) {
+            rebuild();
+        } catch (IOException e) {
+            logger.warnf("Discarding unreadable user index snapshot %s: %s", file, e.getMessage());
+            rebuild();
+        }
+    }
+
+    /**
+     * Apply rows updated since the high-water mark to the overlay
+     */
+    public void catchUp() {
+        if (snapshot == null) {
+            return;
+        }
+        long[] newest = {Long.MIN_VALUE};
+        try {
+            // Rows at or after the mark are read again, applying them again is harmless
+            int changed = userRepository.forEachIndexEntry(highWaterMark, entry -> {
+                apply(normalize(entry));
+                newest[0] = Math.max(newest[0], entry.getUpdatedAt());
+            });
+            highWaterMark = Math.max(highWaterMark, settled(newest[0]));
+            logger.debugf("User index caught up with %d changed users", changed);
+        } catch (SQLException e) {
+            logger.warnf("User index catch-up failed: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite the snapshot from a full scan and reset the overlay
+     */
+    public synchronized void rebuild() {
+        long start = System.nanoTime();
+        List<UserIndexEntry> entries = new ArrayList<>();
+        try {
+            Files.createDirectories(file.getParent());
+            userRepository.forEachIndexEntry(Long.MIN_VALUE, entry -> entries.add(normalize(entry)));
+            UserIndexSnapshot.write(file, entries);
+            UserIndexSnapshot rebuilt = UserIndexSnapshot.load(file);
+
+            snapshot = rebuilt;
+            highWaterMark = settled(rebuilt.getMaxUpdatedAt());
+            overlay.clear();
+            overlayByUsername.clear();
+            overlayByEmail.clear();
+            removed.clear();
+            logger.infof("Wrote user index snapshot %s with %d users in %d ms", file, rebuilt.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | SQLException e) {
+            logger.warnf("User index snapshot rebuild failed: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Mark for the newest updated_at seen, held back so that rows stamped before it but
+     * committed after the read are picked up by the next catch-up
+     */
+    private static long settled(long newestUpdatedAt) {
+        return newestUpdatedAt == Long.MIN_VALUE ? Long.MIN_VALUE : newestUpdatedAt - SETTLE_MILLIS;
+    }
+
+    private UserIndexEntry normalize(UserIndexEntry entry) {
+        if (keyNormalization == KeyNormalization.EXACT) {
+            return entry;
+        }
+        return new UserIndexEntry(entry.getId(), keyNormalization.apply(entry.getUsername()),
+                keyNormalization.apply(entry.getEmail()), entry.isEnabled(), entry.getUpdatedAt());
+    }
+
+    private void apply(UserIndexEntry entry) {
+        UserIndexEntry previous = overlay.put(entry.getId(), entry);
+        if (previous != null) {
+            overlayByUsername.remove(previous.getUsername(), previous);
+            overlayByEmail.remove(previous.getEmail(), previous);
+        }
+        if (entry.getUsername() != null) {
+            overlayByUsername.put(entry.getUsername(), entry);
+        }
+        if (entry.getEmail() != null) {
+            overlayByEmail.put(entry.getEmail(), entry);
+        }
+        removed.remove(entry.getId());
+    }
+
+    /**
+     * Apply a user written through the provider, so lookups see the change before the next catch-up
+     */
+    public void update(UserIndexEntry entry) {
+        apply(normalize(entry));
+    }
+
+    /**
+     * Forget a user removed through the provider
+     */
+    public void remove(long id) {
+        removed.add(id);
+    }
+
+    public UserIndexEntry findByUsername(String username) {
+        String key = keyNormalization.apply(username);
+        UserIndexEntry entry = overlayByUsername.get(key);
+        if (entry == null && snapshot != null) {
+            entry = snapshot.findByUsername(key);
+        }
+        return visible(entry);
+    }
+
+    public UserIndexEntry findByEmail(String email) {
+        String key = keyNormalization.apply(email);
+        UserIndexEntry entry = overlayByEmail.get(key);
+        if (entry == null && snapshot != null) {
+            entry = snapshot.findByEmail(key);
+        }
+        return visible(entry);
+    }
+
+    /**
+     * Hide removed users and snapshot rows superseded by a newer overlay row
+     */
+    private UserIndexEntry visible(UserIndexEntry entry) {
+        if (entry == null || removed.contains(entry.getId())) {
+            return null;
+        }
+        UserIndexEntry newer = overlay.get(entry.getId());
+        return newer == null || newer == entry ? entry : null;
+    }
+}
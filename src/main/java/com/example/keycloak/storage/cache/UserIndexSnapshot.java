@@ -0,0 +1,251 @@
+package com.example.keycloak.storage.cache;
+
+import com.example.keycloak.storage.model.UserIndexEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * User Index Snapshot - compact, read-only binary image of the users lookup index,
+ * memory-mapped so that it lives off-heap and loads in constant time after a restart.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   header      magic int, version int, count int, maxUpdatedAt long
+ *   ids         long[count]    ascending
+ *   updatedAt   long[count]    epoch millis, same order as ids
+ *   enabled     byte[count]
+ *   usernameOff int[count + 1] offsets into the string blob
+ *   emailOff    int[count + 1]
+ *   byUsername  int[count]     row numbers sorted by username bytes
+ *   byEmail     int[count]     row numbers sorted by email bytes
+ *   blob        UTF-8 usernames followed by UTF-8 emails
+ * </pre>
+ */
+public class UserIndexSnapshot {
+    private static final int MAGIC = 0x45554958; // "EUIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final long maxUpdatedAt;
+    private final int idsOffset;
+    private final int updatedAtOffset;
+    private final int enabledOffset;
+    private final int usernameOffsetsOffset;
+    private final int emailOffsetsOffset;
+    private final int byUsernameOffset;
+    private final int byEmailOffset;
+    private final int blobOffset;
+
+    private UserIndexSnapshot(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a user index snapshot (or unsupported version)");
+        }
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.maxUpdatedAt = buffer.getLong(12);
+        this.idsOffset = HEADER_BYTES;
+        this.updatedAtOffset = idsOffset + count * Long.BYTES;
+        this.enabledOffset = updatedAtOffset + count * Long.BYTES;
+        this.usernameOffsetsOffset = enabledOffset + count;
+        this.emailOffsetsOffset = usernameOffsetsOffset + (count + 1) * Integer.BYTES;
+        this.byUsernameOffset = emailOffsetsOffset + (count + 1) * Integer.BYTES;
+        this.byEmailOffset = byUsernameOffset + count * Integer.BYTES;
+        this.blobOffset = byEmailOffset + count * Integer.BYTES;
+    }
+
+    /**
+     * Map a snapshot file read-only; the mapping stays valid after the channel is closed
+     */
+    public static UserIndexSnapshot load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new UserIndexSnapshot(mapped);
+        }
+    }
+
+    /**
+     * Write entries as a snapshot, atomically replacing any existing file
+     */
+    public static void write(Path file, List<UserIndexEntry> entries) throws IOException {
+        UserIndexEntry[] rows = entries.toArray(new UserIndexEntry[0]);
+        Arrays.sort(rows, Comparator.comparingLong(UserIndexEntry::getId));
+        int count = rows.length;
+
+        byte[][] usernames = new byte[count][];
+        byte[][] emails = new byte[count][];
+        long maxUpdatedAt = Long.MIN_VALUE;
+        int blobSize = 0;
+        for (int i = 0; i < count; i++) {
+            usernames[i] = utf8(rows[i].getUsername());
+            emails[i] = utf8(rows[i].getEmail());
+            blobSize += usernames[i].length + emails[i].length;
+            maxUpdatedAt = Math.max(maxUpdatedAt, rows[i].getUpdatedAt());
+        }
+
+        Integer[] byUsername = sortedRows(usernames);
+        Integer[] byEmail = sortedRows(emails);
+
+        long size = HEADER_BYTES + (long) count * (2 * Long.BYTES + 1 + 4 * Integer.BYTES)
+                + 2L * Integer.BYTES + blobSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("User index too large for a single snapshot: " + size + " bytes");
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC).putInt(VERSION).putInt(count).putLong(maxUpdatedAt);
+            for (UserIndexEntry row : rows) {
+                out.putLong(row.getId());
+            }
+            for (UserIndexEntry row : rows) {
+                out.putLong(row.getUpdatedAt());
+            }
+            for (UserIndexEntry row : rows) {
+                out.put((byte) (row.isEnabled() ? 1 : 0));
+            }
+            int offset = 0;
+            for (byte[] username : usernames) {
+                out.putInt(offset);
+                offset += username.length;
+            }
+            out.putInt(offset);
+            for (byte[] email : emails) {
+                out.putInt(offset);
+                offset += email.length;
+            }
+            out.putInt(offset);
+            for (Integer row : byUsername) {
+                out.putInt(row);
+            }
+            for (Integer row : byEmail) {
+                out.putInt(row);
+            }
+            for (byte[] username : usernames) {
+                out.put(username);
+            }
+            for (byte[] email : emails) {
+                out.put(email);
+            }
+            out.force();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    private static Integer[] sortedRows(byte[][] keys) {
+        Integer[] rows = new Integer[keys.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        Arrays.sort(rows, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+        return rows;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Newest updated_at in the snapshot, the starting point for delta catch-up
+     */
+    public long getMaxUpdatedAt() {
+        return maxUpdatedAt;
+    }
+
+    public UserIndexEntry findById(long id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = buffer.getLong(idsOffset + mid * Long.BYTES);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return entry(mid);
+            }
+        }
+        return null;
+    }
+
+    public UserIndexEntry findByUsername(String username) {
+        int row = search(byUsernameOffset, usernameOffsetsOffset, utf8(username));
+        return row >= 0 ? entry(row) : null;
+    }
+
+    public UserIndexEntry findByEmail(String email) {
+        int row = search(byEmailOffset, emailOffsetsOffset, utf8(email));
+        return row >= 0 ? entry(row) : null;
+    }
+
+    /**
+     * Binary search a sorted permutation, comparing keys directly in the mapped blob
+     */
+    private int search(int orderOffset, int stringOffsetsOffset, byte[] key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int row = buffer.getInt(orderOffset + mid * Integer.BYTES);
+            int cmp = compare(stringOffsetsOffset, row, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int stringOffsetsOffset, int row, byte[] key) {
+        int start = buffer.getInt(stringOffsetsOffset + row * Integer.BYTES);
+        int end = buffer.getInt(stringOffsetsOffset + (row + 1) * Integer.BYTES);
+        int length = end - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.toUnsignedInt(buffer.get(blobOffset + start + i)) - Byte.toUnsignedInt(key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private UserIndexEntry entry(int row) {
+        return new UserIndexEntry(
+                buffer.getLong(idsOffset + row * Long.BYTES),
+                string(usernameOffsetsOffset, row),
+                string(emailOffsetsOffset, row),
+                buffer.get(enabledOffset + row) != 0,
+                buffer.getLong(updatedAtOffset + row * Long.BYTES));
+    }
+
+    private String string(int stringOffsetsOffset, int row) {
+        int start = buffer.getInt(stringOffsetsOffset + row * Integer.BYTES);
+        int end = buffer.getInt(stringOffsetsOffset + (row + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        buffer.slice(blobOffset + start, bytes.length).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
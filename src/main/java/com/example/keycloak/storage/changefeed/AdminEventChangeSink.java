@@ -0,0 +1,109 @@
+package com.example.keycloak.storage.changefeed;
+
+import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.shard.ShardedId;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventStoreProvider;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.AuthDetails;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.ModelException;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.keycloak.storage.StorageId;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Admin Event Change Sink - turns changed users into Keycloak admin events on the USER
+ * resource, so downstream systems receive them through the realm's event listeners (and the
+ * admin event store when admin events are enabled) instead of polling for changes.
+ *
+ * Rows whose created_at equals updated_at are reported as CREATE, all others as UPDATE.
+ * The representation carries the user's profile, never the password hash.
+ */
+public class AdminEventChangeSink implements ChangeSink {
+    private final KeycloakSessionFactory sessionFactory;
+    private final ComponentModel model;
+
+    public AdminEventChangeSink(KeycloakSessionFactory sessionFactory, ComponentModel model) {
+        this.sessionFactory = sessionFactory;
+        this.model = model;
+    }
+
+    @Override
+    public void publish(List<ExternalUser> users) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(model.getParentId());
+            if (realm == null) {
+                return;
+            }
+            boolean includeRepresentation = realm.isAdminEventsDetailsEnabled();
+            EventStoreProvider eventStore = realm.isAdminEventsEnabled()
+                    ? session.getProvider(EventStoreProvider.class) : null;
+            List<EventListenerProvider> listeners = realm.getEventsListenersStream()
+                    .map(id -> session.getProvider(EventListenerProvider.class, id))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+
+            for (ExternalUser user : users) {
+                AdminEvent event = toAdminEvent(realm, user);
+                if (eventStore != null) {
+                    eventStore.onEvent(event, includeRepresentation);
+                }
+                for (EventListenerProvider listener : listeners) {
+                    listener.onEvent(event, includeRepresentation);
+                }
+            }
+        });
+    }
+
+    private AdminEvent toAdminEvent(RealmModel realm, ExternalUser user) {
+        String keycloakId = StorageId.keycloakId(model, ShardedId.format(user.getId()));
+        boolean created = user.getCreatedAt() != null && user.getCreatedAt().equals(user.getUpdatedAt());
+
+        AuthDetails authDetails = new AuthDetails();
+        authDetails.setRealmId(realm.getId());
+
+        AdminEvent event = new AdminEvent();
+        event.setId(KeycloakModelUtils.generateId());
+        event.setTime(user.getUpdatedAt() != null ? user.getUpdatedAt().getTime() : System.currentTimeMillis());
+        event.setRealmId(realm.getId());
+        event.setAuthDetails(authDetails);
+        event.setOperationType(created ? OperationType.CREATE : OperationType.UPDATE);
+        event.setResourceType(ResourceType.USER);
+        event.setResourcePath("users/" + keycloakId);
+        event.setRepresentation(toRepresentation(keycloakId, user));
+        return event;
+    }
+
+    /**
+     * The fields of a UserRepresentation the external database provides
+     */
+    private String toRepresentation(String keycloakId, ExternalUser user) {
+        UserRepresentation representation = new UserRepresentation();
+        representation.setId(keycloakId);
+        representation.setUsername(user.getUsername());
+        representation.setEmail(user.getEmail());
+        representation.setFirstName(user.getFirstName());
+        representation.setLastName(user.getLastName());
+        representation.setEnabled(user.isEnabled());
+        if (user.getCreatedAt() != null) {
+            representation.setCreatedTimestamp(user.getCreatedAt().getTime());
+        }
+        representation.setFederationLink(model.getId());
+        try {
+            return JsonSerialization.writeValueAsString(representation);
+        } catch (IOException e) {
+            throw new ModelException("Could not serialize user " + keycloakId, e);
+        }
+    }
+}
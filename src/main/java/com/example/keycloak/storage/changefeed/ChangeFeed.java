@@ -0,0 +1,311 @@
+package com.example.keycloak.storage.changefeed;
+
+import com.example.keycloak.storage.database.DatabaseConnectionManager;
+import com.example.keycloak.storage.database.JdbcUserRepository;
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import com.example.keycloak.storage.model.ExternalUser;
+import org.jboss.logging.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Change Feed - reads users inserted or updated since a (updated_at, id) high-water mark in
+ * keyset order and hands them to a ChangeSink in batches, so downstream systems are pushed
+ * changes instead of polling Keycloak for them.
+ *
+ * The high-water mark is stored per consumer in the user_change_feed_checkpoints table of the
+ * same database and advanced in the transaction that read the batch, after the sink accepted
+ * it, and a restart resumes where the last batch ended. A first start begins at the current
+ * time rather than replaying the table. A transaction-level advisory lock on the consumer lets
+ * only one Keycloak node poll at a time.
+ *
+ * Batch size and poll interval follow the change rate: full batches double the batch size
+ * and poll again at once, empty polls back off to the maximum interval.
+ *
+ * The updated_at trigger stamps the start of the writing transaction, so a row may commit
+ * after younger ones were read and the mark moved past it. Rows are therefore only read once
+ * their updated_at is older than the settle window. Delivery is at-least-once for rows whose
+ * transaction commits within the settle window of its start; a row committed later is
+ * skipped for good, so the window must exceed the longest transaction writing users. Rows
+ * deleted from the table are not seen.
+ */
+public class ChangeFeed implements Runnable {
+    private static final Logger logger = Logger.getLogger(ChangeFeed.class);
+
+    static final String CHECKPOINT_TABLE = "user_change_feed_checkpoints";
+
+    private static final long MIN_INTERVAL_MILLIS = 1000;
+    private static final int MIN_BATCH_SIZE = 50;
+    // Halve the batch when reading and publishing one takes longer than this
+    private static final long TARGET_BATCH_MILLIS = 2000;
+
+    private static final String CREATE_CHECKPOINT_TABLE = "CREATE TABLE " + CHECKPOINT_TABLE + " (" +
+            "consumer VARCHAR(255) PRIMARY KEY, last_updated_at TIMESTAMP NOT NULL, last_id BIGINT NOT NULL, " +
+            "checkpointed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)";
+
+    private final DatabaseConnectionManager connectionManager;
+    private final String consumer;
+    private final ChangeSink sink;
+    private final LongUnaryOperator userIds;
+    private final ScheduledExecutorService scheduler;
+    private final long maxIntervalMillis;
+    private final int maxBatchSize;
+    private final long settleMillis;
+
+    private int batchSize;
+    private long idleIntervalMillis = MIN_INTERVAL_MILLIS;
+    private boolean checkpointTableChecked;
+    private volatile ScheduledFuture<?> nextPoll;
+    private volatile boolean closed;
+
+    /**
+     * @param consumer name of the checkpoint, unique per feed reading this database
+     * @param userIds maps ids of this database to the ids users have in Keycloak (sharded ids)
+     * @param settleSeconds age a row's updated_at must reach before it is read, longer than
+     *                      any transaction writing users
+     */
+    public ChangeFeed(DatabaseConnectionManager connectionManager, String consumer, ChangeSink sink,
+                      LongUnaryOperator userIds, ScheduledExecutorService scheduler, long maxIntervalSeconds,
+                      int maxBatchSize, long settleSeconds) {
+        this.connectionManager = connectionManager;
+        this.consumer = consumer;
+        this.sink = sink;
+        this.userIds = userIds;
+        this.scheduler = scheduler;
+        this.maxIntervalMillis = Math.max(MIN_INTERVAL_MILLIS, TimeUnit.SECONDS.toMillis(maxIntervalSeconds));
+        this.maxBatchSize = Math.max(MIN_BATCH_SIZE, maxBatchSize);
+        this.settleMillis = TimeUnit.SECONDS.toMillis(Math.max(0, settleSeconds));
+        this.batchSize = MIN_BATCH_SIZE;
+    }
+
+    public void start() {
+        ProviderMetrics.gauge("changeFeed." + consumer + ".batchSize", () -> batchSize);
+        schedule(0);
+    }
+
+    /**
+     * Stop polling; a batch being published finishes but is not checkpointed if interrupted
+     */
+    public void close() {
+        closed = true;
+        ScheduledFuture<?> poll = nextPoll;
+        if (poll != null) {
+            poll.cancel(false);
+        }
+        ProviderMetrics.removeGauge("changeFeed." + consumer + ".batchSize");
+        sink.close();
+    }
+
+    @Override
+    public void run() {
+        if (closed) {
+            return;
+        }
+        long delayMillis;
+        try {
+            long start = System.nanoTime();
+            int read = poll();
+            delayMillis = adapt(read, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            ProviderMetrics.counter("changeFeed.failures").increment();
+            logger.warnf(e, "Change feed %s failed, retrying in %d ms", consumer, maxIntervalMillis);
+            delayMillis = maxIntervalMillis;
+        }
+        schedule(delayMillis);
+    }
+
+    private void schedule(long delayMillis) {
+        if (closed) {
+            return;
+        }
+        try {
+            nextPoll = scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debugf("Change feed %s stopped, scheduler shut down", consumer);
+        }
+    }
+
+    /**
+     * Next poll delay after a batch of read rows (-1 when another node holds the feed)
+     */
+    private long adapt(int read, long elapsedMillis) {
+        if (read < 0) {
+            return maxIntervalMillis;
+        }
+        if (elapsedMillis > TARGET_BATCH_MILLIS) {
+            batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+        }
+        if (read >= batchSize) {
+            // Backlog: grow the batch and read on right away
+            if (elapsedMillis <= TARGET_BATCH_MILLIS) {
+                batchSize = Math.min(maxBatchSize, batchSize * 2);
+            }
+            idleIntervalMillis = MIN_INTERVAL_MILLIS;
+            return 0;
+        }
+        if (read > 0) {
+            if (read < batchSize / 4) {
+                batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+            }
+            idleIntervalMillis = MIN_INTERVAL_MILLIS;
+            return MIN_INTERVAL_MILLIS;
+        }
+        long delay = idleIntervalMillis;
+        idleIntervalMillis = Math.min(maxIntervalMillis, idleIntervalMillis * 2);
+        return delay;
+    }
+
+    /**
+     * Read, publish and checkpoint one batch
+     *
+     * @return number of rows published, -1 if another node holds the feed
+     */
+    int poll() throws Exception {
+        try (Connection conn = connectionManager.getBackgroundConnection()) {
+            if (!checkpointTableChecked) {
+                ensureCheckpointTable(conn);
+                checkpointTableChecked = true;
+            }
+            conn.setAutoCommit(false);
+            try {
+                if (!tryLock(conn)) {
+                    conn.rollback();
+                    return -1;
+                }
+                Checkpoint checkpoint = readCheckpoint(conn);
+                if (checkpoint == null) {
+                    startCheckpoint(conn);
+                    conn.commit();
+                    logger.infof("Change feed %s started at the current time", consumer);
+                    return 0;
+                }
+
+                List<ExternalUser> users = new ArrayList<>();
+                Timestamp lastUpdatedAt = null;
+                long lastId = 0;
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
+                        "created_at, updated_at FROM users WHERE updated_at >= ? AND (updated_at, id) > (?, ?) " +
+                        "AND updated_at <= LOCALTIMESTAMP - ? * INTERVAL '1 millisecond' " +
+                        "ORDER BY updated_at, id LIMIT ?")) {
+                    stmt.setTimestamp(1, checkpoint.updatedAt);
+                    stmt.setTimestamp(2, checkpoint.updatedAt);
+                    stmt.setLong(3, checkpoint.id);
+                    stmt.setLong(4, settleMillis);
+                    stmt.setInt(5, batchSize);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            ExternalUser user = JdbcUserRepository.mapResultSetToUser(rs);
+                            lastUpdatedAt = rs.getTimestamp("updated_at");
+                            lastId = user.getId();
+                            user.setId(userIds.applyAsLong(lastId));
+                            users.add(user);
+                        }
+                    }
+                }
+                if (users.isEmpty()) {
+                    conn.rollback();
+                    return 0;
+                }
+
+                sink.publish(users);
+                saveCheckpoint(conn, lastUpdatedAt, lastId);
+                conn.commit();
+                ProviderMetrics.counter("changeFeed.published").add(users.size());
+                logger.debugf("Change feed %s published %d users up to %s/%d", consumer, users.size(),
+                        lastUpdatedAt, lastId);
+                return users.size();
+            } catch (Exception e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Create the checkpoint table unless init-external-db.sql already did, which needs the
+     * CREATE privilege on the schema
+     */
+    private void ensureCheckpointTable(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            stmt.setString(1, CHECKPOINT_TABLE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next() && rs.getBoolean(1)) {
+                    return;
+                }
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_CHECKPOINT_TABLE);
+            logger.infof("Created %s", CHECKPOINT_TABLE);
+        }
+    }
+
+    private boolean tryLock(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_try_advisory_xact_lock(hashtext(?))")) {
+            stmt.setString(1, CHECKPOINT_TABLE + ":" + consumer);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * The consumer's high-water mark, null if it has none yet
+     */
+    private Checkpoint readCheckpoint(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT last_updated_at, last_id FROM " + CHECKPOINT_TABLE + " WHERE consumer = ?")) {
+            stmt.setString(1, consumer);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new Checkpoint(rs.getTimestamp(1), rs.getLong(2)) : null;
+            }
+        }
+    }
+
+    private void startCheckpoint(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO " + CHECKPOINT_TABLE + " (consumer, last_updated_at, last_id) " +
+                "VALUES (?, LOCALTIMESTAMP - ? * INTERVAL '1 millisecond', 0) ON CONFLICT (consumer) DO NOTHING")) {
+            stmt.setString(1, consumer);
+            stmt.setLong(2, settleMillis);
+            stmt.executeUpdate();
+        }
+    }
+
+    private void saveCheckpoint(Connection conn, Timestamp lastUpdatedAt, long lastId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "UPDATE " + CHECKPOINT_TABLE + " SET last_updated_at = ?, last_id = ?, " +
+                "checkpointed_at = CURRENT_TIMESTAMP WHERE consumer = ?")) {
+            stmt.setTimestamp(1, lastUpdatedAt);
+            stmt.setLong(2, lastId);
+            stmt.setString(3, consumer);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Position after the last published row
+     */
+    private static final class Checkpoint {
+        final Timestamp updatedAt;
+        final long id;
+
+        Checkpoint(Timestamp updatedAt, long id) {
+            this.updatedAt = updatedAt;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.keycloak.storage.changefeed;
+
+import com.example.keycloak.storage.model.ExternalUser;
+
+import java.util.List;
+
+/**
+ * Change Sink - receives batches of users inserted or updated in the external database,
+ * in (updated_at, id) order, on the change feed's scheduler thread.
+ *
+ * A batch is only checkpointed once publish returns, so throwing makes the feed deliver the
+ * same batch again later: sinks must tolerate duplicates. Other implementations can be
+ * plugged in by class name, they need a public no-argument constructor.
+ */
+public interface ChangeSink {
+
+    void publish(List<ExternalUser> users) throws Exception;
+
+    default void close() {
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.keycloak.storage.changefeed;
+
+import com.example.keycloak.storage.model.ExternalUser;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+
+/**
+ * Logging Change Sink - logs changed users, for trying out the change feed
+ */
+public class LoggingChangeSink implements ChangeSink {
+    private static final Logger logger = Logger.getLogger(LoggingChangeSink.class);
+
+    @Override
+    public void publish(List<ExternalUser> users) {
+        logger.infof("%d users changed", users.size());
+        for (ExternalUser user : users) {
+            logger.debugf("User changed: id=%d, username=%s, updated at %s",
+                    user.getId(), user.getUsername(), user.getUpdatedAt());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import org.jboss.logging.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit Breaker - stops calls to the database after consecutive connection failures.
+ * While open, calls fail fast; after the open period a single probe is let through and
+ * its outcome closes or re-opens the circuit.
+ */
+public class CircuitBreaker {
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class);
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongAdder openedCounter = ProviderMetrics.counter("circuit.opened");
+    private final LongAdder rejectedCounter = ProviderMetrics.counter("circuit.rejected");
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Whether a call may proceed, false while the circuit is open or a probe is running
+     */
+    public synchronized boolean allowRequest() {
+        // openedAt also marks the start of the probe, a probe that never reported back is replaced
+        if (state != State.CLOSED && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            openedAt = System.nanoTime();
+            logger.infof("Circuit for %s half-open, probing the database", name);
+            return true;
+        }
+        if (state != State.CLOSED) {
+            rejectedCounter.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.infof("Circuit for %s closed, database reachable again", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            logger.warnf("Circuit for %s open after %d consecutive failures", name, consecutiveFailures);
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            openedCounter.increment();
+        }
+    }
+
+    /**
+     * Whether the database is currently considered unreachable
+     */
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import org.jboss.logging.Logger;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency Limiter - adaptive limit on in-flight database work, driven by query latency
+ * (gradient algorithm). A short-term latency average is compared to a slowly moving
+ * baseline: while latency stays within the tolerance of the baseline the limit creeps up
+ * by a fraction of its square root per sample; when latency rises the limit moves towards
+ * limit * baseline / latency (never below half) by a fifth per sample, so it shrinks within
+ * a few queries. Failures cut the limit multiplicatively. Calls over the limit are rejected
+ * immediately rather than queued.
+ */
+public class ConcurrencyLimiter {
+    private static final Logger logger = Logger.getLogger(ConcurrencyLimiter.class);
+
+    // Latency up to this multiple of the baseline counts as stable
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double FAILURE_BACKOFF = 0.9;
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 500;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongAdder rejectedCounter = ProviderMetrics.counter("db.limiter.rejected");
+
+    private double limit;
+    private int inFlight;
+    private double shortRttNanos;
+    private double longRttNanos;
+
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+    }
+
+    /**
+     * Take an in-flight slot, false when the limit is reached
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejectedCounter.increment();
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    public synchronized void release() {
+        inFlight--;
+    }
+
+    /**
+     * Feed the latency of a completed query
+     */
+    public synchronized void onSample(long rttNanos) {
+        if (longRttNanos == 0) {
+            shortRttNanos = rttNanos;
+            longRttNanos = rttNanos;
+            return;
+        }
+        shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+        longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+        // After a sustained shift the baseline catches up faster, so a recovered
+        // database is not held back by the old (higher) baseline for long
+        if (longRttNanos > 2 * shortRttNanos) {
+            longRttNanos = (longRttNanos + shortRttNanos) / 2;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / shortRttNanos));
+        if (gradient == 1.0 && inFlight < limit / 2) {
+            // Not using the current limit, no evidence that a higher one would be safe
+            return;
+        }
+        double target = limit * gradient + Math.sqrt(limit);
+        update(limit * (1 - SMOOTHING) + target * SMOOTHING);
+    }
+
+    /**
+     * A query or connection attempt failed or timed out
+     */
+    public synchronized void onFailure() {
+        update(limit * FAILURE_BACKOFF);
+    }
+
+    private void update(double newLimit) {
+        int before = (int) limit;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if ((int) limit != before) {
+            logger.debugf("Concurrency limit for %s: %d -> %d (latency %.1f ms, baseline %.1f ms)", name,
+                    before, (int) limit, shortRttNanos / 1_000_000, longRttNanos / 1_000_000);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -1,41 +1,186 @@
 package com.example.keycloak.storage.database;
 
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import com.example.keycloak.storage.tracing.Span;
+import com.example.keycloak.storage.tracing.Tracer;
 import org.jboss.logging.Logger;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Database Connection Manager - handles connections to external user database
+ * Keeps a small pool of physical connections; closing a borrowed connection returns it to the pool
  */
 public class DatabaseConnectionManager {
     private static final Logger logger = Logger.getLogger(DatabaseConnectionManager.class);
 
+    public static final int DEFAULT_POOL_SIZE = 10;
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 5000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+    // Connections returned more recently are handed out without a validation round trip
+    private static final long VALIDATION_IDLE_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 10000;
+    private static final int MIN_CONCURRENCY_LIMIT = 2;
+
     private final String dbHost;
     private final String dbPort;
     private final String dbName;
     private final String dbUser;
     private final String dbPassword;
     private final String jdbcUrl;
+    private final int maxPoolSize;
+    private final Semaphore permits;
+    private final BlockingQueue<IdleConnection> idle;
+    private final CircuitBreaker circuitBreaker;
+    private volatile ConcurrencyLimiter limiter;
+    private volatile boolean closed;
 
     public DatabaseConnectionManager(String dbHost, String dbPort, String dbName,
                                     String dbUser, String dbPassword) {
+        this(dbHost, dbPort, dbName, dbUser, dbPassword, DEFAULT_POOL_SIZE);
+    }
+
+    public DatabaseConnectionManager(String dbHost, String dbPort, String dbName,
+                                    String dbUser, String dbPassword, int maxPoolSize) {
         this.dbHost = dbHost;
         this.dbPort = dbPort;
         this.dbName = dbName;
         this.dbUser = dbUser;
         this.dbPassword = dbPassword;
         this.jdbcUrl = String.format("jdbc:postgresql://%s:%s/%s", dbHost, dbPort, dbName);
+        this.maxPoolSize = maxPoolSize;
+        this.permits = new Semaphore(maxPoolSize, true);
+        this.idle = new LinkedBlockingQueue<>(maxPoolSize);
+        this.circuitBreaker = new CircuitBreaker(jdbcUrl, CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS);
+
+        logger.infof("Initializing database connection manager: %s (pool size %d)", jdbcUrl, maxPoolSize);
+    }
 
-        logger.infof("Initializing database connection manager: %s", jdbcUrl);
+    /**
+     * Limit connections in use by the latency of their queries instead of the pool size alone,
+     * the pool size becomes the upper bound of the limit
+     */
+    public void enableAdaptiveConcurrency(int initialLimit) {
+        String location = dbHost + ":" + dbPort + "/" + dbName;
+        limiter = new ConcurrencyLimiter(location, initialLimit, Math.min(MIN_CONCURRENCY_LIMIT, maxPoolSize),
+                maxPoolSize);
+        ProviderMetrics.gauge("db.concurrencyLimit." + location, limiter::getLimit);
+        ProviderMetrics.gauge("db.inFlight." + location, limiter::getInFlight);
+        logger.infof("Adaptive concurrency limit for %s starting at %d (max %d)", jdbcUrl, limiter.getLimit(),
+                maxPoolSize);
     }
 
     /**
-     * Get a database connection
+     * Get a database connection for a request
+     *
+     * @throws DatabaseUnavailableException if the circuit is open, the request is shed by the
+     *                                      concurrency limit or no pooled connection frees up in time
      */
     public Connection getConnection() throws SQLException {
+        return getConnection(limiter, true);
+    }
+
+    /**
+     * Get a connection for a long-running scan, exempt from the adaptive concurrency limit
+     * so that background work neither takes request slots nor skews the latency samples.
+     * An unavailable database is reported as a plain SQLException.
+     */
+    public Connection getBackgroundConnection() throws SQLException {
+        return getConnection(null, false);
+    }
+
+    private Connection getConnection(ConcurrencyLimiter slotLimiter, boolean request) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection manager is closed: " + jdbcUrl);
+        }
+        if (!circuitBreaker.allowRequest()) {
+            throw unavailable("Database circuit is open: " + jdbcUrl, request, null);
+        }
+        if (slotLimiter != null && !slotLimiter.tryAcquire()) {
+            throw unavailable("Database concurrency limit reached: " + jdbcUrl, request, null);
+        }
+        try (Span span = Tracer.startSpan("db.acquire")) {
+            span.attribute("db.idle", idle.size());
+            return acquire(slotLimiter, request);
+        } catch (SQLException | RuntimeException e) {
+            if (slotLimiter != null) {
+                slotLimiter.release();
+                if (e instanceof SQLException || e instanceof DatabaseUnavailableException) {
+                    slotLimiter.onFailure();
+                }
+            }
+            throw e;
+        }
+    }
+
+    private Connection acquire(ConcurrencyLimiter slotLimiter, boolean request) throws SQLException {
+        try {
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw unavailable("Timed out waiting for a pooled connection: " + jdbcUrl, request, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw unavailable("Interrupted waiting for a pooled connection", request, e);
+        }
+
+        try {
+            Connection connection = null;
+            IdleConnection candidate;
+            while (connection == null && (candidate = idle.poll()) != null) {
+                if (isUsable(candidate)) {
+                    connection = candidate.connection;
+                } else {
+                    closeQuietly(candidate.connection);
+                }
+            }
+            if (connection == null) {
+                connection = openConnection();
+            }
+            circuitBreaker.recordSuccess();
+            return pooled(connection, slotLimiter);
+        } catch (SQLException e) {
+            circuitBreaker.recordFailure();
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Requests fail with an unchecked exception so that repositories, which map SQLExceptions
+     * to "not found", let it through to the provider instead of failing the login as bad credentials
+     */
+    private static SQLException unavailable(String message, boolean request, Throwable cause) {
+        if (request) {
+            throw new DatabaseUnavailableException(message, cause);
+        }
+        return new SQLException(message, cause);
+    }
+
+    /**
+     * Whether connections currently fail fast because the database is unreachable
+     */
+    public boolean isCircuitOpen() {
+        return circuitBreaker.isOpen();
+    }
+
+    private Connection openConnection() throws SQLException {
         try {
             Class.forName("org.postgresql.Driver");
         } catch (ClassNotFoundException e) {
@@ -58,11 +203,126 @@ public class DatabaseConnectionManager {
         }
     }
 
+    /**
+     * Wrap a physical connection so that close() hands it back to the pool (and its
+     * limiter slot back to the limiter)
+     */
+    private Connection pooled(Connection physical, ConcurrencyLimiter slotLimiter) {
+        boolean[] released = {false};
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            synchronized (released) {
+                                if (!released[0]) {
+                                    released[0] = true;
+                                    release(physical);
+                                    if (slotLimiter != null) {
+                                        slotLimiter.release();
+                                    }
+                                }
+                            }
+                            return null;
+                        case "isClosed":
+                            if (released[0]) {
+                                return true;
+                            }
+                            break;
+                        case "unwrap":
+                            if (args[0] == Connection.class) {
+                                return physical;
+                            }
+                            break;
+                        case "prepareStatement":
+                            PreparedStatement statement = (PreparedStatement) invoke(physical, method, args);
+                            QueryCancellation.register(statement);
+                            if (slotLimiter != null || StatementInstrumentation.isEnabled()) {
+                                return StatementInstrumentation.instrument(statement, (String) args[0], this,
+                                        slotLimiter);
+                            }
+                            return statement;
+                        default:
+                            break;
+                    }
+                    return invoke(physical, method, args);
+                });
+    }
+
+    private static Object invoke(Connection physical, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(physical, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void release(Connection physical) {
+        try {
+            if (!closed && !physical.isClosed()) {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                if (idle.offer(new IdleConnection(physical, System.nanoTime()))) {
+                    return;
+                }
+            }
+            closeQuietly(physical);
+        } catch (SQLException e) {
+            logger.debugf("Discarding broken pooled connection: %s", e.getMessage());
+            closeQuietly(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * A connection idle only briefly is assumed usable, one idle longer (possibly dropped by
+     * the server or a firewall meanwhile) is checked with a round trip
+     */
+    private static boolean isUsable(IdleConnection candidate) {
+        if (System.nanoTime() - candidate.idleSince < VALIDATION_IDLE_NANOS) {
+            return true;
+        }
+        try {
+            return candidate.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing pooled connection", e);
+        }
+    }
+
+    /**
+     * Pre-open up to the given number of idle connections
+     *
+     * @return number of connections now idle in the pool
+     */
+    public int warmUp(int connections) {
+        List<Connection> borrowed = new ArrayList<>();
+        try {
+            for (int i = idle.size(); i < Math.min(connections, maxPoolSize); i++) {
+                borrowed.add(getConnection(limiter, false));
+            }
+        } catch (SQLException e) {
+            logger.warnf("Connection pool warm-up stopped after %d connections: %s", borrowed.size(), e.getMessage());
+        } finally {
+            borrowed.forEach(DatabaseConnectionManager::closeConnection);
+        }
+        return idle.size();
+    }
+
     /**
      * Test database connection
      */
     public boolean testConnection() {
-        try (Connection conn = getConnection()) {
+        try (Connection conn = getConnection(limiter, false)) {
             return conn != null && !conn.isClosed();
         } catch (SQLException e) {
             logger.errorf(e, "Database connection test failed");
@@ -83,7 +343,34 @@ public class DatabaseConnectionManager {
         }
     }
 
+    /**
+     * Close all idle connections; connections still borrowed are closed when returned
+     */
+    public void close() {
+        closed = true;
+        if (limiter != null) {
+            String location = dbHost + ":" + dbPort + "/" + dbName;
+            ProviderMetrics.removeGauge("db.concurrencyLimit." + location);
+            ProviderMetrics.removeGauge("db.inFlight." + location);
+        }
+        IdleConnection connection;
+        while ((connection = idle.poll()) != null) {
+            closeQuietly(connection.connection);
+        }
+        logger.infof("Closed connection pool: %s", jdbcUrl);
+    }
+
     public String getJdbcUrl() {
         return jdbcUrl;
     }
+
+    private static final class IdleConnection {
+        private final Connection connection;
+        private final long idleSince;
+
+        private IdleConnection(Connection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
 }
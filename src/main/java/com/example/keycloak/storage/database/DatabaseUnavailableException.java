@@ -0,0 +1,19 @@
+package com.example.keycloak.storage.database;
+
+import org.keycloak.models.ModelException;
+
+/**
+ * Thrown when a request cannot get a database connection because the circuit is open,
+ * the concurrency limit is reached or the pool timed out - the user store did not answer,
+ * which must not be mistaken for a missing user; the client should try again later
+ */
+public class DatabaseUnavailableException extends ModelException {
+
+    public DatabaseUnavailableException(String message) {
+        super(message);
+    }
+
+    public DatabaseUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
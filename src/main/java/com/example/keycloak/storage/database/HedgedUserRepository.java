@@ -0,0 +1,292 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.model.UserIndexEntry;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Hedged User Repository - single-user lookups (by id, username and email) go to the primary
+ * database; when it has not answered within its recent 95th percentile latency the same
+ * lookup is sent to a replica. The first user found wins and the other query is cancelled.
+ * An empty answer (no such user, or a failed read, which lookups do not tell apart) waits
+ * for the other one. Hedges are capped at a percentage of lookups so that a struggling
+ * database does not get twice the load. Replicas may lag the primary, so a hedged lookup
+ * can return a slightly older row. Everything else goes to the primary.
+ */
+public class HedgedUserRepository implements UserRepository {
+
+    private static final int LATENCY_WINDOW = 1024;
+    // No hedging until the primary's latency distribution is known
+    private static final int MIN_SAMPLES = 100;
+    private static final int RECALCULATE_EVERY = 64;
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final long MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // The budget is kept in hundredths of a percent of a hedge; unused budget
+    // accumulates up to a few hedges for short bursts of slowness
+    private static final long HEDGE_COST = 10_000;
+    private static final long MAX_CREDITS = 10 * HEDGE_COST;
+
+    private final UserRepository primary;
+    private final List<UserRepository> replicas;
+    private final ExecutorService executor;
+    private final long creditsPerLookup;
+    private final AtomicLong credits = new AtomicLong();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final LongAdder sentCounter = ProviderMetrics.counter("hedge.sent");
+    private final LongAdder wonCounter = ProviderMetrics.counter("hedge.won");
+    private final LongAdder budgetExhaustedCounter = ProviderMetrics.counter("hedge.budgetExhausted");
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long samples;
+    private volatile long hedgeDelayNanos = -1;
+
+    /**
+     * @param budgetPercent hedged lookups as a percentage of all lookups, at most
+     */
+    public HedgedUserRepository(UserRepository primary, List<UserRepository> replicas, ExecutorService executor,
+                                double budgetPercent) {
+        if (replicas.isEmpty()) {
+            throw new IllegalArgumentException("Hedged reads need at least one replica");
+        }
+        this.primary = primary;
+        this.replicas = List.copyOf(replicas);
+        this.executor = executor;
+        this.creditsPerLookup = Math.round(Math.max(0, Math.min(100, budgetPercent)) * HEDGE_COST / 100);
+    }
+
+    @Override
+    public ExternalUser findByUsername(String username) {
+        return lookup(repository -> repository.findByUsername(username));
+    }
+
+    @Override
+    public ExternalUser findByEmail(String email) {
+        return lookup(repository -> repository.findByEmail(email));
+    }
+
+    @Override
+    public ExternalUser findById(Long id) {
+        return lookup(repository -> repository.findById(id));
+    }
+
+    private ExternalUser lookup(Function<UserRepository, ExternalUser> query) {
+        credits.accumulateAndGet(creditsPerLookup, (current, earned) -> Math.min(MAX_CREDITS, current + earned));
+        long delay = hedgeDelayNanos;
+        if (delay < 0) {
+            long start = System.nanoTime();
+            ExternalUser user = query.apply(primary);
+            recordLatency(System.nanoTime() - start);
+            return user;
+        }
+
+        Attempt first = new Attempt(primary, query, true);
+        if (answered(first.future, delay) || !spendCredit()) {
+            return join(first.future);
+        }
+        sentCounter.increment();
+        Attempt hedge = new Attempt(replicas.get(Math.floorMod(nextReplica.getAndIncrement(), replicas.size())),
+                query, false);
+
+        CompletableFuture<ExternalUser> winner = new CompletableFuture<>();
+        first.future.whenComplete((user, error) -> settle(winner, user, error, first, hedge));
+        hedge.future.whenComplete((user, error) -> settle(winner, user, error, hedge, first));
+        try {
+            return join(winner);
+        } finally {
+            first.cancelIfRunning();
+            hedge.cancelIfRunning();
+        }
+    }
+
+    /**
+     * A found user settles the race; an empty answer or failure only once the other attempt
+     * has finished too, then with the primary's outcome
+     */
+    private void settle(CompletableFuture<ExternalUser> winner, ExternalUser user, Throwable error,
+                        Attempt attempt, Attempt other) {
+        if (error == null && user != null) {
+            if (winner.complete(user) && !attempt.primary) {
+                wonCounter.increment();
+            }
+        } else if (other.future.isDone()) {
+            Attempt first = attempt.primary ? attempt : other;
+            first.future.whenComplete((primaryUser, primaryError) -> {
+                if (primaryError != null) {
+                    winner.completeExceptionally(primaryError);
+                } else {
+                    winner.complete(primaryUser);
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait up to the hedge delay, true when the attempt completed in time
+     */
+    private static boolean answered(CompletableFuture<ExternalUser> future, long delayNanos) {
+        try {
+            future.get(delayNanos, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    private boolean spendCredit() {
+        long current;
+        do {
+            current = credits.get();
+            if (current < HEDGE_COST) {
+                budgetExhaustedCounter.increment();
+                return false;
+            }
+        } while (!credits.compareAndSet(current, current - HEDGE_COST));
+        return true;
+    }
+
+    private static ExternalUser join(CompletableFuture<ExternalUser> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Primary lookup latency, the hedge delay is recalculated from the window every few samples
+     */
+    private synchronized void recordLatency(long nanos) {
+        latencies[(int) (samples++ % LATENCY_WINDOW)] = nanos;
+        if (samples >= MIN_SAMPLES && samples % RECALCULATE_EVERY == 0) {
+            long[] sorted = Arrays.copyOf(latencies, (int) Math.min(samples, LATENCY_WINDOW));
+            Arrays.sort(sorted);
+            hedgeDelayNanos = Math.max(MIN_DELAY_NANOS, sorted[(int) (HEDGE_PERCENTILE * (sorted.length - 1))]);
+        }
+    }
+
+    private final class Attempt {
+        private final boolean primary;
+        private final long start = System.nanoTime();
+        private final QueryCancellation cancellation = new QueryCancellation();
+        private final CompletableFuture<ExternalUser> future;
+
+        private Attempt(UserRepository repository, Function<UserRepository, ExternalUser> query, boolean primary) {
+            this.primary = primary;
+            this.future = CompletableFuture.supplyAsync(() -> run(repository, query), executor);
+        }
+
+        private ExternalUser run(UserRepository repository, Function<UserRepository, ExternalUser> query) {
+            ExternalUser user = cancellation.run(() -> query.apply(repository));
+            if (primary && !cancellation.isCancelled()) {
+                recordLatency(System.nanoTime() - start);
+            }
+            return user;
+        }
+
+        private void cancelIfRunning() {
+            if (!future.isDone()) {
+                cancellation.cancel();
+                if (primary) {
+                    // A slow primary that lost still counts, at least as long as it has taken so far
+                    recordLatency(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<ExternalUser> findByIds(Collection<Long> ids) {
+        return primary.findByIds(ids);
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(String searchTerm, int firstResult, int maxResults) {
+        return primary.searchUsers(searchTerm, firstResult, maxResults);
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults) {
+        return primary.searchUsers(criteria, firstResult, maxResults);
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults,
+                                          IntConsumer total) {
+        return primary.searchUsers(criteria, firstResult, maxResults, total);
+    }
+
+    @Override
+    public int countUsers(UserSearchCriteria criteria) {
+        return primary.countUsers(criteria);
+    }
+
+    @Override
+    public List<ExternalUser> getAllUsers(int firstResult, int maxResults) {
+        return primary.getAllUsers(firstResult, maxResults);
+    }
+
+    @Override
+    public int loadRecentlyUpdated(int limit, int timeoutSeconds, Predicate<ExternalUser> consumer) {
+        return primary.loadRecentlyUpdated(limit, timeoutSeconds, consumer);
+    }
+
+    @Override
+    public int forEachIndexEntry(long updatedSince, Consumer<UserIndexEntry> consumer) throws SQLException {
+        return primary.forEachIndexEntry(updatedSince, consumer);
+    }
+
+    @Override
+    public int getUsersCount() {
+        return primary.getUsersCount();
+    }
+
+    @Override
+    public void applyUpdates(Collection<UserUpdate> updates) throws SQLException {
+        primary.applyUpdates(updates);
+    }
+
+    @Override
+    public boolean updatePasswordHash(Long id, String passwordHash) {
+        return primary.updatePasswordHash(id, passwordHash);
+    }
+
+    @Override
+    public boolean replacePasswordHash(Long id, String expectedHash, String newHash) {
+        return primary.replacePasswordHash(id, expectedHash, newHash);
+    }
+
+    @Override
+    public boolean deleteUser(Long id) {
+        return primary.deleteUser(id);
+    }
+}
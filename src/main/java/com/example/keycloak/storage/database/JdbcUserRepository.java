@@ -0,0 +1,511 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.model.UserIndexEntry;
+import org.jboss.logging.Logger;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * JDBC User Repository - handles database operations for external users over JDBC
+ */
+public class JdbcUserRepository implements UserRepository {
+    private static final Logger logger = Logger.getLogger(JdbcUserRepository.class);
+
+    private final DatabaseConnectionManager connectionManager;
+    private final KeyNormalization keyNormalization;
+    private volatile String usernameOrder = "username";
+
+    public JdbcUserRepository(DatabaseConnectionManager connectionManager) {
+        this(connectionManager, KeyNormalization.EXACT);
+    }
+
+    public JdbcUserRepository(DatabaseConnectionManager connectionManager, KeyNormalization keyNormalization) {
+        this.connectionManager = connectionManager;
+        this.keyNormalization = keyNormalization;
+    }
+
+    /**
+     * Order listings by username under the "C" collation, i.e. by code point, whatever the
+     * database's default collation: the order ShardedUserRepository merges shard pages in.
+     * Without an index on (username COLLATE "C") such listings sort the matching rows.
+     */
+    public void setBinaryUsernameOrder(boolean binary) {
+        usernameOrder = binary ? "username COLLATE \"C\"" : "username";
+    }
+
+    /**
+     * Find user by username
+     */
+    @Override
+    public ExternalUser findByUsername(String username) {
+        return findByKey("username", username);
+    }
+
+    /**
+     * Find user by email
+     */
+    @Override
+    public ExternalUser findByEmail(String email) {
+        return findByKey("email", email);
+    }
+
+    /**
+     * Find user by normalized username or email. Without a unique index on the normalized
+     * column two rows can differ only by case, then only an exact match is returned.
+     */
+    private ExternalUser findByKey(String column, String key) {
+        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
+                    "created_at, updated_at FROM users WHERE " + keyNormalization.column(column) + " = ? LIMIT 2";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, keyNormalization.apply(key));
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                ExternalUser user = mapResultSetToUser(rs);
+                if (!rs.next()) {
+                    return user;
+                }
+                ExternalUser other = mapResultSetToUser(rs);
+                logger.warnf("Users %d and %d share the %s %s ignoring case", user.getId(), other.getId(), column, key);
+                return matchesExactly(user, column, key) ? user : matchesExactly(other, column, key) ? other : null;
+            }
+        } catch (SQLException e) {
+            if (QueryCancellation.isCurrentCancelled()) {
+                logger.debugf("Lookup of user by %s cancelled: %s", column, key);
+            } else {
+                logger.errorf(e, "Error finding user by %s: %s", column, key);
+            }
+        }
+        return null;
+    }
+
+    static boolean matchesExactly(ExternalUser user, String column, String key) {
+        return key.equals(column.equals("username") ? user.getUsername() : user.getEmail());
+    }
+
+    /**
+     * Find user by ID
+     */
+    @Override
+    public ExternalUser findById(Long id) {
+        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
+                    "created_at, updated_at FROM users WHERE id = ?";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapResultSetToUser(rs);
+                }
+            }
+        } catch (SQLException e) {
+            if (QueryCancellation.isCurrentCancelled()) {
+                logger.debugf("Lookup of user by id cancelled: %s", id);
+            } else {
+                logger.errorf(e, "Error finding user by id: %s", id);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find users by ID in a single round trip
+     */
+    @Override
+    public List<ExternalUser> findByIds(Collection<Long> ids) {
+        List<ExternalUser> users = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return users;
+        }
+        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
+                    "created_at, updated_at FROM users WHERE id = ANY(?)";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setArray(1, conn.createArrayOf("bigint", ids.toArray()));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(mapResultSetToUser(rs));
+                }
+            }
+        } catch (SQLException e) {
+            logger.errorf(e, "Error finding %d users by id", ids.size());
+        }
+        return users;
+    }
+
+    /**
+     * Search users by username or email
+     */
+    @Override
+    public List<ExternalUser> searchUsers(String searchTerm, int firstResult, int maxResults) {
+        List<ExternalUser> users = new ArrayList<>();
+        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
+                    "created_at, updated_at FROM users WHERE username ILIKE ? OR email ILIKE ? " +
+                    "ORDER BY " + usernameOrder + " LIMIT ? OFFSET ?";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            String searchPattern = "%" + searchTerm + "%";
+            stmt.setString(1, searchPattern);
+            stmt.setString(2, searchPattern);
+            stmt.setInt(3, maxResults);
+            stmt.setInt(4, firstResult);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(mapResultSetToUser(rs));
+                }
+            }
+        } catch (SQLException e) {
+            logger.errorf(e, "Error searching users with term: %s", searchTerm);
+        }
+        return users;
+    }
+
+    /**
+     * Search users matching all criteria in a single query
+     */
+    @Override
+    public List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults) {
+        return searchUsers(criteria, firstResult, maxResults, null);
+    }
+
+    /**
+     * Search users matching all criteria, counting the matches in the same query with a window
+     * aggregate when a total consumer is given. The count makes the query visit every match,
+     * not just the page, so callers only ask for it when they need the total anyway.
+     */
+    @Override
+    public List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults,
+                                          IntConsumer total) {
+        List<ExternalUser> users = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
+                    "created_at, updated_at" + (total != null ? ", COUNT(*) OVER () AS total_matches" : "") +
+                    " FROM users WHERE " + criteria.toSql(params) +
+                    " ORDER BY " + usernameOrder + " LIMIT ? OFFSET ?";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            for (Object param : params) {
+                stmt.setObject(index++, param);
+            }
+            stmt.setInt(index++, maxResults);
+            stmt.setInt(index, firstResult);
+
+            int matches = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(mapResultSetToUser(rs));
+                    if (total != null) {
+                        matches = rs.getInt("total_matches");
+                    }
+                }
+            }
+            // An empty page past the first says nothing about the total
+            if (total != null && (!users.isEmpty() || firstResult == 0)) {
+                total.accept(matches);
+            }
+        } catch (SQLException e) {
+            logger.errorf(e, "Error searching users with %s", criteria);
+        }
+        return users;
+    }
+
+    /**
+     * Count the users matching all criteria
+     */
+    @Override
+    public int countUsers(UserSearchCriteria criteria) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM users WHERE " + criteria.toSql(params);
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            for (Object param : params) {
+                stmt.setObject(index++, param);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            logger.errorf(e, "Error counting users with %s", criteria);
+        }
+        return 0;
+    }
+
+    /**
+     * Get all users with pagination
+     */
+    @Override
+    public List<ExternalUser> getAllUsers(int firstResult, int maxResults) {
+        List<ExternalUser> users = new ArrayList<>();
+        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
+                    "created_at, updated_at FROM users ORDER BY " + usernameOrder + " LIMIT ? OFFSET ?";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, maxResults);
+            stmt.setInt(2, firstResult);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(mapResultSetToUser(rs));
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Error getting all users", e);
+        }
+        return users;
+    }
+
+    /**
+     * Stream the most recently updated users to the consumer until it returns false
+     *
+     * @return number of users delivered
+     */
+    @Override
+    public int loadRecentlyUpdated(int limit, int timeoutSeconds, Predicate<ExternalUser> consumer) {
+        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
+                    "created_at, updated_at FROM users ORDER BY updated_at DESC NULLS LAST LIMIT ?";
+        int loaded = 0;
+
+        try (Connection conn = connectionManager.getBackgroundConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, limit);
+            stmt.setQueryTimeout(timeoutSeconds);
+            stmt.setFetchSize(Math.min(limit, 500));
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    loaded++;
+                    if (!consumer.test(mapResultSetToUser(rs))) {
+                        break;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.errorf(e, "Error loading recently updated users");
+        }
+        return loaded;
+    }
+
+    /**
+     * Stream the lookup columns of users updated at or after the given time
+     * (epoch millis, Long.MIN_VALUE for all users) through a server-side cursor
+     *
+     * @return number of entries delivered
+     */
+    @Override
+    public int forEachIndexEntry(long updatedSince, Consumer<UserIndexEntry> consumer) throws SQLException {
+        boolean all = updatedSince == Long.MIN_VALUE;
+        String sql = "SELECT id, username, email, enabled, updated_at FROM users" +
+                    (all ? "" : " WHERE updated_at >= ?") + " ORDER BY id";
+        int count = 0;
+
+        try (Connection conn = connectionManager.getBackgroundConnection()) {
+            // PostgreSQL only honours the fetch size inside a transaction
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                if (!all) {
+                    stmt.setTimestamp(1, new Timestamp(updatedSince));
+                }
+                stmt.setFetchSize(1000);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Timestamp updatedAt = rs.getTimestamp("updated_at");
+                        consumer.accept(new UserIndexEntry(rs.getLong("id"), rs.getString("username"),
+                                rs.getString("email"), rs.getBoolean("enabled"),
+                                updatedAt != null ? updatedAt.getTime() : 0L));
+                        count++;
+                    }
+                }
+            } finally {
+                conn.rollback();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get total user count
+     */
+    @Override
+    public int getUsersCount() {
+        String sql = "SELECT COUNT(*) FROM users";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            logger.error("Error counting users", e);
+        }
+        return 0;
+    }
+
+    /**
+     * Apply coalesced user updates in a single transaction.
+     * Updates touching the same set of columns share one JDBC batch.
+     */
+    @Override
+    public void applyUpdates(Collection<UserUpdate> updates) throws SQLException {
+        Map<Set<UserField>, List<UserUpdate>> batches = new LinkedHashMap<>();
+        for (UserUpdate update : updates) {
+            if (!update.isEmpty()) {
+                batches.computeIfAbsent(EnumSet.copyOf(update.getDirtyFields()), k -> new ArrayList<>()).add(update);
+            }
+        }
+        if (batches.isEmpty()) {
+            return;
+        }
+
+        try (Connection conn = connectionManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<Set<UserField>, List<UserUpdate>> batch : batches.entrySet()) {
+                    executeUpdateBatch(conn, batch.getKey(), batch.getValue());
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        logger.debugf("Flushed %d user updates in %d batches", updates.size(), batches.size());
+    }
+
+    private void executeUpdateBatch(Connection conn, Set<UserField> fields, List<UserUpdate> updates)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder("UPDATE users SET ");
+        for (UserField field : fields) {
+            sql.append(field.getColumn()).append(" = ?, ");
+        }
+        sql.append("updated_at = CURRENT_TIMESTAMP WHERE id = ?");
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (UserUpdate update : updates) {
+                int index = 1;
+                for (UserField field : fields) {
+                    stmt.setObject(index++, toJdbcValue(update.getValues().get(field)));
+                }
+                stmt.setLong(index, update.getUserId());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static Object toJdbcValue(Object value) {
+        if (value instanceof java.util.Date && !(value instanceof Timestamp)) {
+            return new Timestamp(((java.util.Date) value).getTime());
+        }
+        return value;
+    }
+
+    /**
+     * Store a new password hash for the user
+     */
+    @Override
+    public boolean updatePasswordHash(Long id, String passwordHash) {
+        String sql = "UPDATE users SET password_hash = ?, updated_at = CURRENT_TIMESTAMP WHERE id = ?";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, passwordHash);
+            stmt.setLong(2, id);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            logger.errorf(e, "Error updating password for user id: %s", id);
+        }
+        return false;
+    }
+
+    /**
+     * Replace the password hash only if it still matches the expected one,
+     * so a concurrent password change is never overwritten by an upgrade
+     */
+    @Override
+    public boolean replacePasswordHash(Long id, String expectedHash, String newHash) {
+        String sql = "UPDATE users SET password_hash = ? WHERE id = ? AND password_hash = ?";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, newHash);
+            stmt.setLong(2, id);
+            stmt.setString(3, expectedHash);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            logger.errorf(e, "Error replacing password hash for user id: %s", id);
+        }
+        return false;
+    }
+
+    /**
+     * Delete user by ID
+     */
+    @Override
+    public boolean deleteUser(Long id) {
+        String sql = "DELETE FROM users WHERE id = ?";
+
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, id);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            logger.errorf(e, "Error deleting user by id: %s", id);
+        }
+        return false;
+    }
+
+    /**
+     * Map ResultSet to ExternalUser object
+     */
+    public static ExternalUser mapResultSetToUser(ResultSet rs) throws SQLException {
+        ExternalUser user = new ExternalUser();
+        user.setId(rs.getLong("id"));
+        user.setUsername(rs.getString("username"));
+        user.setEmail(rs.getString("email"));
+        user.setFirstName(rs.getString("first_name"));
+        user.setLastName(rs.getString("last_name"));
+        user.setPasswordHash(rs.getString("password_hash"));
+        user.setEnabled(rs.getBoolean("enabled"));
+        user.setCreatedAt(rs.getTimestamp("created_at"));
+        user.setUpdatedAt(rs.getTimestamp("updated_at"));
+        return user;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.keycloak.storage.database;
+
+import java.util.Locale;
+
+/**
+ * Key Normalization - how usernames and emails are compared by lookups. Repositories,
+ * caches and the user index all key on the same normalized form, so a lookup costs the
+ * same single index seek whatever the casing of the input.
+ */
+public enum KeyNormalization {
+    /** compare as stored, served by the unique username and email indexes */
+    EXACT,
+    /**
+     * compare lower-cased, served by the lower(username) and lower(email) indexes.
+     * Keys are lower-cased in Java (root locale), which agrees with PostgreSQL's lower()
+     * for ASCII and, on databases with a UTF-8 LC_CTYPE, for other letters too.
+     */
+    LOWER_CASE;
+
+    /**
+     * Normalized form of a username or email, null stays null
+     */
+    public String apply(String key) {
+        return this == LOWER_CASE && key != null ? key.toLowerCase(Locale.ROOT) : key;
+    }
+
+    /**
+     * SQL expression comparable to a normalized key
+     */
+    public String column(String column) {
+        return this == LOWER_CASE ? "lower(" + column + ")" : column;
+    }
+}
@@ -1,130 +1,91 @@
 package com.example.keycloak.storage.database;
 
+import com.example.keycloak.storage.password.Argon2PasswordVerifier;
+import com.example.keycloak.storage.password.BCryptPasswordVerifier;
+import com.example.keycloak.storage.password.Pbkdf2PasswordVerifier;
+import com.example.keycloak.storage.password.PasswordVerifier;
+import com.example.keycloak.storage.password.PasswordVerifierRegistry;
+import com.example.keycloak.storage.password.PlainTextPasswordVerifier;
+import com.example.keycloak.storage.password.Sha256PasswordVerifier;
 import org.jboss.logging.Logger;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.Base64;
-
 /**
  * Password Hasher - handles password hashing and verification
- * Supports both BCrypt and SHA-256 for compatibility with existing systems
+ * Supports BCrypt, PBKDF2, Argon2id and legacy SHA-256/plain text hashes,
+ * picked by hash prefix through a PasswordVerifierRegistry
  */
 public class PasswordHasher {
     private static final Logger logger = Logger.getLogger(PasswordHasher.class);
-    private static final String BCRYPT_PREFIX = "$2a$";
-    private static final String SHA256_PREFIX = "{SHA256}";
+
+    public static final String DEFAULT_ALGORITHM = "pbkdf2";
+
+    private static volatile PasswordVerifierRegistry registry = createRegistry(DEFAULT_ALGORITHM,
+            BCryptPasswordVerifier.DEFAULT_COST, Pbkdf2PasswordVerifier.DEFAULT_ITERATIONS,
+            Argon2PasswordVerifier.DEFAULT_MEMORY_KB, Argon2PasswordVerifier.DEFAULT_ITERATIONS,
+            Argon2PasswordVerifier.DEFAULT_PARALLELISM);
 
     /**
-     * Verify password against hash
+     * Select the algorithm and cost parameters used for new hashes
      */
-    public static boolean verifyPassword(String plainPassword, String hashedPassword) {
-        if (plainPassword == null || hashedPassword == null) {
-            return false;
-        }
+    public static void configure(String algorithm, int bcryptCost, int pbkdf2Iterations,
+                                 int argon2MemoryKb, int argon2Iterations, int argon2Parallelism) {
+        registry = createRegistry(algorithm, bcryptCost, pbkdf2Iterations,
+                argon2MemoryKb, argon2Iterations, argon2Parallelism);
+    }
 
-        try {
-            if (hashedPassword.startsWith(BCRYPT_PREFIX)) {
-                return verifyBCrypt(plainPassword, hashedPassword);
-            } else if (hashedPassword.startsWith(SHA256_PREFIX)) {
-                return verifySHA256(plainPassword, hashedPassword);
-            } else {
-                // Try direct comparison for plain text (development only)
-                logger.warn("Plain text password detected - not secure for production!");
-                return plainPassword.equals(hashedPassword);
-            }
-        } catch (Exception e) {
-            logger.error("Error verifying password", e);
-            return false;
-        }
+    public static PasswordVerifierRegistry createRegistry(String algorithm, int bcryptCost, int pbkdf2Iterations,
+                                                          int argon2MemoryKb, int argon2Iterations,
+                                                          int argon2Parallelism) {
+        PasswordVerifierRegistry registry = new PasswordVerifierRegistry(new PlainTextPasswordVerifier())
+                .register(new BCryptPasswordVerifier(bcryptCost))
+                .register(new Pbkdf2PasswordVerifier(pbkdf2Iterations))
+                .register(new Argon2PasswordVerifier(argon2MemoryKb, argon2Iterations, argon2Parallelism))
+                .register(new Sha256PasswordVerifier());
+        registry.setCurrent(algorithm);
+        return registry;
     }
 
     /**
-     * Verify BCrypt password (using simple BCrypt implementation)
+     * Verify password against hash
      */
-    private static boolean verifyBCrypt(String plainPassword, String hashedPassword) {
-        try {
-            // For production, use a proper BCrypt library like jBCrypt or Spring Security BCrypt
-            // This is a simplified version for POC
-            return BCryptSimple.checkpw(plainPassword, hashedPassword);
-        } catch (Exception e) {
-            logger.error("BCrypt verification failed", e);
+    public static boolean verifyPassword(String plainPassword, String hashedPassword) {
+        if (plainPassword == null || hashedPassword == null) {
             return false;
         }
-    }
 
-    /**
-     * Verify SHA-256 password
-     */
-    private static boolean verifySHA256(String plainPassword, String hashedPassword) {
+        PasswordVerifier verifier = registry.resolve(hashedPassword);
         try {
-            String computedHash = hashWithSHA256(plainPassword);
-            return hashedPassword.equals(computedHash);
+            return verifier.verify(plainPassword, hashedPassword);
         } catch (Exception e) {
-            logger.error("SHA-256 verification failed", e);
+            logger.errorf(e, "Error verifying %s password", verifier.getId());
             return false;
         }
     }
 
     /**
-     * Hash password with SHA-256
+     * Whether a stored hash uses a legacy format or a different algorithm, or weaker
+     * parameters than the current one, and should be upgraded
      */
-    public static String hashWithSHA256(String password) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(password.getBytes());
-            String encoded = Base64.getEncoder().encodeToString(hash);
-            return SHA256_PREFIX + encoded;
-        } catch (NoSuchAlgorithmException e) {
-            logger.error("SHA-256 algorithm not found", e);
-            throw new RuntimeException(e);
+    public static boolean needsRehash(String hashedPassword) {
+        if (hashedPassword == null) {
+            return true;
         }
+        PasswordVerifierRegistry current = registry;
+        PasswordVerifier verifier = current.resolve(hashedPassword);
+        return verifier != current.getCurrent() || verifier.needsRehash(hashedPassword);
     }
 
     /**
-     * Simplified BCrypt implementation for POC
-     * In production, use org.mindrot.jbcrypt.BCrypt or similar library
+     * Hash password with SHA-256
      */
-    private static class BCryptSimple {
-        public static boolean checkpw(String plaintext, String hashed) {
-            // Simplified BCrypt check - in production use proper BCrypt library
-            // For POC, we'll use SHA-256 as fallback
-            try {
-                // Extract salt from hashed password (BCrypt format: $2a$rounds$salt+hash)
-                String[] parts = hashed.split("\\$");
-                if (parts.length < 4) {
-                    return false;
-                }
-
-                // For POC: simple comparison (replace with proper BCrypt in production)
-                String testHash = hashSimple(plaintext, parts[3].substring(0, 22));
-                return hashed.equals(testHash);
-            } catch (Exception e) {
-                logger.error("BCrypt check failed", e);
-                return false;
-            }
-        }
-
-        private static String hashSimple(String password, String salt) {
-            try {
-                MessageDigest md = MessageDigest.getInstance("SHA-256");
-                md.update(salt.getBytes());
-                byte[] hash = md.digest(password.getBytes());
-                String encoded = Base64.getEncoder().encodeToString(hash);
-                return "$2a$10$" + salt + encoded.substring(0, 31);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-        }
+    public static String hashWithSHA256(String password) {
+        return registry.get("sha256").hash(password);
     }
 
     /**
-     * Generate BCrypt hash (for testing/setup)
+     * Hash password with the current algorithm
      */
     public static String hashPassword(String password) {
-        // For POC, use SHA-256
-        // In production, replace with proper BCrypt
-        return hashWithSHA256(password);
+        return registry.getCurrent().hash(password);
     }
 }
@@ -0,0 +1,71 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.model.ExternalUser;
+import org.jboss.logging.Logger;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Password Rehash Service - upgrades legacy password hashes after a successful login.
+ * Hashing and the write run on a small bounded executor so the login response
+ * is never delayed; when the queue is full the upgrade is simply retried on a later login.
+ */
+public class PasswordRehashService {
+    private static final Logger logger = Logger.getLogger(PasswordRehashService.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    public PasswordRehashService(int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "external-user-rehash-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue an upgrade of the user's password hash to the current algorithm
+     *
+     * @param onUpgraded run after the new hash is stored, e.g. to invalidate cached copies
+     */
+    public void submit(UserRepository userRepository, ExternalUser user, String password, Runnable onUpgraded) {
+        Long userId = user.getId();
+        String currentHash = user.getPasswordHash();
+        if (!inFlight.add(userId)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    String newHash = PasswordHasher.hashPassword(password);
+                    if (userRepository.replacePasswordHash(userId, currentHash, newHash)) {
+                        onUpgraded.run();
+                        logger.debugf("Upgraded password hash for user: %s", user.getUsername());
+                    }
+                } catch (RuntimeException e) {
+                    logger.errorf(e, "Failed to upgrade password hash for user: %s", user.getUsername());
+                } finally {
+                    inFlight.remove(userId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(userId);
+            logger.debugf("Rehash queue full, skipping upgrade for user: %s", user.getUsername());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import com.example.keycloak.storage.tracing.Span;
+import com.example.keycloak.storage.tracing.Tracer;
+import org.jboss.logging.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Password Verification Engine - runs password hash verification on a dedicated pool
+ * sized to the available cores, so login bursts cannot starve Keycloak worker threads.
+ *
+ * Admission is cost-aware: the expected wait is estimated from the queue depth and
+ * the moving average hash time, and requests that cannot finish before their deadline
+ * are shed immediately instead of queueing work nobody will wait for.
+ */
+public class PasswordVerificationEngine {
+    private static final Logger logger = Logger.getLogger(PasswordVerificationEngine.class);
+    private static final String TRY_LATER = "Password verification is overloaded, please try again later";
+
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final long deadlineNanos;
+    private volatile long averageHashNanos;
+
+    private final ProviderMetrics.Timer hashTime = ProviderMetrics.timer("verification.hashTime");
+    private final LongAdder rejected = ProviderMetrics.counter("verification.rejected");
+    private final LongAdder timedOut = ProviderMetrics.counter("verification.timedOut");
+
+    public PasswordVerificationEngine(int threads, int queueCapacity, long deadlineMillis) {
+        this.threads = threads;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "external-user-verify-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        ProviderMetrics.gauge("verification.queueDepth", () -> executor.getQueue().size());
+        ProviderMetrics.gauge("verification.active", executor::getActiveCount);
+        logger.infof("Password verification engine started: %d threads, queue %d, deadline %dms",
+                threads, queueCapacity, deadlineMillis);
+    }
+
+    /**
+     * Verify a password on the engine pool, waiting at most for the configured deadline
+     *
+     * @throws PasswordVerificationRejectedException when the request is shed or the deadline expires
+     */
+    public boolean verify(String plainPassword, String hashedPassword) {
+        try (Span span = Tracer.startSpan("password.verify")) {
+            span.attribute("verification.queueDepth", executor.getQueue().size());
+            return verify(plainPassword, hashedPassword, span);
+        }
+    }
+
+    private boolean verify(String plainPassword, String hashedPassword, Span span) {
+        long start = System.nanoTime();
+        long deadline = start + deadlineNanos;
+
+        long expectedWait = (executor.getQueue().size() / threads + 1) * averageHashNanos;
+        if (expectedWait > deadlineNanos) {
+            span.attribute("verification.shed", true);
+            rejected.increment();
+            throw new PasswordVerificationRejectedException(TRY_LATER);
+        }
+
+        Future<Boolean> result;
+        long[] hashNanos = new long[2];
+        try {
+            result = executor.submit(() -> {
+                if (System.nanoTime() > deadline) {
+                    // Caller has already given up, skip the expensive hash
+                    return false;
+                }
+                long hashStart = System.nanoTime();
+                try {
+                    return PasswordHasher.verifyPassword(plainPassword, hashedPassword);
+                } finally {
+                    hashNanos[0] = hashStart - start;
+                    hashNanos[1] = System.nanoTime() - hashStart;
+                    recordHashTime(hashNanos[1]);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new PasswordVerificationRejectedException(TRY_LATER);
+        }
+
+        try {
+            boolean verified = result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            // Written by the pool thread before the result, visible after get()
+            span.attribute("verification.waitMillis", hashNanos[0] / 1_000_000.0)
+                    .attribute("verification.hashMillis", hashNanos[1] / 1_000_000.0);
+            return verified;
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            timedOut.increment();
+            throw new PasswordVerificationRejectedException(TRY_LATER);
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordVerificationRejectedException(TRY_LATER);
+        } catch (ExecutionException e) {
+            logger.error("Error verifying password", e.getCause());
+            return false;
+        }
+    }
+
+    private void recordHashTime(long nanos) {
+        hashTime.record(nanos);
+        // Exponential moving average, racy updates are acceptable for an estimate
+        long average = averageHashNanos;
+        averageHashNanos = average == 0 ? nanos : average + (nanos - average) / 8;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        ProviderMetrics.removeGauge("verification.queueDepth");
+        ProviderMetrics.removeGauge("verification.active");
+    }
+}
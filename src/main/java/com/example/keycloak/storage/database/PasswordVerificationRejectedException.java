@@ -0,0 +1,14 @@
+package com.example.keycloak.storage.database;
+
+import org.keycloak.models.ModelException;
+
+/**
+ * Thrown when password verification is shed because the verification engine
+ * is saturated or the request deadline expired - the client should try again later
+ */
+public class PasswordVerificationRejectedException extends ModelException {
+
+    public PasswordVerificationRejectedException(String message) {
+        super(message);
+    }
+}
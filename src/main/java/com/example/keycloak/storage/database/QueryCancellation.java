@@ -0,0 +1,80 @@
+package com.example.keycloak.storage.database;
+
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Query Cancellation - lets another thread cancel the database work of a task. Statements
+ * prepared on pooled connections by a thread running inside a scope are registered with it;
+ * cancel() sends a cancel request for those still executing and makes later ones fail.
+ */
+final class QueryCancellation {
+    private static final Logger logger = Logger.getLogger(QueryCancellation.class);
+    // SQLSTATE PostgreSQL reports for a query cancelled on request
+    private static final String QUERY_CANCELED = "57014";
+
+    private static final ThreadLocal<QueryCancellation> current = new ThreadLocal<>();
+
+    private final List<Statement> statements = new ArrayList<>(1);
+    private boolean cancelled;
+
+    /**
+     * Run the task with this scope as the current one of the calling thread
+     */
+    <T> T run(Supplier<T> task) {
+        current.set(this);
+        try {
+            return task.get();
+        } finally {
+            current.remove();
+        }
+    }
+
+    /**
+     * Register a statement with the scope of the calling thread, if any
+     */
+    static void register(Statement statement) throws SQLException {
+        QueryCancellation scope = current.get();
+        if (scope != null) {
+            scope.add(statement);
+        }
+    }
+
+    /**
+     * Whether the calling thread runs inside a cancelled scope, its failures are expected then
+     */
+    static boolean isCurrentCancelled() {
+        QueryCancellation scope = current.get();
+        return scope != null && scope.isCancelled();
+    }
+
+    private synchronized void add(Statement statement) throws SQLException {
+        if (cancelled) {
+            statement.close();
+            throw new SQLException("Query cancelled", QUERY_CANCELED);
+        }
+        statements.add(statement);
+    }
+
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    synchronized void cancel() {
+        cancelled = true;
+        for (Statement statement : statements) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                // Already completed or closed
+                logger.debugf("Could not cancel statement: %s", e.getMessage());
+            }
+        }
+        statements.clear();
+    }
+}
@@ -0,0 +1,536 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.model.UserIndexEntry;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.PgException;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.Cursor;
+import io.vertx.sqlclient.Pool;
+import io.vertx.sqlclient.PoolOptions;
+import io.vertx.sqlclient.PreparedStatement;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.SqlClient;
+import io.vertx.sqlclient.SqlConnection;
+import io.vertx.sqlclient.Transaction;
+import io.vertx.sqlclient.Tuple;
+import org.jboss.logging.Logger;
+
+import java.lang.annotation.Annotation;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Reactive User Repository - the same queries as {@link JdbcUserRepository} on the
+ * non-blocking Vert.x PostgreSQL client. Queries are pipelined over a few connections
+ * driven by the Keycloak server's Vert.x event loops, or by a small Vert.x instance of
+ * its own outside the server. The *Async lookups never block; the UserRepository methods
+ * wait for the result on the calling thread and, like the JDBC path, throw
+ * {@link DatabaseUnavailableException} when the database does not answer.
+ */
+public class ReactiveUserRepository implements UserRepository {
+    private static final Logger logger = Logger.getLogger(ReactiveUserRepository.class);
+
+    private static final String USER_COLUMNS = "id, username, email, first_name, last_name, password_hash, enabled, " +
+                                               "created_at, updated_at";
+    private static final int EVENT_LOOP_THREADS = 2;
+    // Transactions and cursors hold a connection, they get a separate small pool
+    private static final int TRANSACTION_POOL_SIZE = 2;
+    private static final int CURSOR_FETCH_SIZE = 1000;
+    private static final long QUERY_TIMEOUT_SECONDS = 30;
+
+    private final Vertx vertx;
+    private final boolean ownsVertx;
+    private final SqlClient client;
+    private final Pool pool;
+    private final String location;
+    private final KeyNormalization keyNormalization;
+    private volatile String usernameOrder = "username";
+
+    public ReactiveUserRepository(String dbHost, String dbPort, String dbName, String dbUser, String dbPassword,
+                                  int maxConnections, int pipeliningLimit) {
+        this(dbHost, dbPort, dbName, dbUser, dbPassword, maxConnections, pipeliningLimit, KeyNormalization.EXACT);
+    }
+
+    /**
+     * @param maxConnections  connections used for pipelined queries
+     * @param pipeliningLimit queries in flight per connection
+     */
+    public ReactiveUserRepository(String dbHost, String dbPort, String dbName, String dbUser, String dbPassword,
+                                  int maxConnections, int pipeliningLimit, KeyNormalization keyNormalization) {
+        this.keyNormalization = keyNormalization;
+        this.location = String.format("%s:%s/%s", dbHost, dbPort, dbName);
+        PgConnectOptions connectOptions = new PgConnectOptions()
+                .setHost(dbHost)
+                .setPort(Integer.parseInt(dbPort))
+                .setDatabase(dbName)
+                .setUser(dbUser)
+                .setPassword(dbPassword)
+                .setCachePreparedStatements(true)
+                .setPipeliningLimit(pipeliningLimit);
+        Vertx serverVertx = serverVertx();
+        this.ownsVertx = serverVertx == null;
+        this.vertx = ownsVertx
+                ? Vertx.vertx(new VertxOptions().setEventLoopPoolSize(EVENT_LOOP_THREADS).setWorkerPoolSize(1))
+                : serverVertx;
+        this.client = PgPool.client(vertx, connectOptions, new PoolOptions().setMaxSize(maxConnections));
+        this.pool = PgPool.pool(vertx, connectOptions, new PoolOptions().setMaxSize(TRANSACTION_POOL_SIZE));
+        logger.infof("Initializing reactive database client: %s (%d connections, pipelining %d, %s Vert.x)",
+                location, maxConnections, pipeliningLimit, ownsVertx ? "own" : "server");
+    }
+
+    /**
+     * The Vert.x instance of the Keycloak server, from the Quarkus CDI container; null when
+     * not running inside Quarkus (e.g. the perf tools). Looked up reflectively so the
+     * provider does not compile against Quarkus.
+     */
+    private static Vertx serverVertx() {
+        try {
+            ClassLoader loader = ReactiveUserRepository.class.getClassLoader();
+            Class<?> containerType = Class.forName("io.quarkus.arc.ArcContainer", false, loader);
+            Class<?> handleType = Class.forName("io.quarkus.arc.InstanceHandle", false, loader);
+            Object container = Class.forName("io.quarkus.arc.Arc", true, loader).getMethod("container").invoke(null);
+            if (container == null) {
+                return null;
+            }
+            Object handle = containerType.getMethod("instance", Class.class, Annotation[].class)
+                    .invoke(container, Vertx.class, new Annotation[0]);
+            Object vertx = handleType.getMethod("get").invoke(handle);
+            return vertx instanceof Vertx ? (Vertx) vertx : null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Order listings by username under the "C" collation, i.e. by code point, whatever the
+     * database's default collation: the order ShardedUserRepository merges shard pages in.
+     * Without an index on (username COLLATE "C") such listings sort the matching rows.
+     */
+    public void setBinaryUsernameOrder(boolean binary) {
+        usernameOrder = binary ? "username COLLATE \"C\"" : "username";
+    }
+
+    public CompletionStage<ExternalUser> findByUsernameAsync(String username) {
+        return findByKeyAsync("username", username);
+    }
+
+    public CompletionStage<ExternalUser> findByEmailAsync(String email) {
+        return findByKeyAsync("email", email);
+    }
+
+    /**
+     * Lookup by normalized key, rows differing only by case resolve as in JdbcUserRepository
+     */
+    private CompletionStage<ExternalUser> findByKeyAsync(String column, String key) {
+        String sql = "SELECT " + USER_COLUMNS + " FROM users WHERE " + keyNormalization.column(column) +
+                     " = $1 LIMIT 2";
+        return client.preparedQuery(sql).execute(Tuple.of(keyNormalization.apply(key)))
+                .map(rows -> {
+                    List<ExternalUser> users = new ArrayList<>(2);
+                    for (Row row : rows) {
+                        users.add(mapRowToUser(row));
+                    }
+                    if (users.size() < 2) {
+                        return users.isEmpty() ? null : users.get(0);
+                    }
+                    logger.warnf("Users %d and %d share the %s %s ignoring case",
+                            users.get(0).getId(), users.get(1).getId(), column, key);
+                    return users.stream().filter(user -> JdbcUserRepository.matchesExactly(user, column, key))
+                            .findFirst().orElse(null);
+                })
+                .toCompletionStage();
+    }
+
+    public CompletionStage<ExternalUser> findByIdAsync(Long id) {
+        return findOne("SELECT " + USER_COLUMNS + " FROM users WHERE id = $1", Tuple.of(id));
+    }
+
+    private CompletionStage<ExternalUser> findOne(String sql, Tuple params) {
+        return client.preparedQuery(sql).execute(params)
+                .map(rows -> {
+                    for (Row row : rows) {
+                        return mapRowToUser(row);
+                    }
+                    return (ExternalUser) null;
+                })
+                .toCompletionStage();
+    }
+
+    @Override
+    public ExternalUser findByUsername(String username) {
+        try {
+            return awaitRequest(findByUsernameAsync(username));
+        } catch (SQLException e) {
+            logger.errorf(e, "Error finding user by username: %s", username);
+        }
+        return null;
+    }
+
+    @Override
+    public ExternalUser findByEmail(String email) {
+        try {
+            return awaitRequest(findByEmailAsync(email));
+        } catch (SQLException e) {
+            logger.errorf(e, "Error finding user by email: %s", email);
+        }
+        return null;
+    }
+
+    @Override
+    public ExternalUser findById(Long id) {
+        try {
+            return awaitRequest(findByIdAsync(id));
+        } catch (SQLException e) {
+            logger.errorf(e, "Error finding user by id: %s", id);
+        }
+        return null;
+    }
+
+    @Override
+    public List<ExternalUser> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            return mapUsers(awaitRequest(client.preparedQuery("SELECT " + USER_COLUMNS + " FROM users WHERE id = ANY($1)")
+                    .execute(Tuple.of(ids.toArray(new Long[0])))));
+        } catch (SQLException e) {
+            logger.errorf(e, "Error finding %d users by id", ids.size());
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(String searchTerm, int firstResult, int maxResults) {
+        String sql = "SELECT " + USER_COLUMNS + " FROM users WHERE username ILIKE $1 OR email ILIKE $1 " +
+                     "ORDER BY " + usernameOrder + " LIMIT $2 OFFSET $3";
+        try {
+            return mapUsers(awaitRequest(client.preparedQuery(sql)
+                    .execute(Tuple.of("%" + searchTerm + "%", maxResults, firstResult))));
+        } catch (SQLException e) {
+            logger.errorf(e, "Error searching users with term: %s", searchTerm);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT " + USER_COLUMNS + " FROM users WHERE " + criteria.toSql(params) +
+                     " ORDER BY " + usernameOrder + " LIMIT ? OFFSET ?";
+        params.add(maxResults);
+        params.add(firstResult);
+        Tuple tuple = Tuple.tuple();
+        params.forEach(tuple::addValue);
+        try {
+            return mapUsers(awaitRequest(client.preparedQuery(numberPlaceholders(sql)).execute(tuple)));
+        } catch (SQLException e) {
+            logger.errorf(e, "Error searching users with %s", criteria);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public int countUsers(UserSearchCriteria criteria) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT COUNT(*) FROM users WHERE " + criteria.toSql(params);
+        Tuple tuple = Tuple.tuple();
+        params.forEach(tuple::addValue);
+        try {
+            for (Row row : awaitRequest(client.preparedQuery(numberPlaceholders(sql)).execute(tuple))) {
+                return row.getLong(0).intValue();
+            }
+        } catch (SQLException e) {
+            logger.errorf(e, "Error counting users with %s", criteria);
+        }
+        return 0;
+    }
+
+    /**
+     * Turn JDBC "?" placeholders of generated SQL (no literals) into PostgreSQL "$n" ones
+     */
+    private static String numberPlaceholders(String sql) {
+        StringBuilder numbered = new StringBuilder(sql.length() + 16);
+        int index = 1;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '?') {
+                numbered.append('$').append(index++);
+            } else {
+                numbered.append(c);
+            }
+        }
+        return numbered.toString();
+    }
+
+    @Override
+    public List<ExternalUser> getAllUsers(int firstResult, int maxResults) {
+        String sql = "SELECT " + USER_COLUMNS + " FROM users ORDER BY " + usernameOrder + " LIMIT $1 OFFSET $2";
+        try {
+            return mapUsers(awaitRequest(client.preparedQuery(sql).execute(Tuple.of(maxResults, firstResult))));
+        } catch (SQLException e) {
+            logger.error("Error getting all users", e);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public int loadRecentlyUpdated(int limit, int timeoutSeconds, Predicate<ExternalUser> consumer) {
+        String sql = "SELECT " + USER_COLUMNS + " FROM users ORDER BY updated_at DESC NULLS LAST LIMIT $1";
+        int loaded = 0;
+        try {
+            RowSet<Row> rows = client.preparedQuery(sql).execute(Tuple.of(limit))
+                    .toCompletionStage().toCompletableFuture().get(timeoutSeconds, TimeUnit.SECONDS);
+            for (Row row : rows) {
+                loaded++;
+                if (!consumer.test(mapRowToUser(row))) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            logger.errorf(e, "Error loading recently updated users");
+        }
+        return loaded;
+    }
+
+    /**
+     * Stream the lookup columns through a cursor, one batch of rows in memory at a time
+     */
+    @Override
+    public int forEachIndexEntry(long updatedSince, Consumer<UserIndexEntry> consumer) throws SQLException {
+        boolean all = updatedSince == Long.MIN_VALUE;
+        String sql = "SELECT id, username, email, enabled, updated_at FROM users" +
+                     (all ? "" : " WHERE updated_at >= $1") + " ORDER BY id";
+        int count = 0;
+
+        SqlConnection conn = await(pool.getConnection());
+        try {
+            // PostgreSQL cursors only live inside a transaction
+            Transaction tx = await(conn.begin());
+            try {
+                PreparedStatement stmt = await(conn.prepare(sql));
+                Cursor cursor = stmt.cursor(all ? Tuple.tuple() : Tuple.of(new Timestamp(updatedSince).toLocalDateTime()));
+                do {
+                    for (Row row : await(cursor.read(CURSOR_FETCH_SIZE))) {
+                        LocalDateTime updatedAt = row.getLocalDateTime("updated_at");
+                        consumer.accept(new UserIndexEntry(row.getLong("id"), row.getString("username"),
+                                row.getString("email"), Boolean.TRUE.equals(row.getBoolean("enabled")),
+                                updatedAt != null ? Timestamp.valueOf(updatedAt).getTime() : 0L));
+                        count++;
+                    }
+                } while (cursor.hasMore());
+                cursor.close();
+            } finally {
+                tx.rollback();
+            }
+        } finally {
+            conn.close();
+        }
+        return count;
+    }
+
+    @Override
+    public int getUsersCount() {
+        try {
+            for (Row row : awaitRequest(client.preparedQuery("SELECT COUNT(*) FROM users").execute())) {
+                return row.getLong(0).intValue();
+            }
+        } catch (SQLException e) {
+            logger.error("Error counting users", e);
+        }
+        return 0;
+    }
+
+    /**
+     * Apply coalesced user updates in a single transaction, one batch per set of changed columns
+     */
+    @Override
+    public void applyUpdates(Collection<UserUpdate> updates) throws SQLException {
+        Map<Set<UserField>, List<UserUpdate>> batches = new LinkedHashMap<>();
+        for (UserUpdate update : updates) {
+            if (!update.isEmpty()) {
+                batches.computeIfAbsent(EnumSet.copyOf(update.getDirtyFields()), k -> new ArrayList<>()).add(update);
+            }
+        }
+        if (batches.isEmpty()) {
+            return;
+        }
+
+        await(pool.withTransaction(conn -> {
+            Future<RowSet<Row>> chain = Future.succeededFuture();
+            for (Map.Entry<Set<UserField>, List<UserUpdate>> batch : batches.entrySet()) {
+                chain = chain.compose(previous -> executeUpdateBatch(conn, batch.getKey(), batch.getValue()));
+            }
+            return chain;
+        }));
+        logger.debugf("Flushed %d user updates in %d batches", updates.size(), batches.size());
+    }
+
+    private static Future<RowSet<Row>> executeUpdateBatch(SqlConnection conn, Set<UserField> fields,
+                                                          List<UserUpdate> updates) {
+        StringBuilder sql = new StringBuilder("UPDATE users SET ");
+        int index = 1;
+        for (UserField field : fields) {
+            sql.append(field.getColumn()).append(" = $").append(index++).append(", ");
+        }
+        sql.append("updated_at = CURRENT_TIMESTAMP WHERE id = $").append(index);
+
+        List<Tuple> batch = new ArrayList<>(updates.size());
+        for (UserUpdate update : updates) {
+            Tuple tuple = Tuple.tuple();
+            for (UserField field : fields) {
+                tuple.addValue(toSqlValue(update.getValues().get(field)));
+            }
+            tuple.addValue(update.getUserId());
+            batch.add(tuple);
+        }
+        return conn.preparedQuery(sql.toString()).executeBatch(batch);
+    }
+
+    private static Object toSqlValue(Object value) {
+        if (value instanceof Date) {
+            return new Timestamp(((Date) value).getTime()).toLocalDateTime();
+        }
+        return value;
+    }
+
+    @Override
+    public boolean updatePasswordHash(Long id, String passwordHash) {
+        String sql = "UPDATE users SET password_hash = $1, updated_at = CURRENT_TIMESTAMP WHERE id = $2";
+        try {
+            return awaitRequest(client.preparedQuery(sql).execute(Tuple.of(passwordHash, id))).rowCount() > 0;
+        } catch (SQLException e) {
+            logger.errorf(e, "Error updating password for user id: %s", id);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean replacePasswordHash(Long id, String expectedHash, String newHash) {
+        String sql = "UPDATE users SET password_hash = $1 WHERE id = $2 AND password_hash = $3";
+        try {
+            return awaitRequest(client.preparedQuery(sql).execute(Tuple.of(newHash, id, expectedHash))).rowCount() > 0;
+        } catch (SQLException e) {
+            logger.errorf(e, "Error replacing password hash for user id: %s", id);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean deleteUser(Long id) {
+        try {
+            return awaitRequest(client.preparedQuery("DELETE FROM users WHERE id = $1").execute(Tuple.of(id))).rowCount() > 0;
+        } catch (SQLException e) {
+            logger.errorf(e, "Error deleting user by id: %s", id);
+        }
+        return false;
+    }
+
+    /**
+     * Test database connection
+     */
+    public boolean testConnection() {
+        try {
+            await(client.preparedQuery("SELECT 1").execute());
+            return true;
+        } catch (SQLException e) {
+            logger.errorf(e, "Database connection test failed: %s", location);
+            return false;
+        }
+    }
+
+    public void close() {
+        client.close();
+        pool.close();
+        if (ownsVertx) {
+            vertx.close();
+        }
+        logger.infof("Closed reactive database client: %s", location);
+    }
+
+    /**
+     * Wait for a query on a request path: an error reported by the database is returned as a
+     * SQLException, a database that does not answer (connection refused or lost, pool
+     * exhausted, timeout) is a DatabaseUnavailableException rather than a missing user
+     */
+    private <T> T awaitRequest(Future<T> future) throws SQLException {
+        return awaitRequest(future.toCompletionStage());
+    }
+
+    private <T> T awaitRequest(CompletionStage<T> stage) throws SQLException {
+        try {
+            return await(stage);
+        } catch (SQLException e) {
+            if (e.getCause() instanceof PgException) {
+                throw e;
+            }
+            throw new DatabaseUnavailableException("External user database unavailable: " + location, e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws SQLException {
+        return await(future.toCompletionStage());
+    }
+
+    private static <T> T await(CompletionStage<T> stage) throws SQLException {
+        try {
+            return stage.toCompletableFuture().get(QUERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for the database", e);
+        } catch (ExecutionException e) {
+            throw new SQLException(e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new SQLException("Timed out waiting for the database", e);
+        }
+    }
+
+    private static List<ExternalUser> mapUsers(RowSet<Row> rows) {
+        List<ExternalUser> users = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            users.add(mapRowToUser(row));
+        }
+        return users;
+    }
+
+    /**
+     * Map Row to ExternalUser object, timestamps are read in the JVM time zone like JDBC does
+     */
+    private static ExternalUser mapRowToUser(Row row) {
+        ExternalUser user = new ExternalUser();
+        user.setId(row.getLong("id"));
+        user.setUsername(row.getString("username"));
+        user.setEmail(row.getString("email"));
+        user.setFirstName(row.getString("first_name"));
+        user.setLastName(row.getString("last_name"));
+        user.setPasswordHash(row.getString("password_hash"));
+        user.setEnabled(Boolean.TRUE.equals(row.getBoolean("enabled")));
+        LocalDateTime createdAt = row.getLocalDateTime("created_at");
+        LocalDateTime updatedAt = row.getLocalDateTime("updated_at");
+        user.setCreatedAt(createdAt != null ? Timestamp.valueOf(createdAt) : null);
+        user.setUpdatedAt(updatedAt != null ? Timestamp.valueOf(updatedAt) : null);
+        return user;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.keycloak.storage.database;
+
+import org.jboss.logging.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Schema Inspector - runs EXPLAIN on the repository's query shapes and warns about the ones
+ * planned as a sequential scan of the users table, and can create the recommended indexes.
+ * Plans are only judged once the table is large enough for the planner to prefer an index.
+ */
+public class SchemaInspector {
+    private static final Logger logger = Logger.getLogger(SchemaInspector.class);
+
+    // Below this many rows a sequential scan is the right plan anyway
+    private static final long MIN_ROWS_FOR_INDEX_SCAN = 10_000;
+    private static final String TRIGRAM_EXTENSION = "CREATE EXTENSION IF NOT EXISTS pg_trgm";
+
+    /**
+     * Indexes the queries rely on beyond the primary key, unique constraints and idx_users_updated_at
+     */
+    static final List<String> RECOMMENDED_INDEXES = Arrays.asList(
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_username_lower ON users (lower(username))",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_email_lower ON users (lower(email))",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_updated_at ON users (updated_at)",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_username_trgm ON users USING gin (username gin_trgm_ops)",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_email_trgm ON users USING gin (email gin_trgm_ops)",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_first_name_trgm ON users USING gin (first_name gin_trgm_ops)",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_last_name_trgm ON users USING gin (last_name gin_trgm_ops)");
+
+    private static final List<QueryShape> QUERY_SHAPES = Arrays.asList(
+            new QueryShape("findByUsername", "SELECT * FROM users WHERE username = ?", "sample-user"),
+            new QueryShape("findByEmail", "SELECT * FROM users WHERE email = ?", "sample@example.com"),
+            new QueryShape("findById", "SELECT * FROM users WHERE id = ?", 1L),
+            new QueryShape("caseInsensitiveUsername", "SELECT * FROM users WHERE lower(username) = ? LIMIT 2",
+                    "sample-user"),
+            new QueryShape("caseInsensitiveEmail", "SELECT * FROM users WHERE lower(email) = ? LIMIT 2",
+                    "sample@example.com"),
+            new QueryShape("search", "SELECT * FROM users WHERE username ILIKE ? OR email ILIKE ? " +
+                    "OR first_name ILIKE ? OR last_name ILIKE ? ORDER BY username LIMIT 10",
+                    "%sample%", "%sample%", "%sample%", "%sample%"),
+            new QueryShape("listing", "SELECT * FROM users ORDER BY username LIMIT 10 OFFSET 0"),
+            new QueryShape("recentlyUpdated", "SELECT * FROM users ORDER BY updated_at DESC NULLS LAST LIMIT 100"),
+            new QueryShape("indexCatchUp", "SELECT id FROM users WHERE updated_at >= ? ORDER BY id",
+                    new Timestamp(System.currentTimeMillis())));
+
+    private final DatabaseConnectionManager connectionManager;
+
+    public SchemaInspector(DatabaseConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    /**
+     * EXPLAIN every query shape
+     *
+     * @return names of the shapes planned as a sequential scan (empty while the table is small)
+     */
+    public List<String> inspect() {
+        List<String> sequentialScans = new ArrayList<>();
+        try (Connection conn = connectionManager.getBackgroundConnection()) {
+            long rows = estimateRows(conn);
+            if (rows < MIN_ROWS_FOR_INDEX_SCAN) {
+                logger.debugf("Skipping plan checks for %s, users has ~%d rows", connectionManager.getJdbcUrl(), rows);
+                return sequentialScans;
+            }
+            for (QueryShape shape : QUERY_SHAPES) {
+                String plan = explain(conn, shape);
+                if (plan.contains("Seq Scan on users")) {
+                    sequentialScans.add(shape.name);
+                    logger.warnf("Query %s scans the whole users table (~%d rows) on %s, plan:%n%s",
+                            shape.name, rows, connectionManager.getJdbcUrl(), plan);
+                }
+            }
+        } catch (SQLException e) {
+            logger.warnf("Schema inspection of %s failed: %s", connectionManager.getJdbcUrl(), e.getMessage());
+        }
+        if (!sequentialScans.isEmpty()) {
+            logger.warnf("Missing indexes on %s for %s, see init-external-db.sql or enable index creation",
+                    connectionManager.getJdbcUrl(), sequentialScans);
+        }
+        return sequentialScans;
+    }
+
+    /**
+     * Create the recommended indexes without blocking writes. Each statement runs on its own
+     * in autocommit mode, as CREATE INDEX CONCURRENTLY cannot run inside a transaction.
+     */
+    public void createRecommendedIndexes() {
+        try (Connection conn = connectionManager.getBackgroundConnection();
+             Statement stmt = conn.createStatement()) {
+            boolean trigram = true;
+            try {
+                stmt.execute(TRIGRAM_EXTENSION);
+            } catch (SQLException e) {
+                trigram = false;
+                logger.warnf("Cannot enable pg_trgm on %s, substring search stays unindexed: %s",
+                        connectionManager.getJdbcUrl(), e.getMessage());
+            }
+            for (String index : RECOMMENDED_INDEXES) {
+                if (!trigram && index.contains("gin_trgm_ops")) {
+                    continue;
+                }
+                try {
+                    long start = System.currentTimeMillis();
+                    stmt.execute(index);
+                    logger.infof("Index ready on %s in %d ms: %s", connectionManager.getJdbcUrl(),
+                            System.currentTimeMillis() - start, index);
+                } catch (SQLException e) {
+                    logger.warnf("Could not create index on %s (%s): %s", connectionManager.getJdbcUrl(),
+                            index, e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            logger.warnf("Index creation on %s failed: %s", connectionManager.getJdbcUrl(), e.getMessage());
+        }
+    }
+
+    private static long estimateRows(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass('users')");
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static String explain(Connection conn, QueryShape shape) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + shape.sql)) {
+            for (int i = 0; i < shape.params.length; i++) {
+                stmt.setObject(i + 1, shape.params[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+        }
+        return plan.toString();
+    }
+
+    private static final class QueryShape {
+        private final String name;
+        private final String sql;
+        private final Object[] params;
+
+        private QueryShape(String name, String sql, Object... params) {
+            this.name = name;
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.model.UserIndexEntry;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight User Repository - concurrent lookups for the same key share one query.
+ * The first caller runs the query, callers arriving while it is in flight wait for its
+ * result (or exception) and receive their own copy of the user. Writes and listings are
+ * passed through unchanged.
+ */
+public class SingleFlightUserRepository implements UserRepository {
+
+    private final UserRepository delegate;
+    private final KeyNormalization keyNormalization;
+    // ConcurrentHashMap locks per bin, so registering a flight only contends with keys in the same bin
+    private final ConcurrentMap<String, CompletableFuture<ExternalUser>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder sharedCounter = ProviderMetrics.counter("singleflight.shared");
+
+    public SingleFlightUserRepository(UserRepository delegate) {
+        this(delegate, KeyNormalization.EXACT);
+    }
+
+    /**
+     * @param keyNormalization normalization of the delegate's lookups, inputs differing only
+     *                         in what it normalizes away share a flight
+     */
+    public SingleFlightUserRepository(UserRepository delegate, KeyNormalization keyNormalization) {
+        this.delegate = delegate;
+        this.keyNormalization = keyNormalization;
+    }
+
+    private ExternalUser load(String key, Supplier<ExternalUser> query) {
+        CompletableFuture<ExternalUser> flight = new CompletableFuture<>();
+        CompletableFuture<ExternalUser> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            sharedCounter.increment();
+            return join(existing);
+        }
+
+        try {
+            ExternalUser user = query.get();
+            flight.complete(user);
+            return user;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static ExternalUser join(CompletableFuture<ExternalUser> flight) {
+        try {
+            ExternalUser user = flight.join();
+            // The leader hands its instance to the caller, adapters mutate it
+            return user != null ? new ExternalUser(user) : null;
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public ExternalUser findByUsername(String username) {
+        return load("username:" + keyNormalization.apply(username), () -> delegate.findByUsername(username));
+    }
+
+    @Override
+    public ExternalUser findByEmail(String email) {
+        return load("email:" + keyNormalization.apply(email), () -> delegate.findByEmail(email));
+    }
+
+    @Override
+    public ExternalUser findById(Long id) {
+        return load("id:" + id, () -> delegate.findById(id));
+    }
+
+    @Override
+    public List<ExternalUser> findByIds(Collection<Long> ids) {
+        return delegate.findByIds(ids);
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(String searchTerm, int firstResult, int maxResults) {
+        return delegate.searchUsers(searchTerm, firstResult, maxResults);
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults) {
+        return delegate.searchUsers(criteria, firstResult, maxResults);
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults,
+                                          IntConsumer total) {
+        return delegate.searchUsers(criteria, firstResult, maxResults, total);
+    }
+
+    @Override
+    public int countUsers(UserSearchCriteria criteria) {
+        return delegate.countUsers(criteria);
+    }
+
+    @Override
+    public List<ExternalUser> getAllUsers(int firstResult, int maxResults) {
+        return delegate.getAllUsers(firstResult, maxResults);
+    }
+
+    @Override
+    public int loadRecentlyUpdated(int limit, int timeoutSeconds, Predicate<ExternalUser> consumer) {
+        return delegate.loadRecentlyUpdated(limit, timeoutSeconds, consumer);
+    }
+
+    @Override
+    public int forEachIndexEntry(long updatedSince, Consumer<UserIndexEntry> consumer) throws SQLException {
+        return delegate.forEachIndexEntry(updatedSince, consumer);
+    }
+
+    @Override
+    public int getUsersCount() {
+        return delegate.getUsersCount();
+    }
+
+    @Override
+    public void applyUpdates(Collection<UserUpdate> updates) throws SQLException {
+        delegate.applyUpdates(updates);
+    }
+
+    @Override
+    public boolean updatePasswordHash(Long id, String passwordHash) {
+        return delegate.updatePasswordHash(id, passwordHash);
+    }
+
+    @Override
+    public boolean replacePasswordHash(Long id, String expectedHash, String newHash) {
+        return delegate.replacePasswordHash(id, expectedHash, newHash);
+    }
+
+    @Override
+    public boolean deleteUser(Long id) {
+        return delegate.deleteUser(id);
+    }
+}
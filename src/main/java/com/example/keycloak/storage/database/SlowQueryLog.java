@@ -0,0 +1,157 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import org.jboss.logging.Logger;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Slow Query Log - logs statements slower than a threshold with their SQL shape (the
+ * parameterized text, never bound values), bind cardinality and duration.
+ *
+ * Optionally captures EXPLAIN ANALYZE of slow SELECTs: the plan is taken on a separate
+ * connection in the background, at most once per SQL shape per interval, so a slow query
+ * pattern costs one extra execution rather than one per occurrence.
+ */
+public final class SlowQueryLog {
+    private static final Logger logger = Logger.getLogger(SlowQueryLog.class);
+
+    private static final long EXPLAIN_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int EXPLAIN_QUEUE_CAPACITY = 4;
+
+    private static final LongAdder slowQueries = ProviderMetrics.counter("db.slowQueries");
+    private static final ConcurrentMap<String, Long> lastExplained = new ConcurrentHashMap<>();
+
+    private static volatile long thresholdNanos;
+    private static volatile ThreadPoolExecutor explainExecutor;
+
+    private SlowQueryLog() {
+    }
+
+    /**
+     * @param thresholdMillis statements taking at least this long are logged, 0 disables the log
+     * @param explain whether to capture EXPLAIN ANALYZE of slow SELECTs
+     */
+    public static synchronized void configure(long thresholdMillis, boolean explain) {
+        shutdown();
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, thresholdMillis));
+        if (thresholdMillis > 0 && explain) {
+            explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(EXPLAIN_QUEUE_CAPACITY), runnable -> {
+                        Thread thread = new Thread(runnable, "external-user-storage-explain");
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+        }
+        if (thresholdMillis > 0) {
+            logger.infof("Logging queries slower than %d ms%s", thresholdMillis,
+                    explain ? " with EXPLAIN ANALYZE" : "");
+        }
+    }
+
+    public static synchronized void shutdown() {
+        thresholdNanos = 0;
+        if (explainExecutor != null) {
+            explainExecutor.shutdownNow();
+            explainExecutor = null;
+        }
+        lastExplained.clear();
+    }
+
+    public static boolean isEnabled() {
+        return thresholdNanos > 0;
+    }
+
+    /**
+     * Record a finished statement execution
+     *
+     * @param binds bound parameter values by index (1-based), may contain nulls
+     * @param batchSize number of batched parameter sets, 0 for a single execution
+     */
+    static void record(DatabaseConnectionManager connectionManager, String sql, Object[] binds, int bindCount,
+                       int batchSize, long nanos) {
+        long threshold = thresholdNanos;
+        if (threshold == 0 || nanos < threshold) {
+            return;
+        }
+        slowQueries.increment();
+        logger.warnf("Slow query on %s: %.1f ms, %s: %s", connectionManager.getJdbcUrl(),
+                nanos / 1_000_000.0, describeBinds(binds, bindCount, batchSize), sql);
+
+        ThreadPoolExecutor executor = explainExecutor;
+        if (executor == null || batchSize > 0 || !sql.trim().regionMatches(true, 0, "SELECT", 0, 6)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean[] due = {false};
+        lastExplained.compute(sql, (shape, last) -> {
+            due[0] = last == null || now - last >= EXPLAIN_INTERVAL_MILLIS;
+            return due[0] ? now : last;
+        });
+        if (!due[0]) {
+            return;
+        }
+        Object[] params = Arrays.copyOf(binds, bindCount + 1);
+        try {
+            executor.execute(() -> explain(connectionManager, sql, params, bindCount));
+        } catch (RejectedExecutionException e) {
+            logger.debugf("Skipping EXPLAIN ANALYZE, another plan capture is in progress: %s", sql);
+        }
+    }
+
+    private static String describeBinds(Object[] binds, int bindCount, int batchSize) {
+        StringBuilder description = new StringBuilder().append(bindCount).append(bindCount == 1 ? " bind" : " binds");
+        for (int i = 1; i <= bindCount; i++) {
+            if (binds[i] instanceof Array) {
+                description.append(", $").append(i).append(" array of ").append(arrayLength((Array) binds[i]));
+            }
+        }
+        if (batchSize > 0) {
+            description.append(", batch of ").append(batchSize);
+        }
+        return description.toString();
+    }
+
+    private static int arrayLength(Array array) {
+        try {
+            Object elements = array.getArray();
+            return elements instanceof Object[] ? ((Object[]) elements).length : java.lang.reflect.Array.getLength(elements);
+        } catch (SQLException | IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private static void explain(DatabaseConnectionManager connectionManager, String sql, Object[] binds, int bindCount) {
+        StringBuilder plan = new StringBuilder();
+        try (Connection conn = connectionManager.getBackgroundConnection();
+             PreparedStatement stmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+            for (int i = 1; i <= bindCount; i++) {
+                if (binds[i] instanceof Array) {
+                    stmt.setArray(i, (Array) binds[i]);
+                } else {
+                    stmt.setObject(i, binds[i]);
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+            logger.warnf("Plan of slow query on %s: %s%n%s", connectionManager.getJdbcUrl(), sql, plan);
+        } catch (SQLException e) {
+            logger.debugf("Could not EXPLAIN ANALYZE slow query %s: %s", sql, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.keycloak.storage.database;
+
+import com.example.keycloak.storage.tracing.Span;
+import com.example.keycloak.storage.tracing.Tracer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLTimeoutException;
+import java.util.Arrays;
+
+/**
+ * Statement Instrumentation - wraps prepared statements of pooled connections while tracing,
+ * the slow query log or the adaptive concurrency limit is enabled. Execution gets a "db.query"
+ * span, is checked against the slow query threshold and feeds its latency to the limiter;
+ * reading the result set (fetching and mapping rows) gets a "db.fetch" span that ends when
+ * the result set or statement is closed.
+ */
+final class StatementInstrumentation {
+
+    private StatementInstrumentation() {
+    }
+
+    static boolean isEnabled() {
+        return Tracer.isEnabled() || SlowQueryLog.isEnabled();
+    }
+
+    /**
+     * @param limiter the limiter the connection holds a slot of, null if none
+     */
+    static PreparedStatement instrument(PreparedStatement statement, String sql,
+                                        DatabaseConnectionManager connectionManager, ConcurrencyLimiter limiter) {
+        StatementState state = new StatementState(sql, connectionManager, limiter);
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                        state.bind((Integer) args[0], args[1]);
+                    } else if (name.equals("clearParameters")) {
+                        state.clear();
+                    } else if (name.equals("addBatch") && args == null) {
+                        state.batchSize++;
+                    } else if (name.equals("close")) {
+                        state.endFetch();
+                    } else if (name.startsWith("execute") && args == null) {
+                        return execute(statement, method, state);
+                    }
+                    return invoke(statement, method, args);
+                });
+    }
+
+    private static Object execute(PreparedStatement statement, Method method, StatementState state) throws Throwable {
+        state.endFetch();
+        Object result;
+        boolean timedOut = false;
+        long start = System.nanoTime();
+        try (Span span = Tracer.startSpan("db.query", Span.Kind.CLIENT)) {
+            span.attribute("db.system", "postgresql")
+                    .attribute("db.statement", state.sql)
+                    .attribute("db.bind_count", state.bindCount);
+            if (state.batchSize > 0) {
+                span.attribute("db.batch_size", state.batchSize);
+            }
+            try {
+                result = invoke(statement, method, null);
+            } catch (Throwable e) {
+                span.error(e);
+                timedOut = e instanceof SQLTimeoutException;
+                throw e;
+            }
+        } finally {
+            long nanos = System.nanoTime() - start;
+            SlowQueryLog.record(state.connectionManager, state.sql, state.binds, state.bindCount,
+                    state.batchSize, nanos);
+            if (state.limiter != null) {
+                if (timedOut) {
+                    state.limiter.onFailure();
+                } else if (state.batchSize == 0) {
+                    // Batches take longer by design, they are not a latency signal
+                    state.limiter.onSample(nanos);
+                }
+            }
+            if (method.getName().equals("executeBatch")) {
+                state.batchSize = 0;
+            }
+        }
+        if (result instanceof ResultSet) {
+            return fetch((ResultSet) result, state);
+        }
+        return result;
+    }
+
+    private static ResultSet fetch(ResultSet resultSet, StatementState state) {
+        Span span = Tracer.startSpan("db.fetch");
+        if (!span.isRecording()) {
+            return resultSet;
+        }
+        state.fetch = span;
+        int[] rows = {0};
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("close")) {
+                        state.endFetch(rows[0]);
+                    }
+                    Object result = invoke(resultSet, method, args);
+                    if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                        rows[0]++;
+                    }
+                    return result;
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static final class StatementState {
+        private final String sql;
+        private final DatabaseConnectionManager connectionManager;
+        private final ConcurrencyLimiter limiter;
+        private Object[] binds = new Object[8];
+        private int bindCount;
+        private int batchSize;
+        private Span fetch;
+
+        private StatementState(String sql, DatabaseConnectionManager connectionManager, ConcurrencyLimiter limiter) {
+            this.sql = sql;
+            this.connectionManager = connectionManager;
+            this.limiter = limiter;
+        }
+
+        private void bind(int index, Object value) {
+            if (index >= binds.length) {
+                binds = Arrays.copyOf(binds, Math.max(index + 1, binds.length * 2));
+            }
+            binds[index] = value;
+            bindCount = Math.max(bindCount, index);
+        }
+
+        private void clear() {
+            Arrays.fill(binds, null);
+            bindCount = 0;
+        }
+
+        private void endFetch(int rows) {
+            if (fetch != null) {
+                fetch.attribute("db.rows", rows);
+                endFetch();
+            }
+        }
+
+        private void endFetch() {
+            if (fetch != null) {
+                fetch.close();
+                fetch = null;
+            }
+        }
+    }
+}
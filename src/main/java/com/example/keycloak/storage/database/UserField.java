@@ -0,0 +1,23 @@
+package com.example.keycloak.storage.database;
+
+/**
+ * User Field - writable columns of the external users table
+ */
+public enum UserField {
+    USERNAME("username"),
+    EMAIL("email"),
+    FIRST_NAME("first_name"),
+    LAST_NAME("last_name"),
+    ENABLED("enabled"),
+    CREATED_AT("created_at");
+
+    private final String column;
+
+    UserField(String column) {
+        this.column = column;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+}
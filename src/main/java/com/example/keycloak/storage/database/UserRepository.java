@@ -1,190 +1,119 @@
 package com.example.keycloak.storage.database;
 
 import com.example.keycloak.storage.model.ExternalUser;
-import org.jboss.logging.Logger;
+import com.example.keycloak.storage.model.UserIndexEntry;
 
-import java.sql.*;
-import java.util.ArrayList;
+import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
 
 /**
- * User Repository - handles database operations for external users
+ * User Repository - database operations for external users
+ * Lookups return null and listings an empty list when the user(s) cannot be read
  */
-public class UserRepository {
-    private static final Logger logger = Logger.getLogger(UserRepository.class);
-
-    private final DatabaseConnectionManager connectionManager;
-
-    public UserRepository(DatabaseConnectionManager connectionManager) {
-        this.connectionManager = connectionManager;
-    }
+public interface UserRepository {
 
     /**
      * Find user by username
      */
-    public ExternalUser findByUsername(String username) {
-        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
-                    "created_at, updated_at FROM users WHERE username = ?";
-
-        try (Connection conn = connectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setString(1, username);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return mapResultSetToUser(rs);
-                }
-            }
-        } catch (SQLException e) {
-            logger.errorf(e, "Error finding user by username: %s", username);
-        }
-        return null;
-    }
+    ExternalUser findByUsername(String username);
 
     /**
      * Find user by email
      */
-    public ExternalUser findByEmail(String email) {
-        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
-                    "created_at, updated_at FROM users WHERE email = ?";
-
-        try (Connection conn = connectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setString(1, email);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return mapResultSetToUser(rs);
-                }
-            }
-        } catch (SQLException e) {
-            logger.errorf(e, "Error finding user by email: %s", email);
-        }
-        return null;
-    }
+    ExternalUser findByEmail(String email);
 
     /**
      * Find user by ID
      */
-    public ExternalUser findById(Long id) {
-        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
-                    "created_at, updated_at FROM users WHERE id = ?";
-
-        try (Connection conn = connectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setLong(1, id);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return mapResultSetToUser(rs);
-                }
-            }
-        } catch (SQLException e) {
-            logger.errorf(e, "Error finding user by id: %s", id);
-        }
-        return null;
-    }
+    ExternalUser findById(Long id);
 
     /**
-     * Search users by username or email
+     * Find the users with the given IDs, missing users are left out
      */
-    public List<ExternalUser> searchUsers(String searchTerm, int firstResult, int maxResults) {
-        List<ExternalUser> users = new ArrayList<>();
-        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
-                    "created_at, updated_at FROM users WHERE username ILIKE ? OR email ILIKE ? " +
-                    "ORDER BY username LIMIT ? OFFSET ?";
+    List<ExternalUser> findByIds(Collection<Long> ids);
 
-        try (Connection conn = connectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+    /**
+     * Search users by username or email, ordered by username
+     */
+    List<ExternalUser> searchUsers(String searchTerm, int firstResult, int maxResults);
 
-            String searchPattern = "%" + searchTerm + "%";
-            stmt.setString(1, searchPattern);
-            stmt.setString(2, searchPattern);
-            stmt.setInt(3, maxResults);
-            stmt.setInt(4, firstResult);
+    /**
+     * Search users matching all given criteria, ordered by username
+     */
+    List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults);
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    users.add(mapResultSetToUser(rs));
-                }
-            }
-        } catch (SQLException e) {
-            logger.errorf(e, "Error searching users with term: %s", searchTerm);
-        }
-        return users;
+    /**
+     * Search one page and report the number of users matching all criteria to the consumer,
+     * from the same query where the repository can. The default reports nothing and callers
+     * count separately.
+     */
+    default List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults,
+                                           IntConsumer total) {
+        return searchUsers(criteria, firstResult, maxResults);
     }
 
     /**
-     * Get all users with pagination
+     * Count the users matching all criteria
      */
-    public List<ExternalUser> getAllUsers(int firstResult, int maxResults) {
-        List<ExternalUser> users = new ArrayList<>();
-        String sql = "SELECT id, username, email, first_name, last_name, password_hash, enabled, " +
-                    "created_at, updated_at FROM users ORDER BY username LIMIT ? OFFSET ?";
+    int countUsers(UserSearchCriteria criteria);
 
-        try (Connection conn = connectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+    /**
+     * Get all users with pagination, ordered by username
+     */
+    List<ExternalUser> getAllUsers(int firstResult, int maxResults);
 
-            stmt.setInt(1, maxResults);
-            stmt.setInt(2, firstResult);
+    /**
+     * Stream the most recently updated users to the consumer until it returns false
+     *
+     * @return number of users delivered
+     */
+    int loadRecentlyUpdated(int limit, int timeoutSeconds, Predicate<ExternalUser> consumer);
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    users.add(mapResultSetToUser(rs));
-                }
-            }
-        } catch (SQLException e) {
-            logger.error("Error getting all users", e);
-        }
-        return users;
-    }
+    /**
+     * Stream the lookup columns of users updated at or after the given time
+     * (epoch millis, Long.MIN_VALUE for all users)
+     *
+     * @return number of entries delivered
+     */
+    int forEachIndexEntry(long updatedSince, Consumer<UserIndexEntry> consumer) throws SQLException;
 
     /**
      * Get total user count
      */
-    public int getUsersCount() {
-        String sql = "SELECT COUNT(*) FROM users";
+    int getUsersCount();
 
-        try (Connection conn = connectionManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql);
-             ResultSet rs = stmt.executeQuery()) {
+    /**
+     * Apply coalesced user updates in a single transaction
+     */
+    void applyUpdates(Collection<UserUpdate> updates) throws SQLException;
 
-            if (rs.next()) {
-                return rs.getInt(1);
-            }
-        } catch (SQLException e) {
-            logger.error("Error counting users", e);
-        }
-        return 0;
-    }
+    /**
+     * Store a new password hash for the user
+     */
+    boolean updatePasswordHash(Long id, String passwordHash);
+
+    /**
+     * Replace the password hash only if it still matches the expected one
+     */
+    boolean replacePasswordHash(Long id, String expectedHash, String newHash);
+
+    /**
+     * Delete user by ID
+     */
+    boolean deleteUser(Long id);
 
     /**
      * Validate user credentials
      */
-    public boolean validateCredentials(String username, String password) {
+    default boolean validateCredentials(String username, String password) {
         ExternalUser user = findByUsername(username);
         if (user == null || !user.isEnabled()) {
             return false;
         }
-
-        // BCrypt password validation
         return PasswordHasher.verifyPassword(password, user.getPasswordHash());
     }
-
-    /**
-     * Map ResultSet to ExternalUser object
-     */
-    private ExternalUser mapResultSetToUser(ResultSet rs) throws SQLException {
-        ExternalUser user = new ExternalUser();
-        user.setId(rs.getLong("id"));
-        user.setUsername(rs.getString("username"));
-        user.setEmail(rs.getString("email"));
-        user.setFirstName(rs.getString("first_name"));
-        user.setLastName(rs.getString("last_name"));
-        user.setPasswordHash(rs.getString("password_hash"));
-        user.setEnabled(rs.getBoolean("enabled"));
-        user.setCreatedAt(rs.getTimestamp("created_at"));
-        user.setUpdatedAt(rs.getTimestamp("updated_at"));
-        return user;
-    }
 }
@@ -0,0 +1,162 @@
+package com.example.keycloak.storage.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * User Search Criteria - combined filters of an admin user search, rendered as one
+ * parameterized WHERE clause. Attribute filters match substrings case-insensitively
+ * unless exact; the free-text search follows Keycloak's syntax ("*" matches all,
+ * "*" inside a term is a wildcard, a quoted term matches exactly).
+ */
+public class UserSearchCriteria {
+    private String search;
+    private String username;
+    private String email;
+    private String firstName;
+    private String lastName;
+    private Boolean enabled;
+    private boolean exact;
+
+    public UserSearchCriteria search(String search) {
+        this.search = search;
+        return this;
+    }
+
+    public UserSearchCriteria username(String username) {
+        this.username = username;
+        return this;
+    }
+
+    public UserSearchCriteria email(String email) {
+        this.email = email;
+        return this;
+    }
+
+    public UserSearchCriteria firstName(String firstName) {
+        this.firstName = firstName;
+        return this;
+    }
+
+    public UserSearchCriteria lastName(String lastName) {
+        this.lastName = lastName;
+        return this;
+    }
+
+    public UserSearchCriteria enabled(Boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public UserSearchCriteria exact(boolean exact) {
+        this.exact = exact;
+        return this;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Whether only one exact username or email is given, which a key lookup answers
+     */
+    public boolean isExactKeyLookup() {
+        return exact && search == null && firstName == null && lastName == null && enabled == null
+                && (username == null) != (email == null);
+    }
+
+    /**
+     * Render the filters as a WHERE clause body with JDBC placeholders, appending the parameters
+     */
+    public String toSql(List<Object> params) {
+        List<String> conditions = new ArrayList<>();
+        if (search != null) {
+            String term = search.trim();
+            if (term.length() > 1 && term.startsWith("\"") && term.endsWith("\"")) {
+                String value = term.substring(1, term.length() - 1);
+                conditions.add("(lower(username) = lower(?) OR lower(email) = lower(?)" +
+                        " OR lower(first_name) = lower(?) OR lower(last_name) = lower(?))");
+                for (int i = 0; i < 4; i++) {
+                    params.add(value);
+                }
+            } else if (!term.isEmpty() && !term.equals("*")) {
+                String pattern = likePattern(term);
+                conditions.add("(username ILIKE ? OR email ILIKE ? OR first_name ILIKE ? OR last_name ILIKE ?)");
+                for (int i = 0; i < 4; i++) {
+                    params.add(pattern);
+                }
+            }
+        }
+        addAttribute(conditions, params, "username", username);
+        addAttribute(conditions, params, "email", email);
+        addAttribute(conditions, params, "first_name", firstName);
+        addAttribute(conditions, params, "last_name", lastName);
+        if (enabled != null) {
+            // A NULL enabled column reads as disabled
+            conditions.add(enabled ? "enabled = TRUE" : "enabled IS NOT TRUE");
+        }
+        return conditions.isEmpty() ? "TRUE" : String.join(" AND ", conditions);
+    }
+
+    private void addAttribute(List<String> conditions, List<Object> params, String column, String value) {
+        if (value == null) {
+            return;
+        }
+        if (exact) {
+            conditions.add("lower(" + column + ") = lower(?)");
+            params.add(value);
+        } else {
+            conditions.add(column + " ILIKE ?");
+            params.add("%" + escapeLike(value) + "%");
+        }
+    }
+
+    private static String likePattern(String term) {
+        String escaped = escapeLike(term).replace('*', '%');
+        return term.contains("*") ? escaped : "%" + escaped + "%";
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * Criteria are equal when they select the same users, e.g. as cache keys; do not change
+     * criteria once used as a key
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UserSearchCriteria)) {
+            return false;
+        }
+        UserSearchCriteria other = (UserSearchCriteria) o;
+        return exact == other.exact && Objects.equals(search, other.search)
+                && Objects.equals(username, other.username) && Objects.equals(email, other.email)
+                && Objects.equals(firstName, other.firstName) && Objects.equals(lastName, other.lastName)
+                && Objects.equals(enabled, other.enabled);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(search, username, email, firstName, lastName, enabled, exact);
+    }
+
+    @Override
+    public String toString() {
+        return "UserSearchCriteria{search=" + search + ", username=" + username + ", email=" + email
+                + ", firstName=" + firstName + ", lastName=" + lastName + ", enabled=" + enabled
+                + ", exact=" + exact + "}";
+    }
+}
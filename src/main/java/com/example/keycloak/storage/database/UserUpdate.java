@@ -0,0 +1,43 @@
+package com.example.keycloak.storage.database;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * User Update - dirty fields of a single external user, coalesced so that
+ * repeated writes to the same field keep only the latest value
+ */
+public class UserUpdate {
+    private final Long userId;
+    private final EnumMap<UserField, Object> fields = new EnumMap<>(UserField.class);
+
+    public UserUpdate(Long userId) {
+        this.userId = userId;
+    }
+
+    public void set(UserField field, Object value) {
+        fields.put(field, value);
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    /**
+     * Dirty fields in declaration order, so updates touching the same
+     * columns produce the same statement and can share a JDBC batch
+     */
+    public Set<UserField> getDirtyFields() {
+        return Collections.unmodifiableSet(fields.keySet());
+    }
+
+    public Map<UserField, Object> getValues() {
+        return Collections.unmodifiableMap(fields);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.keycloak.storage.export;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Export Column - columns of the users table that can be projected into an export
+ */
+public enum ExportColumn {
+    ID("id", Kind.NUMBER),
+    USERNAME("username", Kind.TEXT),
+    EMAIL("email", Kind.TEXT),
+    FIRST_NAME("first_name", Kind.TEXT),
+    LAST_NAME("last_name", Kind.TEXT),
+    ENABLED("enabled", Kind.BOOLEAN),
+    CREATED_AT("created_at", Kind.TIMESTAMP),
+    UPDATED_AT("updated_at", Kind.TIMESTAMP),
+    /** only exported when requested explicitly */
+    PASSWORD_HASH("password_hash", Kind.TEXT);
+
+    enum Kind { NUMBER, TEXT, BOOLEAN, TIMESTAMP }
+
+    private final String column;
+    private final Kind kind;
+
+    ExportColumn(String column, Kind kind) {
+        this.column = column;
+        this.kind = kind;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Every column except the password hash
+     */
+    public static List<ExportColumn> defaults() {
+        return new ArrayList<>(EnumSet.complementOf(EnumSet.of(PASSWORD_HASH)));
+    }
+
+    /**
+     * Parse a comma-separated list of column names, e.g. "id,username,email"
+     */
+    public static List<ExportColumn> parse(String columns) {
+        List<ExportColumn> parsed = new ArrayList<>();
+        for (String name : columns.split(",")) {
+            String column = name.trim().toLowerCase(Locale.ROOT);
+            ExportColumn match = null;
+            for (ExportColumn candidate : values()) {
+                if (candidate.column.equals(column)) {
+                    match = candidate;
+                }
+            }
+            if (match == null) {
+                throw new IllegalArgumentException("Unknown export column: " + name.trim());
+            }
+            parsed.add(match);
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.keycloak.storage.export;
+
+/**
+ * Export Format - one JSON object per line, or CSV with a header row (RFC 4180 quoting)
+ */
+public enum ExportFormat {
+    NDJSON,
+    CSV
+}
@@ -0,0 +1,208 @@
+package com.example.keycloak.storage.export;
+
+import com.example.keycloak.storage.database.DatabaseConnectionManager;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * User Exporter - streams the users table through a server-side cursor into a channel as
+ * NDJSON or CSV. Rows are formatted straight from the result set into a reusable buffer,
+ * so memory use does not depend on the number of users; JSON strings are escaped by Jackson.
+ * The export runs on a background connection, outside the request concurrency limit.
+ * Command line: UserExportTool in src/perf.
+ */
+public class UserExporter {
+    private static final int FETCH_SIZE = 10_000;
+    private static final int BUFFER_CHARS = 64 * 1024;
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    private final DatabaseConnectionManager connectionManager;
+
+    public UserExporter(DatabaseConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    /**
+     * Export all users ordered by id
+     *
+     * @return number of rows written
+     */
+    public long export(WritableByteChannel channel, ExportFormat format, List<ExportColumn> columns)
+            throws SQLException, IOException {
+        StringJoiner select = new StringJoiner(", ", "SELECT ", " FROM users ORDER BY id");
+        columns.forEach(column -> select.add(column.getColumn()));
+
+        RowWriter writer = new RowWriter(channel);
+        long rows = 0;
+        try (Connection conn = connectionManager.getBackgroundConnection()) {
+            // PostgreSQL only streams with a fetch size inside a transaction
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(select.toString(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(FETCH_SIZE);
+                if (format == ExportFormat.CSV) {
+                    writeCsvHeader(writer.buffer, columns);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (format == ExportFormat.CSV) {
+                            writeCsvRow(writer.buffer, rs, columns);
+                        } else {
+                            writeJsonRow(writer.buffer, rs, columns);
+                        }
+                        rows++;
+                        writer.flushIfFull();
+                    }
+                }
+            } finally {
+                conn.rollback();
+            }
+        }
+        writer.flush();
+        return rows;
+    }
+
+    private static void writeJsonRow(StringBuilder out, ResultSet rs, List<ExportColumn> columns) throws SQLException {
+        out.append('{');
+        for (int i = 0; i < columns.size(); i++) {
+            ExportColumn column = columns.get(i);
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append('"').append(column.getColumn()).append("\":");
+            String value = value(rs, i + 1, column);
+            if (value == null) {
+                out.append("null");
+            } else if (column.getKind() == ExportColumn.Kind.NUMBER || column.getKind() == ExportColumn.Kind.BOOLEAN) {
+                out.append(value);
+            } else {
+                appendJsonString(out, value);
+            }
+        }
+        out.append("}\n");
+    }
+
+    private static void writeCsvHeader(StringBuilder out, List<ExportColumn> columns) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(columns.get(i).getColumn());
+        }
+        out.append("\r\n");
+    }
+
+    private static void writeCsvRow(StringBuilder out, ResultSet rs, List<ExportColumn> columns) throws SQLException {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            String value = value(rs, i + 1, columns.get(i));
+            if (value != null) {
+                appendCsvField(out, value);
+            }
+        }
+        out.append("\r\n");
+    }
+
+    private static String value(ResultSet rs, int index, ExportColumn column) throws SQLException {
+        switch (column.getKind()) {
+            case BOOLEAN:
+                boolean enabled = rs.getBoolean(index);
+                return rs.wasNull() ? null : (enabled ? "true" : "false");
+            case TIMESTAMP:
+                // PostgreSQL text form "yyyy-MM-dd HH:mm:ss[.ffffff]", made ISO-8601
+                String timestamp = rs.getString(index);
+                return timestamp != null ? timestamp.replace(' ', 'T') : null;
+            default:
+                return rs.getString(index);
+        }
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        JsonStringEncoder.getInstance().quoteAsString(value, out);
+        out.append('"');
+    }
+
+    private static void appendCsvField(StringBuilder out, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    /**
+     * Formats into a char buffer and encodes it into a reusable byte buffer on flush
+     */
+    private static final class RowWriter {
+        private final WritableByteChannel channel;
+        private final StringBuilder buffer = new StringBuilder(BUFFER_CHARS + 1024);
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+        private RowWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        private void flushIfFull() throws IOException {
+            if (buffer.length() >= BUFFER_CHARS) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            CharBuffer chars = CharBuffer.wrap(buffer);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, true);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isError()) {
+                    result.throwException();
+                }
+            } while (result.isOverflow());
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+            buffer.setLength(0);
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
+}
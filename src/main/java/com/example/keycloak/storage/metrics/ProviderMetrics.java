@@ -0,0 +1,82 @@
+package com.example.keycloak.storage.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Provider Metrics - lightweight in-process counters, gauges and timers
+ * shared by all provider components and reported periodically by the factory
+ */
+public final class ProviderMetrics {
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private ProviderMetrics() {
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public static void gauge(String name, Supplier<? extends Number> value) {
+        gauges.put(name, value);
+    }
+
+    public static void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Point-in-time view of all metrics, sorted by name
+     */
+    public static Map<String, Number> snapshot() {
+        Map<String, Number> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.get()));
+        timers.forEach((name, timer) -> {
+            snapshot.put(name + ".count", timer.getCount());
+            snapshot.put(name + ".avgMillis", timer.getAverageMillis());
+            snapshot.put(name + ".maxMillis", timer.getMaxMillis());
+        });
+        return snapshot;
+    }
+
+    /**
+     * Timer - count, total and maximum duration of an operation
+     */
+    public static final class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getAverageMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / (double) n / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
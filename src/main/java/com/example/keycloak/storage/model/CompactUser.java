@@ -0,0 +1,97 @@
+package com.example.keycloak.storage.model;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+
+import java.util.Date;
+
+/**
+ * Compact User - immutable, memory-lean form of an ExternalUser for long-lived caches.
+ * The id and timestamps are primitives (epoch millis, no Long or Date objects) and first
+ * and last names are pooled. Username and email are kept as read; the cache's indexes key
+ * on these same instances unless key normalization had to lower-case them. Converted back
+ * to a mutable ExternalUser when handed out.
+ */
+public final class CompactUser {
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final StringPool POOL = new StringPool(100_000);
+
+    static {
+        ProviderMetrics.gauge("model.pooledStrings", POOL::size);
+    }
+
+    private final long id;
+    private final long createdAt;
+    private final long updatedAt;
+    private final boolean enabled;
+    private final String username;
+    private final String email;
+    private final String firstName;
+    private final String lastName;
+    private final String passwordHash;
+
+    private CompactUser(ExternalUser user) {
+        this.id = user.getId();
+        this.createdAt = user.getCreatedAt() != null ? user.getCreatedAt().getTime() : NO_TIMESTAMP;
+        this.updatedAt = user.getUpdatedAt() != null ? user.getUpdatedAt().getTime() : NO_TIMESTAMP;
+        this.enabled = user.isEnabled();
+        this.username = user.getUsername();
+        this.email = user.getEmail();
+        this.firstName = POOL.intern(user.getFirstName());
+        this.lastName = POOL.intern(user.getLastName());
+        this.passwordHash = user.getPasswordHash();
+    }
+
+    /**
+     * Compact copy of a user, which must have an id
+     */
+    public static CompactUser of(ExternalUser user) {
+        return new CompactUser(user);
+    }
+
+    /**
+     * Mutable copy for adapters
+     */
+    public ExternalUser toExternalUser() {
+        ExternalUser user = new ExternalUser(id, username, email, firstName, lastName, passwordHash, enabled);
+        user.setCreatedAt(createdAt != NO_TIMESTAMP ? new Date(createdAt) : null);
+        user.setUpdatedAt(updatedAt != NO_TIMESTAMP ? new Date(updatedAt) : null);
+        return user;
+    }
+
+    /**
+     * Whether the user carries the same last-update time as this copy
+     */
+    public boolean hasSameUpdatedAt(ExternalUser user) {
+        long other = user.getUpdatedAt() != null ? user.getUpdatedAt().getTime() : NO_TIMESTAMP;
+        return other == updatedAt;
+    }
+
+    /**
+     * Approximate heap retained by this user in bytes: the object and the strings it does
+     * not share through the pool (String object plus Latin-1 array, per string); index keys
+     * are the cache's to count
+     */
+    public int estimatedBytes() {
+        return 56 + stringBytes(username) + stringBytes(email) + stringBytes(passwordHash);
+    }
+
+    private static int stringBytes(String value) {
+        return value != null ? 40 + value.length() : 0;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
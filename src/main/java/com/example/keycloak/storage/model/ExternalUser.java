@@ -30,6 +30,21 @@ public class ExternalUser {
         this.enabled = enabled;
     }
 
+    /**
+     * Copy constructor - used to hand out cached users that adapters may modify
+     */
+    public ExternalUser(ExternalUser other) {
+        this.id = other.id;
+        this.username = other.username;
+        this.email = other.email;
+        this.firstName = other.firstName;
+        this.lastName = other.lastName;
+        this.passwordHash = other.passwordHash;
+        this.enabled = other.enabled;
+        this.createdAt = other.createdAt;
+        this.updatedAt = other.updatedAt;
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
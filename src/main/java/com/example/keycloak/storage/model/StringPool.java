@@ -0,0 +1,37 @@
+package com.example.keycloak.storage.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * String Pool - deduplicates frequently repeated values (first and last names) so
+ * cached users share one instance per distinct value. The pool is bounded:
+ * once full, new values are returned as they are instead of being pooled.
+ */
+public class StringPool {
+    private final ConcurrentMap<String, String> values = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    public StringPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String pooled = values.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (values.size() >= maxSize) {
+            return value;
+        }
+        pooled = values.putIfAbsent(value, value);
+        return pooled != null ? pooled : value;
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.keycloak.storage.model;
+
+/**
+ * User Index Entry - the lookup columns of a user (id, username, email, enabled, updated_at)
+ */
+public class UserIndexEntry {
+    private final long id;
+    private final String username;
+    private final String email;
+    private final boolean enabled;
+    private final long updatedAt;
+
+    public UserIndexEntry(long id, String username, String email, boolean enabled, long updatedAt) {
+        this.id = id;
+        this.username = username;
+        this.email = email;
+        this.enabled = enabled;
+        this.updatedAt = updatedAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Last update time in epoch milliseconds
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.keycloak.storage.password;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Argon2id hashes in PHC string format ($argon2id$v=19$m=65536,t=3,p=1$salt$hash)
+ */
+public class Argon2PasswordVerifier implements PasswordVerifier {
+    public static final String PREFIX = "$argon2id$";
+    public static final int DEFAULT_MEMORY_KB = 65536;
+    public static final int DEFAULT_ITERATIONS = 3;
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final SecureRandom random = new SecureRandom();
+    private final int memoryKb;
+    private final int iterations;
+    private final int parallelism;
+
+    public Argon2PasswordVerifier(int memoryKb, int iterations, int parallelism) {
+        this.memoryKb = memoryKb;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public String getId() {
+        return "argon2id";
+    }
+
+    @Override
+    public List<String> getPrefixes() {
+        return List.of(PREFIX);
+    }
+
+    @Override
+    public boolean verify(String plainPassword, String hashedPassword) {
+        // ["", "argon2id", "v=19", "m=..,t=..,p=..", salt, hash]
+        String[] parts = hashedPassword.split("\\$");
+        if (parts.length != 6) {
+            return false;
+        }
+        int version = Integer.parseInt(parts[2].substring(2));
+        int[] params = parseParams(parts[3]);
+        byte[] salt = DECODER.decode(parts[4]);
+        byte[] expected = DECODER.decode(parts[5]);
+        byte[] actual = argon2(plainPassword, salt, version, params[0], params[1], params[2], expected.length);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    @Override
+    public String hash(String plainPassword) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = argon2(plainPassword, salt, Argon2Parameters.ARGON2_VERSION_13,
+                memoryKb, iterations, parallelism, HASH_BYTES);
+        return PREFIX + "v=" + Argon2Parameters.ARGON2_VERSION_13 + "$m=" + memoryKb + ",t=" + iterations
+                + ",p=" + parallelism + "$" + ENCODER.encodeToString(salt) + "$" + ENCODER.encodeToString(hash);
+    }
+
+    @Override
+    public boolean needsRehash(String hashedPassword) {
+        String[] parts = hashedPassword.split("\\$");
+        if (parts.length != 6) {
+            return true;
+        }
+        int[] params = parseParams(parts[3]);
+        return params[0] < memoryKb || params[1] < iterations;
+    }
+
+    /**
+     * Parse "m=65536,t=3,p=1" into {memory, iterations, parallelism}
+     */
+    private static int[] parseParams(String encoded) {
+        int[] params = new int[3];
+        for (String param : encoded.split(",")) {
+            int value = Integer.parseInt(param.substring(2));
+            switch (param.charAt(0)) {
+                case 'm': params[0] = value; break;
+                case 't': params[1] = value; break;
+                case 'p': params[2] = value; break;
+                default: throw new IllegalArgumentException("Unknown Argon2 parameter: " + param);
+            }
+        }
+        return params;
+    }
+
+    private static byte[] argon2(String password, byte[] salt, int version, int memoryKb,
+                                 int iterations, int parallelism, int length) {
+        Argon2Parameters parameters = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(version)
+                .withMemoryAsKB(memoryKb)
+                .withIterations(iterations)
+                .withParallelism(parallelism)
+                .withSalt(salt)
+                .build();
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(parameters);
+        byte[] hash = new byte[length];
+        generator.generateBytes(password.toCharArray(), hash);
+        return hash;
+    }
+}
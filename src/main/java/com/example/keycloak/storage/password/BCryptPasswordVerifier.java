@@ -0,0 +1,55 @@
+package com.example.keycloak.storage.password;
+
+import org.bouncycastle.crypto.generators.OpenBSDBCrypt;
+
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * BCrypt hashes ($2a$, $2b$, $2y$) backed by the BouncyCastle implementation shipped with Keycloak
+ */
+public class BCryptPasswordVerifier implements PasswordVerifier {
+    public static final int DEFAULT_COST = 12;
+
+    private static final String VERSION = "2b";
+    private static final int SALT_BYTES = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final int cost;
+
+    public BCryptPasswordVerifier(int cost) {
+        this.cost = cost;
+    }
+
+    @Override
+    public String getId() {
+        return "bcrypt";
+    }
+
+    @Override
+    public List<String> getPrefixes() {
+        return List.of("$2a$", "$2b$", "$2y$");
+    }
+
+    @Override
+    public boolean verify(String plainPassword, String hashedPassword) {
+        return OpenBSDBCrypt.checkPassword(hashedPassword, plainPassword.toCharArray());
+    }
+
+    @Override
+    public String hash(String plainPassword) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return OpenBSDBCrypt.generate(VERSION, plainPassword.toCharArray(), salt, cost);
+    }
+
+    @Override
+    public boolean needsRehash(String hashedPassword) {
+        // $2b$12$... - cost is the two digits after the version
+        try {
+            return Integer.parseInt(hashedPassword.substring(4, 6)) < cost;
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+}
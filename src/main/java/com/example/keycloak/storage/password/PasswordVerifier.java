@@ -0,0 +1,40 @@
+package com.example.keycloak.storage.password;
+
+import java.util.List;
+
+/**
+ * Password Verifier - one password hashing scheme, identified by the prefixes of its encoded hashes
+ */
+public interface PasswordVerifier {
+
+    /**
+     * Short algorithm id used in configuration, e.g. "bcrypt"
+     */
+    String getId();
+
+    /**
+     * Encoded hash prefixes handled by this verifier, e.g. "$2a$" or "{SHA256}"
+     */
+    List<String> getPrefixes();
+
+    boolean verify(String plainPassword, String hashedPassword);
+
+    /**
+     * Encode a new hash with the configured cost parameters
+     */
+    String hash(String plainPassword);
+
+    /**
+     * Whether hashes of this scheme are only verified and upgraded, never chosen for new hashes
+     */
+    default boolean isLegacy() {
+        return false;
+    }
+
+    /**
+     * Whether the stored hash was produced with weaker parameters than currently configured
+     */
+    default boolean needsRehash(String hashedPassword) {
+        return false;
+    }
+}
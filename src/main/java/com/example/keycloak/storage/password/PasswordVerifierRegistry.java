@@ -0,0 +1,92 @@
+package com.example.keycloak.storage.password;
+
+import org.jboss.logging.Logger;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Password Verifier Registry - picks the verifier for a stored hash from its prefix.
+ *
+ * Every supported prefix is delimited by its first and last character ("{...}" or "$...$"),
+ * so the scheme is found with one bounded scan for the closing delimiter and a single map lookup.
+ */
+public class PasswordVerifierRegistry {
+    private static final Logger logger = Logger.getLogger(PasswordVerifierRegistry.class);
+    private static final int MAX_PREFIX_LENGTH = 16;
+
+    private final Map<String, PasswordVerifier> byPrefix = new HashMap<>();
+    private final Map<String, PasswordVerifier> byId = new LinkedHashMap<>();
+    private final PasswordVerifier fallback;
+    private volatile PasswordVerifier current;
+
+    /**
+     * @param fallback verifier for hashes without a recognised prefix
+     */
+    public PasswordVerifierRegistry(PasswordVerifier fallback) {
+        this.fallback = fallback;
+    }
+
+    public synchronized PasswordVerifierRegistry register(PasswordVerifier verifier) {
+        for (String prefix : verifier.getPrefixes()) {
+            byPrefix.put(prefix, verifier);
+        }
+        byId.put(verifier.getId(), verifier);
+        return this;
+    }
+
+    /**
+     * Select the algorithm used for new hashes; legacy schemes always ask for a rehash and are refused
+     */
+    public void setCurrent(String id) {
+        PasswordVerifier verifier = byId.get(id);
+        if (verifier == null) {
+            throw new IllegalArgumentException("Unknown password hash algorithm: " + id);
+        }
+        if (verifier.isLegacy()) {
+            throw new IllegalArgumentException("Password hash algorithm " + id + " cannot be used for new hashes");
+        }
+        logger.infof("Password hash algorithm for new hashes: %s", id);
+        current = verifier;
+    }
+
+    public PasswordVerifier getCurrent() {
+        return current;
+    }
+
+    public PasswordVerifier get(String id) {
+        return byId.get(id);
+    }
+
+    public Collection<PasswordVerifier> getAll() {
+        return byId.values();
+    }
+
+    /**
+     * Find the verifier for an encoded hash, falling back to the plain text verifier
+     */
+    public PasswordVerifier resolve(String hashedPassword) {
+        if (hashedPassword.length() < 2) {
+            return fallback;
+        }
+
+        char open = hashedPassword.charAt(0);
+        char close;
+        if (open == '{') {
+            close = '}';
+        } else if (open == '$') {
+            close = '$';
+        } else {
+            return fallback;
+        }
+
+        int end = hashedPassword.indexOf(close, 1);
+        if (end < 0 || end >= MAX_PREFIX_LENGTH) {
+            return fallback;
+        }
+        PasswordVerifier verifier = byPrefix.get(hashedPassword.substring(0, end + 1));
+        return verifier != null ? verifier : fallback;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.keycloak.storage.password;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * PBKDF2-HMAC-SHA256 hashes ({PBKDF2}iterations$salt$hash)
+ */
+public class Pbkdf2PasswordVerifier implements PasswordVerifier {
+    public static final String PREFIX = "{PBKDF2}";
+    public static final int DEFAULT_ITERATIONS = 310000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+
+    private final SecureRandom random = new SecureRandom();
+    private final int iterations;
+
+    public Pbkdf2PasswordVerifier(int iterations) {
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String getId() {
+        return "pbkdf2";
+    }
+
+    @Override
+    public List<String> getPrefixes() {
+        return List.of(PREFIX);
+    }
+
+    @Override
+    public boolean verify(String plainPassword, String hashedPassword) {
+        int saltStart = hashedPassword.indexOf('$', PREFIX.length());
+        int hashStart = hashedPassword.indexOf('$', saltStart + 1);
+        if (saltStart < 0 || hashStart < 0) {
+            return false;
+        }
+        int storedIterations = Integer.parseInt(hashedPassword.substring(PREFIX.length(), saltStart));
+        byte[] salt = Base64.getDecoder().decode(hashedPassword.substring(saltStart + 1, hashStart));
+        byte[] expected = Base64.getDecoder().decode(hashedPassword.substring(hashStart + 1));
+        return MessageDigest.isEqual(expected, pbkdf2(plainPassword, salt, storedIterations, expected.length * 8));
+    }
+
+    @Override
+    public String hash(String plainPassword) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(plainPassword, salt, iterations, KEY_BITS);
+        return PREFIX + iterations + "$" + Base64.getEncoder().encodeToString(salt)
+                + "$" + Base64.getEncoder().encodeToString(hash);
+    }
+
+    @Override
+    public boolean needsRehash(String hashedPassword) {
+        int end = hashedPassword.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 || Integer.parseInt(hashedPassword.substring(PREFIX.length(), end)) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations, int keyBits) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyBits);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 algorithm not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
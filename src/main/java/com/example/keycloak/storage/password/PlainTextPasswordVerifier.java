@@ -0,0 +1,46 @@
+package com.example.keycloak.storage.password;
+
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Plain text passwords (development only) - always flagged for rehash
+ */
+public class PlainTextPasswordVerifier implements PasswordVerifier {
+    private static final Logger logger = Logger.getLogger(PlainTextPasswordVerifier.class);
+
+    @Override
+    public String getId() {
+        return "plain";
+    }
+
+    @Override
+    public List<String> getPrefixes() {
+        return List.of();
+    }
+
+    @Override
+    public boolean verify(String plainPassword, String hashedPassword) {
+        logger.warn("Plain text password detected - not secure for production!");
+        return MessageDigest.isEqual(plainPassword.getBytes(StandardCharsets.UTF_8),
+                hashedPassword.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String hash(String plainPassword) {
+        throw new UnsupportedOperationException("Plain text passwords cannot be used for new hashes");
+    }
+
+    @Override
+    public boolean isLegacy() {
+        return true;
+    }
+
+    @Override
+    public boolean needsRehash(String hashedPassword) {
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.keycloak.storage.password;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Legacy unsalted SHA-256 hashes ({SHA256}base64) - verification only, never used for new hashes
+ * in production. The digest is reused per thread and compared as raw bytes, so verification
+ * allocates neither a MessageDigest nor a Base64 string.
+ */
+public class Sha256PasswordVerifier implements PasswordVerifier {
+    public static final String PREFIX = "{SHA256}";
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found", e);
+        }
+    });
+
+    @Override
+    public String getId() {
+        return "sha256";
+    }
+
+    @Override
+    public List<String> getPrefixes() {
+        return List.of(PREFIX);
+    }
+
+    @Override
+    public boolean verify(String plainPassword, String hashedPassword) {
+        byte[] expected = Base64.getDecoder().decode(hashedPassword.substring(PREFIX.length()));
+        return MessageDigest.isEqual(expected, digest(plainPassword));
+    }
+
+    @Override
+    public String hash(String plainPassword) {
+        return PREFIX + Base64.getEncoder().encodeToString(digest(plainPassword));
+    }
+
+    @Override
+    public boolean isLegacy() {
+        return true;
+    }
+
+    @Override
+    public boolean needsRehash(String hashedPassword) {
+        return true;
+    }
+
+    private static byte[] digest(String plainPassword) {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        return md.digest(plainPassword.getBytes(StandardCharsets.UTF_8));
+    }
+}
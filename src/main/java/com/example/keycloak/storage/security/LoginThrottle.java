@@ -0,0 +1,139 @@
+package com.example.keycloak.storage.security;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Login Throttle - token buckets for login attempts keyed by username and client IP,
+ * checked before any database lookup or password hashing.
+ *
+ * Every key has its own bucket, so one user's attempts never throttle another. Buckets
+ * live in striped LRU maps bounded to maxKeys: an attacker cycling through more keys only
+ * evicts the least recently used buckets (which then start full again) and cannot lock
+ * out users it is not guessing for. Per-address buckets are optional, behind a reverse
+ * proxy without forwarded headers every login shares the proxy's address.
+ */
+public class LoginThrottle {
+    private static final int STRIPES = 64;
+
+    private final BucketMap usernames;
+    private final BucketMap addresses;
+    private final LongAdder throttled = ProviderMetrics.counter("throttle.rejected");
+
+    /**
+     * @param maxKeys     buckets kept per map, bounds memory to about 2 * maxKeys small objects
+     * @param ipPerMinute 0 disables the per-address buckets
+     */
+    public LoginThrottle(int maxKeys, int usernameBurst, int usernamePerMinute, int ipBurst, int ipPerMinute) {
+        this.usernames = new BucketMap(maxKeys, usernameBurst, usernamePerMinute);
+        this.addresses = ipPerMinute > 0 ? new BucketMap(maxKeys, ipBurst, ipPerMinute) : null;
+    }
+
+    /**
+     * Charge one attempt to the username and, when known, the client address
+     *
+     * @return false if the attempt must be rejected
+     */
+    public boolean tryAcquire(String username, String clientAddress) {
+        String usernameKey = username.toLowerCase(Locale.ROOT);
+        boolean checkAddress = addresses != null && clientAddress != null;
+        long now = System.nanoTime();
+
+        // Check both first, then charge, so a rejected attempt does not drain the other bucket
+        boolean allowed = usernames.hasToken(usernameKey, now)
+                && (!checkAddress || addresses.hasToken(clientAddress, now));
+        if (!allowed) {
+            throttled.increment();
+            return false;
+        }
+        usernames.take(usernameKey, now);
+        if (checkAddress) {
+            addresses.take(clientAddress, now);
+        }
+        return true;
+    }
+
+    private static final class BucketMap {
+        private final double capacity;
+        private final double refillPerNano;
+        private final Segment[] segments = new Segment[STRIPES];
+
+        private BucketMap(int maxKeys, int burst, int perMinute) {
+            this.capacity = burst;
+            this.refillPerNano = perMinute / 60_000_000_000.0;
+            int perSegment = Math.max(1, maxKeys / STRIPES);
+            for (int i = 0; i < STRIPES; i++) {
+                segments[i] = new Segment(perSegment);
+            }
+        }
+
+        private boolean hasToken(String key, long now) {
+            Segment segment = segment(key);
+            synchronized (segment) {
+                Bucket bucket = segment.get(key);
+                return bucket == null || refill(bucket, now) >= 1;
+            }
+        }
+
+        private void take(String key, long now) {
+            Segment segment = segment(key);
+            synchronized (segment) {
+                Bucket bucket = segment.computeIfAbsent(key, k -> new Bucket(capacity, now));
+                bucket.tokens = Math.max(0, refill(bucket, now) - 1);
+            }
+        }
+
+        private double refill(Bucket bucket, long now) {
+            long elapsed = now - bucket.lastRefill;
+            if (elapsed > 0) {
+                bucket.tokens = Math.min(capacity, bucket.tokens + elapsed * refillPerNano);
+                bucket.lastRefill = now;
+            }
+            return bucket.tokens;
+        }
+
+        private Segment segment(String key) {
+            return segments[Math.floorMod(murmurMix(key.hashCode()), STRIPES)];
+        }
+    }
+
+    /**
+     * Access-ordered map dropping its least recently used bucket beyond maxKeys
+     */
+    private static final class Segment extends LinkedHashMap<String, Bucket> {
+        private final int maxKeys;
+
+        private Segment(int maxKeys) {
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > maxKeys;
+        }
+    }
+
+    private static final class Bucket {
+        private double tokens;
+        private long lastRefill;
+
+        private Bucket(double tokens, long lastRefill) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+        }
+    }
+
+    private static int murmurMix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
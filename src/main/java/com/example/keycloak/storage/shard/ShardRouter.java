@@ -0,0 +1,101 @@
+package com.example.keycloak.storage.shard;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Shard Router - maps a lookup key to the shard holding the user.
+ * A key the strategy cannot route returns {@link #ALL_SHARDS} and is fanned out.
+ */
+public class ShardRouter {
+    public static final int ALL_SHARDS = -1;
+
+    public enum Strategy {
+        /** username hash, the way rows were distributed on insert */
+        USERNAME_HASH,
+        /** hash of the email domain, e.g. one shard per tenant domain */
+        EMAIL_DOMAIN,
+        /** contiguous id ranges, upper bounds (exclusive) configured per shard */
+        ID_RANGE
+    }
+
+    private final Strategy strategy;
+    private final int shardCount;
+    private final long[] idUpperBounds;
+
+    /**
+     * @param idUpperBounds exclusive upper id of every shard but the last, for ID_RANGE
+     */
+    public ShardRouter(Strategy strategy, int shardCount, long[] idUpperBounds) {
+        if (strategy == Strategy.ID_RANGE && idUpperBounds.length != shardCount - 1) {
+            throw new IllegalArgumentException("ID_RANGE needs " + (shardCount - 1) + " range bounds, got "
+                    + idUpperBounds.length);
+        }
+        this.strategy = strategy;
+        this.shardCount = shardCount;
+        this.idUpperBounds = idUpperBounds.clone();
+        Arrays.sort(this.idUpperBounds);
+    }
+
+    public int shardCount() {
+        return shardCount;
+    }
+
+    public int forUsername(String username) {
+        return strategy == Strategy.USERNAME_HASH ? bucket(username.toLowerCase(Locale.ROOT)) : ALL_SHARDS;
+    }
+
+    public int forEmail(String email) {
+        if (strategy != Strategy.EMAIL_DOMAIN) {
+            return ALL_SHARDS;
+        }
+        int at = email.lastIndexOf('@');
+        return at >= 0 ? bucket(email.substring(at + 1).toLowerCase(Locale.ROOT)) : ALL_SHARDS;
+    }
+
+    /**
+     * Whether lookups by this username reach the given shard. Rows are never moved between
+     * shards, so a rename must keep the user reachable where it is stored.
+     */
+    public boolean reachesByUsername(String username, int shard) {
+        int target = forUsername(username);
+        return target == ALL_SHARDS || target == shard;
+    }
+
+    /**
+     * Whether lookups by this email reach the given shard, see {@link #reachesByUsername}
+     */
+    public boolean reachesByEmail(String email, int shard) {
+        int target = forEmail(email);
+        return target == ALL_SHARDS || target == shard;
+    }
+
+    /**
+     * Whether user ids are unique across shards and locate the shard (ID_RANGE); otherwise
+     * ids are sharded ids carrying the shard index
+     */
+    public boolean routesById() {
+        return strategy == Strategy.ID_RANGE;
+    }
+
+    public int forId(long id) {
+        if (strategy != Strategy.ID_RANGE) {
+            return ALL_SHARDS;
+        }
+        int pos = Arrays.binarySearch(idUpperBounds, id);
+        // Bounds are exclusive: an id equal to a bound belongs to the next shard
+        return pos >= 0 ? pos + 1 : -pos - 1;
+    }
+
+    /**
+     * Java String.hashCode of the lower-cased key, mixed with the first two murmur3
+     * finalizer rounds, modulo the shard count. Rows inserted by other tools must agree.
+     */
+    private int bucket(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, shardCount);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.keycloak.storage.shard;
+
+/**
+ * Sharded Id - a user id that is unique across shards whose rows are numbered by their own
+ * sequences: the shard index in the high bits, the row id in the low SHARD_SHIFT bits.
+ *
+ * In Keycloak ids it is written as "&lt;shard&gt;:&lt;id&gt;", except on shard 0 where it is the
+ * plain row id, so an unsharded directory (and the first shard of a sharded one) keeps the
+ * ids users had before sharding.
+ */
+public final class ShardedId {
+    private static final int SHARD_SHIFT = 47;
+    private static final long LOCAL_ID_MASK = (1L << SHARD_SHIFT) - 1;
+    public static final int MAX_SHARDS = 1 << (63 - SHARD_SHIFT);
+
+    private ShardedId() {
+    }
+
+    public static long pack(int shard, long localId) {
+        if (localId < 0 || localId > LOCAL_ID_MASK) {
+            throw new IllegalArgumentException("User id " + localId + " out of range for a sharded id");
+        }
+        return ((long) shard << SHARD_SHIFT) | localId;
+    }
+
+    public static int shardOf(long id) {
+        return (int) (id >>> SHARD_SHIFT);
+    }
+
+    public static long localId(long id) {
+        return id & LOCAL_ID_MASK;
+    }
+
+    /**
+     * External id for Keycloak
+     */
+    public static String format(long id) {
+        int shard = shardOf(id);
+        return shard == 0 || id < 0 ? String.valueOf(id) : shard + ":" + localId(id);
+    }
+
+    /**
+     * Parse an external id written by {@link #format}
+     *
+     * @throws NumberFormatException if it is not one
+     */
+    public static long parse(String externalId) {
+        int colon = externalId.indexOf(':');
+        if (colon < 0) {
+            return Long.parseLong(externalId);
+        }
+        int shard = Integer.parseInt(externalId.substring(0, colon));
+        long localId = Long.parseLong(externalId.substring(colon + 1));
+        if (shard < 0 || shard >= MAX_SHARDS || localId < 0 || localId > LOCAL_ID_MASK) {
+            throw new NumberFormatException("Invalid sharded id: " + externalId);
+        }
+        return pack(shard, localId);
+    }
+}
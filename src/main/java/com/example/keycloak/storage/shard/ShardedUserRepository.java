@@ -0,0 +1,363 @@
+package com.example.keycloak.storage.shard;
+
+import com.example.keycloak.storage.database.UserRepository;
+import com.example.keycloak.storage.database.UserSearchCriteria;
+import com.example.keycloak.storage.database.UserUpdate;
+import com.example.keycloak.storage.model.ExternalUser;
+import com.example.keycloak.storage.model.UserIndexEntry;
+import org.jboss.logging.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Sharded User Repository - routes user operations to per-shard repositories.
+ *
+ * Lookups the router can place go to one shard; everything else fans out to all
+ * shards in parallel. Each shard numbers its rows with its own sequence, so users leave
+ * this repository with a ShardedId carrying the shard index and id-keyed operations go to
+ * that shard only; with ID_RANGE the ids are unique already and are routed by range. A
+ * fanned-out username or email lookup matching users on several shards finds none.
+ * Paged listings are merged by username in code point order, which the shard repositories
+ * produce with ORDER BY username COLLATE "C" (UTF-8 byte order); an index on
+ * (username COLLATE "C") on every shard lets them read pages without sorting.
+ */
+public class ShardedUserRepository implements UserRepository {
+    private static final Logger logger = Logger.getLogger(ShardedUserRepository.class);
+
+    private static final Comparator<ExternalUser> BY_USERNAME = Comparator.comparing(ExternalUser::getUsername,
+            Comparator.nullsLast(ShardedUserRepository::compareCodePoints));
+
+    private final List<UserRepository> shards;
+    private final ShardRouter router;
+    private final ExecutorService executor;
+
+    public ShardedUserRepository(List<UserRepository> shards, ShardRouter router, ExecutorService executor) {
+        this.shards = List.copyOf(shards);
+        this.router = router;
+        this.executor = executor;
+    }
+
+    /**
+     * Id of a user on a shard as handed out by this repository
+     */
+    public long globalId(int shard, long localId) {
+        return router.routesById() ? localId : ShardedId.pack(shard, localId);
+    }
+
+    @Override
+    public ExternalUser findByUsername(String username) {
+        return findOne(router.forUsername(username), "username " + username,
+                (index, shard) -> shard.findByUsername(username));
+    }
+
+    @Override
+    public ExternalUser findByEmail(String email) {
+        return findOne(router.forEmail(email), "email " + email, (index, shard) -> shard.findByEmail(email));
+    }
+
+    @Override
+    public ExternalUser findById(Long id) {
+        int shard = shardOf(id);
+        return shard < 0 ? null : withGlobalId(shard, shards.get(shard).findById(localId(id)));
+    }
+
+    @Override
+    public List<ExternalUser> findByIds(Collection<Long> ids) {
+        Map<Integer, List<Long>> idsByShard = new TreeMap<>();
+        for (Long id : ids) {
+            int shard = shardOf(id);
+            if (shard >= 0) {
+                idsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(localId(id));
+            }
+        }
+        List<ExternalUser> users = new ArrayList<>();
+        fanOut(idsByShard.keySet(), (index, shard) -> withGlobalIds(index, shard.findByIds(idsByShard.get(index))))
+                .forEach(users::addAll);
+        return users;
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(String searchTerm, int firstResult, int maxResults) {
+        return mergePage(firstResult, maxResults, shard -> shard.searchUsers(searchTerm, 0, pageEnd(firstResult, maxResults)));
+    }
+
+    @Override
+    public List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults) {
+        return mergePage(firstResult, maxResults, shard -> shard.searchUsers(criteria, 0, pageEnd(firstResult, maxResults)));
+    }
+
+    /**
+     * Every shard reads its first pageEnd rows, so every shard can count its matches;
+     * the total is reported only if all of them did
+     */
+    @Override
+    public List<ExternalUser> searchUsers(UserSearchCriteria criteria, int firstResult, int maxResults,
+                                          IntConsumer total) {
+        AtomicInteger sum = new AtomicInteger();
+        AtomicInteger reported = new AtomicInteger();
+        List<ExternalUser> page = mergePage(firstResult, maxResults,
+                shard -> shard.searchUsers(criteria, 0, pageEnd(firstResult, maxResults), shardTotal -> {
+                    sum.addAndGet(shardTotal);
+                    reported.incrementAndGet();
+                }));
+        if (reported.get() == shards.size()) {
+            total.accept(sum.get());
+        }
+        return page;
+    }
+
+    @Override
+    public int countUsers(UserSearchCriteria criteria) {
+        return fanOut((index, shard) -> shard.countUsers(criteria)).stream().mapToInt(Integer::intValue).sum();
+    }
+
+    @Override
+    public List<ExternalUser> getAllUsers(int firstResult, int maxResults) {
+        return mergePage(firstResult, maxResults, shard -> shard.getAllUsers(0, pageEnd(firstResult, maxResults)));
+    }
+
+    @Override
+    public int getUsersCount() {
+        return fanOut((index, shard) -> shard.getUsersCount()).stream().mapToInt(Integer::intValue).sum();
+    }
+
+    @Override
+    public int loadRecentlyUpdated(int limit, int timeoutSeconds, Predicate<ExternalUser> consumer) {
+        int perShard = Math.max(1, limit / shards.size());
+        int loaded = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            int index = i;
+            loaded += shards.get(i).loadRecentlyUpdated(perShard, timeoutSeconds,
+                    user -> consumer.test(withGlobalId(index, user)));
+        }
+        return loaded;
+    }
+
+    @Override
+    public int forEachIndexEntry(long updatedSince, Consumer<UserIndexEntry> consumer) throws SQLException {
+        int count = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            int index = i;
+            count += shards.get(i).forEachIndexEntry(updatedSince, entry -> consumer.accept(router.routesById()
+                    ? entry
+                    : new UserIndexEntry(globalId(index, entry.getId()), entry.getUsername(), entry.getEmail(),
+                            entry.isEnabled(), entry.getUpdatedAt())));
+        }
+        return count;
+    }
+
+    /**
+     * Each shard applies the updates of its own users, in parallel
+     */
+    @Override
+    public void applyUpdates(Collection<UserUpdate> updates) throws SQLException {
+        Map<Integer, List<UserUpdate>> updatesByShard = new TreeMap<>();
+        for (UserUpdate update : updates) {
+            int shard = shardOf(update.getUserId());
+            if (shard < 0) {
+                continue;
+            }
+            UserUpdate local = update;
+            if (!router.routesById()) {
+                local = new UserUpdate(localId(update.getUserId()));
+                update.getValues().forEach(local::set);
+            }
+            updatesByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(local);
+        }
+        try {
+            fanOut(updatesByShard.keySet(), (index, shard) -> {
+                try {
+                    shard.applyUpdates(updatesByShard.get(index));
+                    return null;
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean updatePasswordHash(Long id, String passwordHash) {
+        int shard = shardOf(id);
+        return shard >= 0 && shards.get(shard).updatePasswordHash(localId(id), passwordHash);
+    }
+
+    @Override
+    public boolean replacePasswordHash(Long id, String expectedHash, String newHash) {
+        int shard = shardOf(id);
+        return shard >= 0 && shards.get(shard).replacePasswordHash(localId(id), expectedHash, newHash);
+    }
+
+    @Override
+    public boolean deleteUser(Long id) {
+        int shard = shardOf(id);
+        return shard >= 0 && shards.get(shard).deleteUser(localId(id));
+    }
+
+    private static int pageEnd(int firstResult, int maxResults) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) firstResult + maxResults);
+    }
+
+    /**
+     * Shard holding the user with this id, -1 if the id belongs to none
+     */
+    private int shardOf(long id) {
+        int shard = router.routesById() ? router.forId(id) : ShardedId.shardOf(id);
+        return shard >= 0 && shard < shards.size() ? shard : -1;
+    }
+
+    private long localId(long id) {
+        return router.routesById() ? id : ShardedId.localId(id);
+    }
+
+    private ExternalUser withGlobalId(int shard, ExternalUser user) {
+        if (user != null && !router.routesById()) {
+            user.setId(ShardedId.pack(shard, user.getId()));
+        }
+        return user;
+    }
+
+    private List<ExternalUser> withGlobalIds(int shard, List<ExternalUser> users) {
+        users.forEach(user -> withGlobalId(shard, user));
+        return users;
+    }
+
+    /**
+     * Look up a user on the routed shard, or on all shards when the key cannot be routed;
+     * a key found on more than one shard is ambiguous and finds nobody
+     */
+    private ExternalUser findOne(int shard, String key, BiFunction<Integer, UserRepository, ExternalUser> lookup) {
+        if (shard != ShardRouter.ALL_SHARDS) {
+            return withGlobalId(shard, lookup.apply(shard, shards.get(shard)));
+        }
+        List<ExternalUser> found = fanOut(lookup);
+        ExternalUser match = null;
+        for (int i = 0; i < found.size(); i++) {
+            if (found.get(i) == null) {
+                continue;
+            }
+            if (match != null) {
+                logger.errorf("Users with %s exist on several shards, refusing the lookup", key);
+                return null;
+            }
+            match = withGlobalId(i, found.get(i));
+        }
+        return match;
+    }
+
+    /**
+     * Run the operation on every shard in parallel, results in shard order
+     */
+    private <T> List<T> fanOut(BiFunction<Integer, UserRepository, T> operation) {
+        List<Integer> all = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            all.add(i);
+        }
+        return fanOut(all, operation);
+    }
+
+    /**
+     * Run the operation on the given shards in parallel, results in the given order
+     */
+    private <T> List<T> fanOut(Collection<Integer> shardIndexes, BiFunction<Integer, UserRepository, T> operation) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shardIndexes.size());
+        for (Integer index : shardIndexes) {
+            UserRepository shard = shards.get(index);
+            futures.add(CompletableFuture.supplyAsync(() -> operation.apply(index, shard), executor));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Fetch the first firstResult + maxResults rows of every shard, then k-way merge
+     * the username-ordered lists and cut out the requested page
+     */
+    private List<ExternalUser> mergePage(int firstResult, int maxResults,
+                                         Function<UserRepository, List<ExternalUser>> query) {
+        return merge(fanOut((index, shard) -> withGlobalIds(index, query.apply(shard))), firstResult, maxResults);
+    }
+
+    private List<ExternalUser> merge(List<List<ExternalUser>> perShard, int firstResult, int maxResults) {
+        PriorityQueue<Cursor> heads = new PriorityQueue<>((a, b) -> BY_USERNAME.compare(a.current(), b.current()));
+        for (List<ExternalUser> users : perShard) {
+            if (!users.isEmpty()) {
+                heads.add(new Cursor(users));
+            }
+        }
+
+        List<ExternalUser> page = new ArrayList<>(Math.min(maxResults, 256));
+        int position = 0;
+        while (!heads.isEmpty() && page.size() < maxResults) {
+            Cursor head = heads.poll();
+            if (position++ >= firstResult) {
+                page.add(head.current());
+            }
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        logger.debugf("Merged page of %d users from %d shards", page.size(), perShard.size());
+        return page;
+    }
+
+    /**
+     * String order by code point; String.compareTo compares UTF-16 units, which sorts
+     * supplementary characters before U+E000..U+FFFF unlike the "C" collation
+     */
+    static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    private static final class Cursor {
+        private final List<ExternalUser> users;
+        private int index;
+
+        private Cursor(List<ExternalUser> users) {
+            this.users = users;
+        }
+
+        private ExternalUser current() {
+            return users.get(index);
+        }
+
+        private boolean advance() {
+            return ++index < users.size();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.keycloak.storage.tracing;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * OTLP File Span Exporter - appends each batch as one line of OTLP JSON, the format of the
+ * OpenTelemetry Collector file exporter, so the file can be replayed by its otlpjsonfile receiver
+ */
+public class OtlpFileSpanExporter implements SpanExporter {
+    private static final Logger logger = Logger.getLogger(OtlpFileSpanExporter.class);
+
+    private final String path;
+    private final String serviceName;
+    private Writer writer;
+
+    public OtlpFileSpanExporter(String path, String serviceName) {
+        this.path = path;
+        this.serviceName = serviceName;
+    }
+
+    @Override
+    public void export(List<Span> spans) {
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(OtlpJson.encode(spans, serviceName));
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            logger.warnf("Could not write %d spans to %s: %s", spans.size(), path, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.debugf("Error closing span file %s: %s", path, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
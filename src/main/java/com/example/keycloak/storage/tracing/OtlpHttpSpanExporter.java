@@ -0,0 +1,53 @@
+package com.example.keycloak.storage.tracing;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * OTLP HTTP Span Exporter - posts batches as OTLP JSON to a collector's /v1/traces endpoint
+ */
+public class OtlpHttpSpanExporter implements SpanExporter {
+    private static final Logger logger = Logger.getLogger(OtlpHttpSpanExporter.class);
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final URI endpoint;
+    private final String serviceName;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+
+    public OtlpHttpSpanExporter(String endpoint, String serviceName) {
+        this.endpoint = URI.create(endpoint);
+        this.serviceName = serviceName;
+    }
+
+    @Override
+    public void export(List<Span> spans) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(endpoint)
+                    .timeout(TIMEOUT)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(OtlpJson.encode(spans, serviceName)))
+                    .build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() / 100 != 2) {
+                logger.warnf("Collector %s rejected %d spans: HTTP %d %s", endpoint, spans.size(),
+                        response.statusCode(), response.body());
+            }
+        } catch (IOException e) {
+            logger.warnf("Could not send %d spans to %s: %s", spans.size(), endpoint, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return endpoint.toString();
+    }
+}
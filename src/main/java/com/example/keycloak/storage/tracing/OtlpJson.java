@@ -0,0 +1,98 @@
+package com.example.keycloak.storage.tracing;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OTLP JSON - encodes spans as an OpenTelemetry ExportTraceServiceRequest in the
+ * protobuf JSON mapping (hex ids, 64-bit integers as strings), streamed through a
+ * Jackson generator
+ */
+final class OtlpJson {
+    private static final String SCOPE = "com.example.keycloak.storage";
+
+    // Anchors System.nanoTime() span clocks to wall-clock time
+    private static final long EPOCH_OFFSET_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+
+    private OtlpJson() {
+    }
+
+    static String encode(List<Span> spans, String serviceName) throws IOException {
+        StringWriter out = new StringWriter(256 + spans.size() * 320);
+        try (JsonGenerator json = JsonSerialization.mapper.getFactory().createGenerator(out)) {
+            json.writeStartObject();
+            json.writeArrayFieldStart("resourceSpans");
+            json.writeStartObject();
+            json.writeObjectFieldStart("resource");
+            json.writeArrayFieldStart("attributes");
+            writeAttribute(json, "service.name", serviceName);
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeArrayFieldStart("scopeSpans");
+            json.writeStartObject();
+            json.writeObjectFieldStart("scope");
+            json.writeStringField("name", SCOPE);
+            json.writeEndObject();
+            json.writeArrayFieldStart("spans");
+            for (Span span : spans) {
+                writeSpan(json, span);
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        return out.toString();
+    }
+
+    private static void writeSpan(JsonGenerator json, Span span) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("traceId", span.getTraceId());
+        json.writeStringField("spanId", span.getSpanId());
+        if (span.getParent() != null) {
+            json.writeStringField("parentSpanId", span.getParent().getSpanId());
+        }
+        json.writeStringField("name", span.getName());
+        json.writeNumberField("kind", span.getKind().getCode());
+        json.writeStringField("startTimeUnixNano", Long.toString(EPOCH_OFFSET_NANOS + span.getStartNanos()));
+        json.writeStringField("endTimeUnixNano", Long.toString(EPOCH_OFFSET_NANOS + span.getEndNanos()));
+        json.writeArrayFieldStart("attributes");
+        List<Object> attributes = span.getAttributes();
+        for (int i = 0; i < attributes.size(); i += 2) {
+            writeAttribute(json, (String) attributes.get(i), attributes.get(i + 1));
+        }
+        json.writeEndArray();
+        if (span.getErrorMessage() != null) {
+            json.writeObjectFieldStart("status");
+            json.writeNumberField("code", 2);
+            json.writeStringField("message", span.getErrorMessage());
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+    }
+
+    private static void writeAttribute(JsonGenerator json, String key, Object value) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("key", key);
+        json.writeObjectFieldStart("value");
+        if (value instanceof Boolean) {
+            json.writeBooleanField("boolValue", (Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            json.writeNumberField("doubleValue", ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            json.writeStringField("intValue", Long.toString(((Number) value).longValue()));
+        } else {
+            json.writeStringField("stringValue", String.valueOf(value));
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.keycloak.storage.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Span - one timed step of a traced provider operation. Closing the span ends it, makes its
+ * parent current again and hands it to the exporter. Unsampled operations get the shared
+ * no-op span, on which every call does nothing.
+ */
+public class Span implements AutoCloseable {
+    public enum Kind {
+        INTERNAL(1), SERVER(2), CLIENT(3);
+
+        private final int code;
+
+        Kind(int code) {
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+    }
+
+    static final Span NOOP = new Span(null, null, null, null, null, Kind.INTERNAL);
+
+    private final String traceId;
+    private final String spanId;
+    private final Span parent;
+    private final String name;
+    private final Kind kind;
+    private final long startNanos;
+    private final List<Object> attributes;
+    private long endNanos;
+    private String errorMessage;
+    private boolean ended;
+
+    Span(String traceId, String spanId, Span parent, String name, List<Object> attributes, Kind kind) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parent = parent;
+        this.name = name;
+        this.kind = kind;
+        this.attributes = attributes;
+        this.startNanos = System.nanoTime();
+    }
+
+    public boolean isRecording() {
+        return this != NOOP;
+    }
+
+    /**
+     * Add an attribute (String, Number or Boolean value)
+     */
+    public Span attribute(String key, Object value) {
+        if (this != NOOP && value != null) {
+            attributes.add(key);
+            attributes.add(value);
+        }
+        return this;
+    }
+
+    public Span error(Throwable error) {
+        if (this != NOOP) {
+            errorMessage = error.getClass().getSimpleName() + ": " + error.getMessage();
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (this == NOOP || ended) {
+            return;
+        }
+        ended = true;
+        endNanos = System.nanoTime();
+        Tracer.end(this);
+    }
+
+    String getTraceId() {
+        return traceId;
+    }
+
+    String getSpanId() {
+        return spanId;
+    }
+
+    Span getParent() {
+        return parent;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    long getEndNanos() {
+        return endNanos;
+    }
+
+    List<Object> getAttributes() {
+        return attributes;
+    }
+
+    String getErrorMessage() {
+        return errorMessage;
+    }
+
+    static List<Object> newAttributes() {
+        return new ArrayList<>(8);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.keycloak.storage.tracing;
+
+import java.util.List;
+
+/**
+ * Span Exporter - receives batches of finished spans on the tracer's export thread
+ */
+public interface SpanExporter {
+
+    void export(List<Span> spans);
+
+    default void close() {
+    }
+
+    /**
+     * Exporter for a target: an http(s) URL is an OTLP/HTTP collector endpoint
+     * (e.g. http://localhost:4318/v1/traces), anything else a file spans are appended to
+     */
+    static SpanExporter forTarget(String target, String serviceName) {
+        if (target.startsWith("http://") || target.startsWith("https://")) {
+            return new OtlpHttpSpanExporter(target, serviceName);
+        }
+        return new OtlpFileSpanExporter(target, serviceName);
+    }
+}
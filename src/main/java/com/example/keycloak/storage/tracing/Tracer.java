@@ -0,0 +1,163 @@
+package com.example.keycloak.storage.tracing;
+
+import com.example.keycloak.storage.metrics.ProviderMetrics;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracer - sampled spans for provider operations, shared by all provider components.
+ *
+ * The sampling decision is made once per provider SPI call ({@link #startTrace}); steps below
+ * it ({@link #startSpan}) are only recorded inside a sampled trace, so unsampled calls and
+ * background work cost one thread-local read per step. Finished spans are queued and exported
+ * in batches from a daemon thread; when the queue is full spans are dropped, never waited for.
+ */
+public final class Tracer {
+    private static final Logger logger = Logger.getLogger(Tracer.class);
+
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int BATCH_SIZE = 512;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private static final ThreadLocal<Span> current = new ThreadLocal<>();
+    private static final LongAdder dropped = ProviderMetrics.counter("tracing.droppedSpans");
+
+    private static volatile double sampleRate;
+    private static volatile BlockingQueue<Span> finished;
+    private static volatile SpanExporter exporter;
+    private static Thread exportThread;
+
+    private Tracer() {
+    }
+
+    /**
+     * Start exporting a fraction of provider operations, replacing any previous configuration
+     *
+     * @param sampleRate fraction of operations traced, 0 disables tracing
+     */
+    public static synchronized void configure(double sampleRate, SpanExporter spanExporter) {
+        shutdown();
+        if (sampleRate <= 0 || spanExporter == null) {
+            return;
+        }
+        BlockingQueue<Span> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        exportThread = new Thread(() -> exportLoop(queue, spanExporter), "external-user-storage-tracing");
+        exportThread.setDaemon(true);
+        exportThread.start();
+        finished = queue;
+        exporter = spanExporter;
+        Tracer.sampleRate = Math.min(sampleRate, 1.0);
+        logger.infof("Tracing %.2f%% of provider operations to %s", Tracer.sampleRate * 100, spanExporter);
+    }
+
+    /**
+     * Stop tracing, exporting the spans still queued
+     */
+    public static synchronized void shutdown() {
+        sampleRate = 0;
+        finished = null;
+        exporter = null;
+        if (exportThread != null) {
+            exportThread.interrupt();
+            try {
+                exportThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exportThread = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sampleRate > 0;
+    }
+
+    /**
+     * Start the span of a provider operation, deciding whether its trace is sampled.
+     * Nested inside a sampled trace this starts a child span instead.
+     */
+    public static Span startTrace(String name) {
+        Span parent = current.get();
+        if (parent != null) {
+            return start(name, parent, Span.Kind.INTERNAL);
+        }
+        double rate = sampleRate;
+        if (rate <= 0 || (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate)) {
+            return Span.NOOP;
+        }
+        return start(name, null, Span.Kind.SERVER);
+    }
+
+    /**
+     * Start a step of the current operation, a no-op span when it is not sampled
+     */
+    public static Span startSpan(String name) {
+        return startSpan(name, Span.Kind.INTERNAL);
+    }
+
+    public static Span startSpan(String name, Span.Kind kind) {
+        Span parent = current.get();
+        return parent != null ? start(name, parent, kind) : Span.NOOP;
+    }
+
+    private static Span start(String name, Span parent, Span.Kind kind) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String traceId = parent != null ? parent.getTraceId() : hex(random.nextLong()) + hex(random.nextLong());
+        Span span = new Span(traceId, hex(random.nextLong()), parent, name, Span.newAttributes(), kind);
+        current.set(span);
+        return span;
+    }
+
+    static void end(Span span) {
+        // Spans closed out of order leave the current span alone
+        if (current.get() == span) {
+            if (span.getParent() != null) {
+                current.set(span.getParent());
+            } else {
+                current.remove();
+            }
+        }
+        BlockingQueue<Span> queue = finished;
+        if (queue != null && !queue.offer(span)) {
+            dropped.increment();
+        }
+    }
+
+    private static void exportLoop(BlockingQueue<Span> queue, SpanExporter spanExporter) {
+        List<Span> batch = new ArrayList<>(BATCH_SIZE);
+        boolean running = true;
+        while (running) {
+            try {
+                Span span = queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (span != null) {
+                    batch.add(span);
+                    queue.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    spanExporter.export(batch);
+                } catch (RuntimeException e) {
+                    logger.warnf("Could not export %d spans: %s", batch.size(), e.getMessage());
+                }
+                batch.clear();
+            }
+        }
+        spanExporter.close();
+    }
+
+    private static String hex(long value) {
+        String digits = Long.toHexString(value);
+        return "0000000000000000".substring(digits.length()) + digits;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.keycloak.storage.export;
+
+import com.example.keycloak.storage.database.DatabaseConnectionManager;
+
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * User Export Tool - command line front end of UserExporter, writing a file (gzipped when
+ * the name ends in .gz) and reporting the throughput.
+ *
+ * Usage (src/perf is compiled by mvn test-compile, not packaged):
+ *   EXTERNAL_DB_PASSWORD=... java -cp target/classes:target/test-classes:postgresql.jar:jackson-core.jar:\
+ *       jboss-logging.jar:keycloak-server-spi.jar \
+ *       com.example.keycloak.storage.export.UserExportTool host port database user output[.gz] [ndjson|csv] [columns]
+ *
+ * jboss-logging and keycloak-server-spi (DatabaseUnavailableException) are needed by the
+ * provider's connection manager, jackson-core by the JSON escaping.
+ */
+public class UserExportTool {
+    private static final int GZIP_BUFFER_BYTES = 256 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5) {
+            System.err.println("Usage: UserExportTool host port database user output[.gz] [ndjson|csv] [columns]");
+            System.exit(2);
+        }
+        Path output = Paths.get(args[4]);
+        ExportFormat format = args.length > 5 ? ExportFormat.valueOf(args[5].toUpperCase(Locale.ROOT)) : ExportFormat.NDJSON;
+        List<ExportColumn> columns = args.length > 6 ? ExportColumn.parse(args[6]) : ExportColumn.defaults();
+        String password = System.getenv("EXTERNAL_DB_PASSWORD");
+
+        DatabaseConnectionManager connectionManager = new DatabaseConnectionManager(args[0], args[1], args[2],
+                args[3], password != null ? password : "", 1);
+        long start = System.nanoTime();
+        long rows;
+        try (FileChannel file = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (output.toString().endsWith(".gz")) {
+                try (OutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(file), GZIP_BUFFER_BYTES)) {
+                    rows = new UserExporter(connectionManager).export(Channels.newChannel(gzip), format, columns);
+                }
+            } else {
+                rows = new UserExporter(connectionManager).export(file, format, columns);
+            }
+        } finally {
+            connectionManager.close();
+        }
+
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        System.out.printf("Exported %d users to %s in %d ms (%.0f rows/s)%n",
+                rows, output, millis, rows * 1000.0 / millis);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.keycloak.storage.model;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * User Footprint Benchmark - measures the retained heap per cached user for the mutable
+ * ExternalUser (as cached before) and the CompactUser, on synthetic users whose names and
+ * email domains repeat the way they do in real directories. Every value is a fresh String,
+ * as it would be when read from the database.
+ *
+ * Usage after mvn test-compile:
+ *   java -cp target/classes:target/test-classes \
+ *       com.example.keycloak.storage.model.UserFootprintBenchmark [users]
+ */
+public class UserFootprintBenchmark {
+    private static final int FIRST_NAMES = 500;
+    private static final int LAST_NAMES = 2000;
+    private static final int DOMAINS = 50;
+    private static final String STORAGE_PROVIDER_ID = UUID.randomUUID().toString();
+
+    private final int users;
+
+    public UserFootprintBenchmark(int users) {
+        this.users = users;
+    }
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        UserFootprintBenchmark benchmark = new UserFootprintBenchmark(users);
+        System.out.printf("Retained heap per user, %d users%n", users);
+
+        long external = benchmark.measure(benchmark::externalUser);
+        long compact = benchmark.measure(i -> CompactUser.of(benchmark.externalUser(i)));
+        long keycloakIds = benchmark.measure(i -> "f:" + STORAGE_PROVIDER_ID + ":" + i);
+
+        System.out.printf("  ExternalUser          %6d bytes%n", external / users);
+        System.out.printf("  CompactUser           %6d bytes (%.0f%% less)%n", compact / users,
+                100.0 - 100.0 * compact / external);
+        System.out.printf("  eager keycloakId      %6d bytes per adapter, now built on first getId()%n",
+                keycloakIds / users);
+    }
+
+    /**
+     * Heap retained by one object per user, in bytes
+     */
+    long measure(IntFunction<Object> factory) {
+        Object[] retained = new Object[users];
+        long before = usedHeap();
+        for (int i = 0; i < users; i++) {
+            retained[i] = factory.apply(i);
+        }
+        long after = usedHeap();
+        if (retained[users - 1] == null) {
+            throw new IllegalStateException();
+        }
+        return after - before;
+    }
+
+    ExternalUser externalUser(int i) {
+        Random random = new Random(i);
+        String username = new String("user" + i);
+        ExternalUser user = new ExternalUser((long) i + 1_000_000, username,
+                new String(username + "@domain" + random.nextInt(DOMAINS) + ".example.com"),
+                new String("First" + random.nextInt(FIRST_NAMES)),
+                new String("Last" + random.nextInt(LAST_NAMES)),
+                new String("$2a$12$" + Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong())
+                        + Long.toHexString(random.nextLong()) + "abcdefghijklmnopqrstuvw"),
+                true);
+        long now = System.currentTimeMillis();
+        user.setCreatedAt(new Date(now - random.nextInt(1_000_000_000)));
+        user.setUpdatedAt(new Date(now));
+        return user;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.keycloak.storage.password;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Hash Calibrator - benchmarks each password hashing algorithm on this host and recommends
+ * cost parameters that hit a target verification latency.
+ *
+ * Usage (src/perf is compiled by mvn test-compile, not packaged):
+ *   java -cp target/classes:target/test-classes:bcprov.jar \
+ *       com.example.keycloak.storage.password.HashCalibrator [targetMillis] [argon2MemoryKb]
+ */
+public class HashCalibrator {
+    private static final String SAMPLE_PASSWORD = "calibration-Passw0rd!";
+    private static final int SAMPLES = 5;
+
+    private final long targetNanos;
+
+    public HashCalibrator(long targetMillis) {
+        this.targetNanos = targetMillis * 1_000_000L;
+    }
+
+    public static void main(String[] args) {
+        long targetMillis = args.length > 0 ? Long.parseLong(args[0]) : 250;
+        int argon2MemoryKb = args.length > 1 ? Integer.parseInt(args[1]) : Argon2PasswordVerifier.DEFAULT_MEMORY_KB;
+        HashCalibrator calibrator = new HashCalibrator(targetMillis);
+
+        System.out.printf("Calibrating for %d ms per verification on %d cores%n",
+                targetMillis, Runtime.getRuntime().availableProcessors());
+
+        int bcryptCost = calibrator.calibrateExponential(4, 16,
+                cost -> new BCryptPasswordVerifier(cost));
+        int pbkdf2Iterations = calibrator.calibrateLinear(10_000, 10_000_000,
+                iterations -> new Pbkdf2PasswordVerifier(iterations));
+        int argon2Iterations = calibrator.calibrateLinear(1, 64,
+                iterations -> new Argon2PasswordVerifier(argon2MemoryKb, iterations,
+                        Argon2PasswordVerifier.DEFAULT_PARALLELISM));
+
+        System.out.println();
+        System.out.println("Recommended SPI options:");
+        System.out.printf("  --spi-storage-external-user-storage-bcrypt-cost=%d%n", bcryptCost);
+        System.out.printf("  --spi-storage-external-user-storage-pbkdf2-iterations=%d%n", pbkdf2Iterations);
+        System.out.printf("  --spi-storage-external-user-storage-argon2-memory-kb=%d%n", argon2MemoryKb);
+        System.out.printf("  --spi-storage-external-user-storage-argon2-iterations=%d%n", argon2Iterations);
+        System.out.printf("Throughput per core at target: ~%.1f logins/s%n", 1000.0 / targetMillis);
+    }
+
+    /**
+     * Cost doubles the work per step (BCrypt log rounds): pick the highest cost within the target
+     */
+    int calibrateExponential(int minCost, int maxCost, IntFunction<PasswordVerifier> factory) {
+        int best = minCost;
+        for (int cost = minCost; cost <= maxCost; cost++) {
+            long nanos = measure(factory.apply(cost));
+            report(factory.apply(cost).getId(), "cost", cost, nanos);
+            if (nanos > targetNanos) {
+                break;
+            }
+            best = cost;
+        }
+        return best;
+    }
+
+    /**
+     * Work is linear in the parameter: measure once and scale, then verify the estimate
+     */
+    int calibrateLinear(int minValue, int maxValue, IntFunction<PasswordVerifier> factory) {
+        long nanos = measure(factory.apply(minValue));
+        report(factory.apply(minValue).getId(), "value", minValue, nanos);
+        int estimate = (int) Math.max(minValue, Math.min(maxValue, (double) minValue * targetNanos / nanos));
+
+        long estimateNanos = measure(factory.apply(estimate));
+        report(factory.apply(estimate).getId(), "value", estimate, estimateNanos);
+        return (int) Math.max(minValue, Math.min(maxValue, (double) estimate * targetNanos / estimateNanos));
+    }
+
+    /**
+     * Median verification time of a freshly generated hash
+     */
+    long measure(PasswordVerifier verifier) {
+        String hash = verifier.hash(SAMPLE_PASSWORD);
+        verifier.verify(SAMPLE_PASSWORD, hash);
+
+        long[] samples = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            verifier.verify(SAMPLE_PASSWORD, hash);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[SAMPLES / 2];
+    }
+
+    private static void report(String algorithm, String parameter, int value, long nanos) {
+        System.out.printf("  %-8s %s=%-9d %8.1f ms%n", algorithm, parameter, value, nanos / 1_000_000.0);
+    }
+}
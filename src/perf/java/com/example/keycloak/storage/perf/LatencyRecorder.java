@@ -0,0 +1,83 @@
+package com.example.keycloak.storage.perf;
+
+import java.util.Arrays;
+
+/**
+ * Latency Recorder - operation latencies of one worker thread during a scenario; the
+ * recorders of all workers are merged into a Result once the scenario has ended.
+ * Keeps at most MAX_SAMPLES latencies, operations beyond that are only counted.
+ */
+class LatencyRecorder {
+    private static final int MAX_SAMPLES = 1_000_000;
+
+    private long[] samples = new long[4096];
+    private int size;
+    private long operations;
+    private long errors;
+
+    void record(long nanos) {
+        operations++;
+        if (size == samples.length && size < MAX_SAMPLES) {
+            samples = Arrays.copyOf(samples, Math.min(MAX_SAMPLES, size * 2));
+        }
+        if (size < samples.length) {
+            samples[size++] = nanos;
+        }
+    }
+
+    void recordError() {
+        errors++;
+    }
+
+    static Result merge(String name, Iterable<LatencyRecorder> recorders, long elapsedNanos) {
+        long operations = 0;
+        long errors = 0;
+        int total = 0;
+        for (LatencyRecorder recorder : recorders) {
+            operations += recorder.operations;
+            errors += recorder.errors;
+            total += recorder.size;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.samples, 0, all, offset, recorder.size);
+            offset += recorder.size;
+        }
+        Arrays.sort(all);
+        double seconds = elapsedNanos / 1e9;
+        return new Result(name, operations / seconds, percentile(all, 0.50), percentile(all, 0.95),
+                percentile(all, 0.99), operations, errors);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(quantile * (sorted.length - 1)))] / 1e6;
+    }
+
+    /**
+     * Throughput and latency percentiles (milliseconds) of one scenario
+     */
+    static final class Result {
+        final String name;
+        final double opsPerSecond;
+        final double p50Millis;
+        final double p95Millis;
+        final double p99Millis;
+        final long operations;
+        final long errors;
+
+        Result(String name, double opsPerSecond, double p50Millis, double p95Millis, double p99Millis,
+               long operations, long errors) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.p99Millis = p99Millis;
+            this.operations = operations;
+            this.errors = errors;
+        }
+    }
+}
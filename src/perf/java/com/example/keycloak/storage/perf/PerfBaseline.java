@@ -0,0 +1,114 @@
+package com.example.keycloak.storage.perf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Perf Baseline - the results of a suite run as a JSON file, and the check of a new run
+ * against a stored one. A scenario regresses when its throughput drops or its p95 latency
+ * grows by more than the tolerance; latency changes below MIN_LATENCY_DELTA_MILLIS are
+ * ignored, sub-millisecond lookups jitter by more than any sensible percentage.
+ *
+ * Format (pretty-printed, one figure per line, so baselines diff well in review):
+ * {
+ *   "rows" : 1000000,
+ *   "threads" : 8,
+ *   "seconds" : 10,
+ *   "scenarios" : {
+ *     "repository.findById" : {
+ *       "opsPerSecond" : 9512.3,
+ *       "p50Millis" : 0.61,
+ *       "p95Millis" : 1.42,
+ *       ...
+ */
+class PerfBaseline {
+    private static final double MIN_LATENCY_DELTA_MILLIS = 0.5;
+
+    final Map<String, Long> settings = new LinkedHashMap<>();
+    final Map<String, LatencyRecorder.Result> scenarios = new LinkedHashMap<>();
+
+    void write(Path file) throws IOException {
+        ObjectNode json = JsonSerialization.mapper.createObjectNode();
+        settings.forEach(json::put);
+        ObjectNode scenarioNodes = json.putObject("scenarios");
+        for (LatencyRecorder.Result result : scenarios.values()) {
+            scenarioNodes.putObject(result.name)
+                    .put("opsPerSecond", round(result.opsPerSecond, 10))
+                    .put("p50Millis", round(result.p50Millis, 1000))
+                    .put("p95Millis", round(result.p95Millis, 1000))
+                    .put("p99Millis", round(result.p99Millis, 1000))
+                    .put("operations", result.operations)
+                    .put("errors", result.errors);
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        JsonSerialization.prettyMapper.writeValue(file.toFile(), json);
+    }
+
+    static PerfBaseline read(Path file) throws IOException {
+        JsonNode json = JsonSerialization.mapper.readTree(file.toFile());
+        if (json == null || !json.isObject()) {
+            throw new IOException("Not a baseline file: " + file);
+        }
+        PerfBaseline baseline = new PerfBaseline();
+        json.fields().forEachRemaining(entry -> {
+            if (entry.getValue().isNumber()) {
+                baseline.settings.put(entry.getKey(), entry.getValue().asLong());
+            }
+        });
+        json.path("scenarios").fields().forEachRemaining(entry -> {
+            JsonNode values = entry.getValue();
+            baseline.scenarios.put(entry.getKey(), new LatencyRecorder.Result(entry.getKey(),
+                    values.path("opsPerSecond").asDouble(), values.path("p50Millis").asDouble(),
+                    values.path("p95Millis").asDouble(), values.path("p99Millis").asDouble(),
+                    values.path("operations").asLong(), values.path("errors").asLong()));
+        });
+        return baseline;
+    }
+
+    /**
+     * Keep stored figures to the precision they are meaningful at, baselines are reviewed as diffs
+     */
+    private static double round(double value, int scale) {
+        return Math.round(value * scale) / (double) scale;
+    }
+
+    /**
+     * Regressions of this run against the baseline, empty when within the tolerance
+     *
+     * @param tolerance allowed relative change, e.g. 0.25 for 25%
+     */
+    List<String> regressionsAgainst(PerfBaseline baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (LatencyRecorder.Result result : scenarios.values()) {
+            LatencyRecorder.Result expected = baseline.scenarios.get(result.name);
+            if (expected == null) {
+                continue;
+            }
+            if (result.opsPerSecond < expected.opsPerSecond * (1 - tolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s: throughput %.1f ops/s, baseline %.1f ops/s",
+                        result.name, result.opsPerSecond, expected.opsPerSecond));
+            }
+            if (result.p95Millis > expected.p95Millis * (1 + tolerance)
+                    && result.p95Millis - expected.p95Millis > MIN_LATENCY_DELTA_MILLIS) {
+                regressions.add(String.format(Locale.ROOT, "%s: p95 %.3f ms, baseline %.3f ms",
+                        result.name, result.p95Millis, expected.p95Millis));
+            }
+            if (result.errors > 0 && expected.errors == 0) {
+                regressions.add(String.format(Locale.ROOT, "%s: %d errors, baseline none", result.name, result.errors));
+            }
+        }
+        return regressions;
+    }
+}
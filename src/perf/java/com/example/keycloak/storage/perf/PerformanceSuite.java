@@ -0,0 +1,472 @@
+package com.example.keycloak.storage.perf;
+
+import com.example.keycloak.storage.ComponentResources;
+import com.example.keycloak.storage.ExternalUserStorageProvider;
+import com.example.keycloak.storage.cache.ExternalUserCache;
+import com.example.keycloak.storage.database.DatabaseConnectionManager;
+import com.example.keycloak.storage.database.JdbcUserRepository;
+import com.example.keycloak.storage.database.KeyNormalization;
+import com.example.keycloak.storage.database.PasswordRehashService;
+import com.example.keycloak.storage.database.PasswordVerificationEngine;
+import com.example.keycloak.storage.database.ReactiveUserRepository;
+import com.example.keycloak.storage.database.UserField;
+import com.example.keycloak.storage.database.UserRepository;
+import com.example.keycloak.storage.database.UserSearchCriteria;
+import com.example.keycloak.storage.database.UserUpdate;
+import com.example.keycloak.storage.security.LoginThrottle;
+import org.keycloak.component.ComponentModel;
+import org.keycloak.credential.CredentialInput;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.storage.StorageId;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Performance Suite - repeatable latency and throughput measurements of every UserRepository
+ * query shape and the main ExternalUserStorageProvider flows against a PostgreSQL database
+ * filled by generate-users.sql. Each scenario runs closed-loop on a number of threads for a
+ * fixed time after a warm-up. Keys come from a repeatable sample of the table and are picked
+ * with a skew, so that provider flows see a realistic mix of cache hits and misses.
+ *
+ * Results are written as JSON. When a baseline file exists the run is compared against it
+ * and the process exits with status 1 if a scenario regressed beyond the tolerance;
+ * without a baseline (or with --update-baseline) the results become the baseline.
+ * Writes store the values a user already has, so repeated runs see the same data.
+ *
+ * Usage (see perf-suite.sh for building the classpath):
+ *   java com.example.keycloak.storage.perf.PerformanceSuite --db localhost:5432/external_users
+ *       [--user postgres] [--password secret] [--threads 8] [--seconds 10] [--warmup-seconds 2]
+ *       [--baseline perf/baselines/baseline.json] [--results perf/results.json]
+ *       [--tolerance 0.25] [--update-baseline] [--only repository.]
+ *       [--engine jdbc|reactive] [--pipelining-limit 256]
+ */
+public class PerformanceSuite {
+    private static final String PASSWORD = "password123";
+    private static final int SAMPLE_SIZE = 20_000;
+    private static final int FIND_BY_IDS_BATCH = 50;
+    private static final int PAGE_SIZE = 20;
+    private static final long SAMPLE_SEED = 42;
+
+    private final Map<String, String> options;
+    private final int threads;
+    private final long measureNanos;
+    private final long warmupNanos;
+    private final List<SampledUser> sample = new ArrayList<>();
+    private final List<String> searchTerms = new ArrayList<>();
+
+    private DatabaseConnectionManager connectionManager;
+    private UserRepository repository;
+    private ReactiveUserRepository reactiveRepository;
+    private ComponentResources resources;
+    private ComponentModel model;
+    private PasswordVerificationEngine verificationEngine;
+    private PasswordRehashService rehashService;
+    private LoginThrottle loginThrottle;
+
+    PerformanceSuite(Map<String, String> options) {
+        this.options = options;
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        this.measureNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("seconds", "10")));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup-seconds", "2")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (!options.containsKey("db")) {
+            System.err.println("Usage: PerformanceSuite --db host[:port]/database [--user u] [--password p] "
+                    + "[--threads n] [--seconds n] [--warmup-seconds n] [--baseline file] [--results file] "
+                    + "[--tolerance 0.25] [--update-baseline] [--only prefix] [--engine jdbc|reactive] "
+                    + "[--pipelining-limit n]");
+            System.exit(2);
+        }
+        System.exit(new PerformanceSuite(options).run());
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean flag = i + 1 == args.length || args[i + 1].startsWith("--");
+            options.put(name, flag ? "true" : args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * @return process exit status: 0 passed or baseline written, 1 regression
+     */
+    int run() throws Exception {
+        open();
+        try {
+            loadSample();
+            PerfBaseline current = new PerfBaseline();
+            current.settings.put("rows", (long) repository.getUsersCount());
+            current.settings.put("threads", (long) threads);
+            current.settings.put("seconds", TimeUnit.NANOSECONDS.toSeconds(measureNanos));
+            System.out.printf("%d users, %d sampled, %d threads, %d s per scenario, %s engine%n",
+                    current.settings.get("rows"), sample.size(), threads, current.settings.get("seconds"),
+                    options.getOrDefault("engine", "jdbc"));
+
+            String only = options.getOrDefault("only", "");
+            for (Map.Entry<String, Operation> scenario : scenarios().entrySet()) {
+                if (scenario.getKey().startsWith(only)) {
+                    LatencyRecorder.Result result = measure(scenario.getKey(), scenario.getValue());
+                    current.scenarios.put(result.name, result);
+                    System.out.printf(Locale.ROOT, "  %-36s %10.1f ops/s  p50 %8.3f ms  p95 %8.3f ms  p99 %8.3f ms%s%n",
+                            result.name, result.opsPerSecond, result.p50Millis, result.p95Millis, result.p99Millis,
+                            result.errors > 0 ? "  (" + result.errors + " errors)" : "");
+                }
+            }
+            return compare(current);
+        } finally {
+            close();
+        }
+    }
+
+    private int compare(PerfBaseline current) throws Exception {
+        current.write(Paths.get(options.getOrDefault("results", "perf/results.json")));
+        Path baselineFile = Paths.get(options.getOrDefault("baseline", "perf/baselines/baseline.json"));
+        if (options.containsKey("update-baseline") || !Files.exists(baselineFile)) {
+            current.write(baselineFile);
+            System.out.println("Baseline written: " + baselineFile);
+            return 0;
+        }
+
+        PerfBaseline baseline = PerfBaseline.read(baselineFile);
+        for (String setting : current.settings.keySet()) {
+            if (!current.settings.get(setting).equals(baseline.settings.get(setting))) {
+                System.out.printf("Warning: %s is %d, the baseline was taken with %s%n", setting,
+                        current.settings.get(setting), baseline.settings.get(setting));
+            }
+        }
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "0.25"));
+        List<String> regressions = current.regressionsAgainst(baseline, tolerance);
+        if (regressions.isEmpty()) {
+            System.out.printf("No regressions against %s (tolerance %.0f%%)%n", baselineFile, tolerance * 100);
+            return 0;
+        }
+        System.out.printf("%d regressions against %s (tolerance %.0f%%):%n", regressions.size(), baselineFile,
+                tolerance * 100);
+        regressions.forEach(regression -> System.out.println("  " + regression));
+        return 1;
+    }
+
+    private Map<String, Operation> scenarios() {
+        Map<String, Operation> scenarios = new LinkedHashMap<>();
+        scenarios.put("repository.findById", worker -> repository.findById(worker.pick().id));
+        scenarios.put("repository.findByUsername", worker -> repository.findByUsername(worker.pick().username));
+        scenarios.put("repository.findByEmail", worker -> repository.findByEmail(worker.pick().email));
+        scenarios.put("repository.findByUsername.miss",
+                worker -> repository.findByUsername("missing-" + worker.random.nextInt()));
+        scenarios.put("repository.findByIds", worker -> {
+            List<Long> ids = new ArrayList<>(FIND_BY_IDS_BATCH);
+            for (int i = 0; i < FIND_BY_IDS_BATCH; i++) {
+                ids.add(worker.pick().id);
+            }
+            repository.findByIds(ids);
+        });
+        scenarios.put("repository.searchUsers", worker -> repository.searchUsers(worker.searchTerm(), 0, PAGE_SIZE));
+        scenarios.put("repository.searchUsers.exact", worker -> repository.searchUsers(
+                new UserSearchCriteria().username(worker.pick().username).exact(true), 0, PAGE_SIZE));
+        scenarios.put("repository.countUsers", worker -> repository.countUsers(
+                new UserSearchCriteria().search(worker.searchTerm())));
+        scenarios.put("repository.getAllUsers", worker -> repository.getAllUsers(
+                worker.random.nextInt(10_000), PAGE_SIZE));
+        scenarios.put("repository.getUsersCount", worker -> repository.getUsersCount());
+        scenarios.put("repository.loadRecentlyUpdated", worker -> repository.loadRecentlyUpdated(1000, 30, user -> true));
+        scenarios.put("repository.forEachIndexEntry", worker -> repository.forEachIndexEntry(
+                System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1), entry -> { }));
+        scenarios.put("repository.updatePasswordHash", worker -> {
+            SampledUser user = worker.pick();
+            repository.updatePasswordHash(user.id, user.passwordHash);
+        });
+        scenarios.put("repository.applyUpdates", worker -> {
+            List<UserUpdate> updates = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                SampledUser user = worker.pick();
+                UserUpdate update = new UserUpdate(user.id);
+                update.set(UserField.ENABLED, user.enabled);
+                updates.add(update);
+            }
+            repository.applyUpdates(updates);
+        });
+
+        scenarios.put("provider.getUserById", worker -> worker.provider.getUserById(worker.realm,
+                StorageId.keycloakId(model, String.valueOf(worker.pick().id))));
+        scenarios.put("provider.getUserByUsername",
+                worker -> worker.provider.getUserByUsername(worker.realm, worker.pick().username));
+        scenarios.put("provider.getUserByEmail",
+                worker -> worker.provider.getUserByEmail(worker.realm, worker.pick().email));
+        scenarios.put("provider.login", worker -> {
+            UserModel user = worker.provider.getUserByUsername(worker.realm, worker.pick().username);
+            if (user != null) {
+                worker.provider.isValid(worker.realm, user, PASSWORD_INPUT);
+            }
+        });
+        scenarios.put("provider.searchForUserStream", worker -> worker.provider.searchForUserStream(
+                worker.realm, worker.searchTerm(), 0, PAGE_SIZE).count());
+        scenarios.put("provider.getUsersCount", worker -> worker.provider.getUsersCount(worker.realm));
+        return scenarios;
+    }
+
+    private LatencyRecorder.Result measure(String name, Operation operation) throws InterruptedException {
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] window = new long[2];
+        for (int i = 0; i < threads; i++) {
+            LatencyRecorder recorder = new LatencyRecorder();
+            recorders.add(recorder);
+            Worker worker = new Worker(new Random(SAMPLE_SEED + i));
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < window[1]) {
+                    boolean measured = System.nanoTime() >= window[0];
+                    long begin = System.nanoTime();
+                    try {
+                        operation.run(worker);
+                        if (measured) {
+                            recorder.record(System.nanoTime() - begin);
+                        }
+                    } catch (Exception e) {
+                        if (measured) {
+                            recorder.recordError();
+                        }
+                    }
+                }
+                worker.close();
+            }, "perf-" + name + "-" + i);
+            workers.add(thread);
+            thread.start();
+        }
+        window[0] = System.nanoTime() + warmupNanos;
+        window[1] = window[0] + measureNanos;
+        start.countDown();
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        return LatencyRecorder.merge(name, recorders, measureNanos);
+    }
+
+    private void open() {
+        String db = options.get("db");
+        int slash = db.indexOf('/');
+        String hostPort = db.substring(0, slash);
+        int colon = hostPort.lastIndexOf(':');
+        String host = colon > 0 ? hostPort.substring(0, colon) : hostPort;
+        String port = colon > 0 ? hostPort.substring(colon + 1) : "5432";
+        String database = db.substring(slash + 1);
+        String user = options.getOrDefault("user", "postgres");
+        String password = options.getOrDefault("password", "");
+        connectionManager = new DatabaseConnectionManager(host, port, database, user, password, threads * 2);
+        if (!connectionManager.testConnection()) {
+            throw new IllegalStateException("Cannot connect to " + connectionManager.getJdbcUrl());
+        }
+        // The sample is always read over JDBC, the engine only decides what the scenarios measure
+        String engine = options.getOrDefault("engine", "jdbc");
+        if (engine.equals("reactive")) {
+            reactiveRepository = new ReactiveUserRepository(host, port, database, user, password,
+                    threads * 2, Integer.parseInt(options.getOrDefault("pipelining-limit", "256")));
+            repository = reactiveRepository;
+        } else if (engine.equals("jdbc")) {
+            repository = new JdbcUserRepository(connectionManager);
+        } else {
+            throw new IllegalArgumentException("Unknown engine: " + engine + " (jdbc or reactive)");
+        }
+
+        model = new ComponentModel();
+        model.setId("perf-suite");
+        model.setName("perf-suite");
+        resources = new ComponentResources(List.of(connectionManager), readOnlyPasswords(repository),
+                new ExternalUserCache(10_000, 60, 300), KeyNormalization.EXACT);
+        if (reactiveRepository != null) {
+            resources.addCloseAction(reactiveRepository::close);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        verificationEngine = new PasswordVerificationEngine(cores, cores * 32, 2000);
+        rehashService = new PasswordRehashService(1, 100);
+        loginThrottle = new LoginThrottle(16384, 1_000_000, 1_000_000, 1_000_000, 1_000_000);
+    }
+
+    private void close() {
+        verificationEngine.shutdown();
+        rehashService.shutdown();
+        resources.close();
+    }
+
+    /**
+     * The provider upgrades legacy hashes after logins; dropping those writes keeps the
+     * hash mix, and so the login cost, the same from run to run
+     */
+    private static UserRepository readOnlyPasswords(UserRepository repository) {
+        return (UserRepository) Proxy.newProxyInstance(UserRepository.class.getClassLoader(),
+                new Class<?>[]{UserRepository.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("replacePasswordHash")) {
+                        return false;
+                    }
+                    try {
+                        return method.invoke(repository, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * A repeatable sample of users (and search terms taken from their names)
+     */
+    private void loadSample() throws SQLException {
+        try (Connection conn = connectionManager.getConnection();
+             PreparedStatement count = conn.prepareStatement(
+                     "SELECT reltuples::bigint FROM pg_class WHERE relname = 'users'")) {
+            double rows;
+            try (ResultSet rs = count.executeQuery()) {
+                rows = rs.next() ? Math.max(1, rs.getLong(1)) : 1;
+            }
+            double percent = Math.min(100, 100.0 * SAMPLE_SIZE * 2 / rows);
+            try (PreparedStatement stmt = conn.prepareStatement(String.format(Locale.ROOT,
+                    "SELECT id, username, email, password_hash, enabled, last_name FROM users "
+                            + "TABLESAMPLE SYSTEM (%.4f) REPEATABLE (%d) ORDER BY id LIMIT %d",
+                    percent, SAMPLE_SEED, SAMPLE_SIZE));
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    sample.add(new SampledUser(rs.getLong("id"), rs.getString("username"), rs.getString("email"),
+                            rs.getString("password_hash"), rs.getBoolean("enabled")));
+                    String lastName = rs.getString("last_name");
+                    if (lastName != null && lastName.length() >= 4 && searchTerms.size() < 1000) {
+                        searchTerms.add(lastName.substring(0, 4).toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        }
+        if (sample.isEmpty()) {
+            throw new IllegalStateException("The users table is empty, run generate-users.sql first");
+        }
+        if (searchTerms.isEmpty()) {
+            searchTerms.add(sample.get(0).username.substring(0, Math.min(4, sample.get(0).username.length())));
+        }
+        // Shuffle with a fixed seed so that the hot users are spread over the id range
+        Collections.shuffle(sample, new Random(SAMPLE_SEED));
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(Worker worker) throws Exception;
+    }
+
+    /**
+     * Per-thread state: random source and a provider instance, as Keycloak creates one per session
+     */
+    private final class Worker {
+        private final Random random;
+        private final RealmModel realm = stub(RealmModel.class);
+        private final ExternalUserStorageProvider provider;
+
+        private Worker(Random random) {
+            this.random = random;
+            this.provider = new ExternalUserStorageProvider(stub(KeycloakSession.class), model, resources,
+                    rehashService, verificationEngine, loginThrottle);
+        }
+
+        /**
+         * Skewed pick: a small set of users gets most of the traffic
+         */
+        private SampledUser pick() {
+            return sample.get((int) (sample.size() * Math.pow(random.nextDouble(), 3)));
+        }
+
+        private String searchTerm() {
+            return searchTerms.get((int) (searchTerms.size() * Math.pow(random.nextDouble(), 2)));
+        }
+
+        private void close() {
+            provider.close();
+        }
+    }
+
+    private static final CredentialInput PASSWORD_INPUT = (CredentialInput) Proxy.newProxyInstance(
+            CredentialInput.class.getClassLoader(), new Class<?>[]{CredentialInput.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getType":
+                        return "password";
+                    case "getChallengeResponse":
+                        return PASSWORD;
+                    default:
+                        return null;
+                }
+            });
+
+    /**
+     * Interface instance returning defaults (null, false, 0) from every method, for Keycloak
+     * models the provider only passes through
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    return type.getSimpleName() + " stub";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    break;
+            }
+            Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) {
+                return false;
+            }
+            if (returnType == long.class) {
+                return 0L;
+            }
+            if (returnType == int.class) {
+                return 0;
+            }
+            return returnType == double.class ? 0.0 : null;
+        });
+    }
+
+    private static final class SampledUser {
+        private final long id;
+        private final String username;
+        private final String email;
+        private final String passwordHash;
+        private final boolean enabled;
+
+        private SampledUser(long id, String username, String email, String passwordHash, boolean enabled) {
+            this.id = id;
+            this.username = username;
+            this.email = email;
+            this.passwordHash = passwordHash;
+            this.enabled = enabled;
+        }
+    }
+}